@@ -0,0 +1,360 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.benchmarks;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
+
+import net.sf.savedirtyeditors.PluginConstants;
+import net.sf.savedirtyeditors.actions.SaveSnapshotAction;
+import net.sf.savedirtyeditors.filters.SnapshotNameMatcher;
+import net.sf.savedirtyeditors.jobs.SaveSnapshotJob;
+import net.sf.savedirtyeditors.jobs.SnapshotScheduler;
+import net.sf.savedirtyeditors.listeners.PartListener;
+import net.sf.savedirtyeditors.store.DocumentCapture;
+import net.sf.savedirtyeditors.store.SnapshotBuffer;
+import net.sf.savedirtyeditors.store.SnapshotChangeTracker;
+import net.sf.savedirtyeditors.store.SnapshotWriteQueue;
+import net.sf.savedirtyeditors.utils.DocumentEncoder;
+import net.sf.savedirtyeditors.utils.SnapshotMetrics;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+
+/**
+ * Checks the allocations of the steps that autosave runs over and over, for every open editor - since whatever they
+ * allocate turns into garbage collection pauses in the IDE sooner or later. Each step is run against a stand-in
+ * {@link Document}, and the bytes it allocates per run (see {@link AllocationMeter}) are held against its budget: a
+ * fixed number of bytes, plus so many bytes per character of the document for the steps that have to copy it. The
+ * program prints every step, and exits with 1 if any of them went over its budget (or 2 if the VM cannot count the
+ * allocations) - so that a change that allocates more on the hot path is noticed.
+ * <p>
+ * Besides the parts themselves (the idle tick of an editor that has not changed since its last snapshot, the copy, the
+ * encoding, the hand-over to the write queue and the metrics), the real {@link SnapshotScheduler},
+ * {@link SaveSnapshotJob}, {@link PartListener} and {@link SaveSnapshotAction} are checked against a
+ * {@link SyntheticEditor} in a {@link SyntheticEnvironment} - and the resource filters through their
+ * {@link SnapshotNameMatcher}, which is all that they run for every resource.
+ * <p>
+ * There is no build to hook this into, so it is run by hand (there is a launch configuration for it) whenever the hot
+ * path is changed.
+ */
+public final class AllocationBudgetCheck {
+    /**
+     * The length of the stand-in documents (in characters).
+     */
+    private static final int LENGTH = 64 * 1024;
+
+    private static final int WARM_UP_RUNS = 2000;
+    private static final int RUNS = 2000;
+
+    private static final String CHARSET = "UTF-8"; //$NON-NLS-1$
+
+    private final AllocationMeter meter = new AllocationMeter();
+    private final PrintStream out;
+    private boolean overBudget = false;
+
+    private AllocationBudgetCheck(final PrintStream out) {
+        super();
+        this.out = out;
+    }
+
+    /**
+     * Runs the checks.
+     * 
+     * @param args
+     *            Not used
+     * @exception IOException
+     *                If the temporary folder could not be created
+     */
+    public static void main(final String[] args) throws IOException {
+        final AllocationBudgetCheck check = new AllocationBudgetCheck(System.out);
+        if (!check.meter.isSupported()) {
+            System.err.println("The allocations cannot be counted on this VM"); //$NON-NLS-1$
+            System.exit(2);
+        }
+        check.run();
+        System.exit(check.overBudget ? 1 : 0);
+    }
+
+    private void run() throws IOException {
+        final Document document = new Document(createText(LENGTH));
+        final SnapshotChangeTracker tracker = new SnapshotChangeTracker(document);
+        tracker.isUnchanged();
+        tracker.written();
+        check("tracker.isUnchanged (idle tick)", 0, 0, new Runnable() { //$NON-NLS-1$
+            public void run() {
+                tracker.isUnchanged();
+            }
+        });
+        check("tracker.mayHaveChanged (idle tick)", 0, 0, new Runnable() { //$NON-NLS-1$
+            public void run() {
+                tracker.mayHaveChanged();
+            }
+        });
+        check("SnapshotMetrics.record", 0, 0, new Runnable() { //$NON-NLS-1$
+            public void run() {
+                SnapshotMetrics.record(SnapshotMetrics.CAPTURE, System.nanoTime());
+            }
+        });
+
+        final DocumentCapture capture = new DocumentCapture(document);
+        capture.connect();
+        // a single copy of the document (two bytes per character, at most), plus the keystroke
+        check("DocumentCapture.capture", 1024, 2, new Runnable() { //$NON-NLS-1$
+            public void run() {
+                // the copy that the document keeps between two changes would not be counted otherwise
+                type(document);
+                capture.capture();
+            }
+        });
+        capture.disconnect();
+
+        final DocumentEncoder encoder = new DocumentEncoder();
+        final String text = document.get();
+        final WritableByteChannel sink = new NullChannel();
+        // nothing that grows with the text - only a wrapper per chunk
+        check("DocumentEncoder.encode(text)", 1024, 0, new Runnable() { //$NON-NLS-1$
+            public void run() {
+                encode(encoder, text, sink);
+            }
+        });
+        // the chunks read from the document add up to a single copy of it
+        check("DocumentEncoder.encode(document)", 1024, 2, new Runnable() { //$NON-NLS-1$
+            public void run() {
+                encode(encoder, document, sink);
+            }
+        });
+
+        final SnapshotWriteQueue writeQueue = new SnapshotWriteQueue();
+        final TempFolderSnapshotStore store = new TempFolderSnapshotStore(TempFolderSnapshotStore.createTempFolder(),
+                false);
+        final IFile file = SyntheticResources.newFile("/check/File.java"); //$NON-NLS-1$
+        final SnapshotBuffer buffer = new SnapshotBuffer(1);
+        check("SnapshotWriteQueue.add and cancel", 256, 0, new Runnable() { //$NON-NLS-1$
+            public void run() {
+                writeQueue.add(store, file, buffer, tracker);
+                writeQueue.cancel(file);
+            }
+        });
+
+        final Pattern pattern = SnapshotNameMatcher.compile(PluginConstants.DEFAULT_SNAPSHOT_NAME_PREFIX,
+                PluginConstants.DEFAULT_SNAPSHOT_NAME_SUFFIX, "*.bak, *.tmp"); //$NON-NLS-1$
+        final SnapshotNameMatcher matcher = new SnapshotNameMatcher();
+        final String snapshotName = PluginConstants.DEFAULT_SNAPSHOT_NAME_PREFIX + "File.java" //$NON-NLS-1$
+                + PluginConstants.DEFAULT_SNAPSHOT_NAME_SUFFIX;
+        check("SnapshotResourceFilters.select (name matcher)", 0, 0, new Runnable() { //$NON-NLS-1$
+            public void run() {
+                matcher.matches(pattern, "File.java"); //$NON-NLS-1$
+                matcher.matches(pattern, snapshotName);
+            }
+        });
+
+        checkEditor(store, writeQueue);
+        writeQueue.dispose();
+        store.dispose();
+    }
+
+    /**
+     * Checks the steps that run for an open editor - with its snapshot up to date, which is where most of the editors
+     * are most of the time.
+     */
+    private void checkEditor(final TempFolderSnapshotStore store, final SnapshotWriteQueue writeQueue) {
+        final SyntheticEnvironment environment = new SyntheticEnvironment(store, writeQueue, new Executor() {
+            public void execute(final Runnable command) {
+                command.run();
+            }
+        });
+        environment.setRecovered(true);
+        final SnapshotScheduler scheduler = new SnapshotScheduler(environment);
+        final PartListener partListener = new PartListener(scheduler);
+        final IFile file = SyntheticResources.newFile("/check/Editor.java"); //$NON-NLS-1$
+        final SyntheticEditor editor = new SyntheticEditor(file, createText(LENGTH));
+        environment.add(editor);
+        partListener.partOpened(editor.getPart());
+        join();
+        // the scheduler takes the snapshot - after which the editor is dirty, but unchanged
+        editor.type(0);
+        scheduler.flush();
+        join();
+
+        check("SnapshotScheduler.find", 0, 0, new Runnable() { //$NON-NLS-1$
+            public void run() {
+                scheduler.find(editor.getPart());
+            }
+        });
+        check("PartListener.partActivated and partDeactivated", 0, 0, new Runnable() { //$NON-NLS-1$
+            public void run() {
+                partListener.partActivated(editor.getPart());
+                partListener.partDeactivated(editor.getPart());
+            }
+        });
+        final SaveSnapshotJob job = scheduler.find(editor.getPart());
+        final Method runMethod = getRunMethod();
+        final Object[] runArgs = new Object[] { new NullProgressMonitor() };
+        // rescheduling the scheduler is part of it - the job manager allocates for that
+        check("SaveSnapshotJob.run (recovered)", 1024, 0, new Runnable() { //$NON-NLS-1$
+            public void run() {
+                invoke(runMethod, job, runArgs);
+            }
+        });
+        partListener.partClosed(editor.getPart());
+        join();
+
+        final DocumentCapture capture = new DocumentCapture(editor.getDocument());
+        capture.connect();
+        final SnapshotChangeTracker tracker = new SnapshotChangeTracker(editor.getDocument());
+        final SaveSnapshotAction action = new SaveSnapshotAction(editor.getPart(), editor.getFile(), environment,
+                store, new DocumentEncoder(), writeQueue, capture, null, tracker);
+        editor.type(0);
+        run(action);
+        check("SaveSnapshotAction.run (unchanged)", 0, 0, new Runnable() { //$NON-NLS-1$
+            public void run() {
+                AllocationBudgetCheck.run(action);
+            }
+        });
+        // a copy of the document, and the buffer it is encoded into (one byte per character, in UTF-8)
+        check("SaveSnapshotAction.run (changed)", 2048, 3, new Runnable() { //$NON-NLS-1$
+            public void run() {
+                type(editor.getDocument());
+                AllocationBudgetCheck.run(action);
+            }
+        });
+        writeQueue.cancel(editor.getFile());
+        capture.disconnect();
+    }
+
+    /**
+     * Warms up the step, measures it, and holds it against its budget.
+     */
+    private void check(final String name, final long fixedBytes, final long bytesPerChar, final Runnable step) {
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            step.run();
+        }
+        final double allocated = meter.measure(step, RUNS);
+        final long budget = fixedBytes + bytesPerChar * LENGTH;
+        final boolean over = allocated > budget;
+        overBudget |= over;
+        out.println((over ? "OVER BUDGET\t" : "ok\t") + name + '\t' //$NON-NLS-1$ //$NON-NLS-2$
+                + Math.round(allocated) + " bytes/run\t(budget " + budget + ')'); //$NON-NLS-1$
+    }
+
+    private static void join() {
+        try {
+            Job.getJobManager().join(PluginConstants.JOB_FAMILY_NAME, null);
+        } catch (final InterruptedException exc) {
+            throw new IllegalStateException(exc.getMessage());
+        }
+    }
+
+    /**
+     * The jobs only run through the job manager - so the check has to reach their <code>run</code> reflectively.
+     */
+    private static Method getRunMethod() {
+        try {
+            final Method method = SaveSnapshotJob.class.getDeclaredMethod("run", //$NON-NLS-1$
+                    new Class[] { IProgressMonitor.class });
+            method.setAccessible(true);
+            return method;
+        } catch (final NoSuchMethodException exc) {
+            throw new IllegalStateException(exc.getMessage());
+        }
+    }
+
+    private static void invoke(final Method method, final Object target, final Object[] args) {
+        try {
+            method.invoke(target, args);
+        } catch (final Exception exc) {
+            throw new IllegalStateException(exc.toString());
+        }
+    }
+
+    private static void run(final SaveSnapshotAction action) {
+        try {
+            action.run();
+        } catch (final Exception exc) {
+            throw new IllegalStateException(exc.toString());
+        }
+    }
+
+    private static String createText(final int length) {
+        final StringBuffer text = new StringBuffer(length);
+        while (text.length() < length) {
+            text.append((text.length() % 80 == 79) ? '\n' : (char) ('a' + (text.length() % 26)));
+        }
+        return text.toString();
+    }
+
+    private static void type(final Document document) {
+        try {
+            document.replace(0, 1, document.getChar(0) == ' ' ? "\t" : " "); //$NON-NLS-1$ //$NON-NLS-2$
+        } catch (final BadLocationException exc) {
+            throw new IllegalStateException(exc.getMessage());
+        }
+    }
+
+    private static void encode(final DocumentEncoder encoder, final String text, final WritableByteChannel sink) {
+        try {
+            encoder.encode(text, CHARSET, sink);
+        } catch (final IOException exc) {
+            throw new IllegalStateException(exc.getMessage());
+        }
+    }
+
+    private static void encode(final DocumentEncoder encoder, final Document document,
+            final WritableByteChannel sink) {
+        try {
+            encoder.encode(document, CHARSET, sink);
+        } catch (final IOException exc) {
+            throw new IllegalStateException(exc.getMessage());
+        }
+    }
+
+    /**
+     * Throws away whatever is written to it - so that only the encoding is measured.
+     */
+    private static final class NullChannel implements WritableByteChannel {
+        NullChannel() {
+            super();
+        }
+
+        /**
+         * @see WritableByteChannel#write(ByteBuffer)
+         */
+        public int write(final ByteBuffer src) {
+            final int count = src.remaining();
+            src.position(src.limit());
+            return count;
+        }
+
+        /**
+         * @see WritableByteChannel#isOpen()
+         */
+        public boolean isOpen() {
+            return true;
+        }
+
+        /**
+         * @see WritableByteChannel#close()
+         */
+        public void close() {
+            // nothing to release
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * Counts the bytes allocated by the current thread - through <code>getThreadAllocatedBytes(long)</code> of
+ * <code>com.sun.management.ThreadMXBean</code>, which only exists on HotSpot from Java 6 on. It is looked up
+ * reflectively, so that the harness still builds for the J2SE-1.5 the plugin targets; where it is missing,
+ * {@link #isSupported()} says so. Looking up the count allocates a little by itself (the boxed thread id and the
+ * result), which {@link #measure(Runnable, int)} takes off again.
+ */
+final class AllocationMeter {
+    private static final String MX_BEAN_INTERFACE = "com.sun.management.ThreadMXBean"; //$NON-NLS-1$
+    private static final String METHOD_NAME = "getThreadAllocatedBytes"; //$NON-NLS-1$
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final Method allocatedBytes;
+    private final long overhead;
+
+    /**
+     * Constructor for AllocationMeter.
+     */
+    AllocationMeter() {
+        super();
+        this.allocatedBytes = findMethod(threads);
+        this.overhead = isSupported() ? calibrate() : 0;
+    }
+
+    private static Method findMethod(final ThreadMXBean threads) {
+        try {
+            final Class<?> type = Class.forName(MX_BEAN_INTERFACE);
+            if (!type.isInstance(threads)) {
+                return null;
+            }
+            final Method method = type.getMethod(METHOD_NAME, new Class[] { long.class });
+            return method.invoke(threads, new Object[] { Long.valueOf(Thread.currentThread().getId()) }) == null ? null
+                    : method;
+        } catch (final Exception exc) {
+            // not HotSpot, or too old
+            return null;
+        }
+    }
+
+    /**
+     * @return True if the allocations can be counted on this VM
+     */
+    boolean isSupported() {
+        return allocatedBytes != null;
+    }
+
+    /**
+     * Runs the operation the specified number of times, and counts what it allocates.
+     * 
+     * @param operation
+     *            The operation to be measured - which should have been run a few times already, so that neither the
+     *            class loading nor the JIT is counted
+     * @param runs
+     *            The number of times to run it
+     * @return The number of bytes allocated per run; or -1 if that cannot be counted on this VM
+     */
+    double measure(final Runnable operation, final int runs) {
+        if (!isSupported()) {
+            return -1;
+        }
+        final long before = getAllocatedBytes();
+        for (int i = 0; i < runs; i++) {
+            operation.run();
+        }
+        final long allocated = getAllocatedBytes() - before - overhead;
+        return Math.max(allocated, 0) / (double) runs;
+    }
+
+    private long calibrate() {
+        long least = Long.MAX_VALUE;
+        for (int i = 0; i < 100; i++) {
+            final long before = getAllocatedBytes();
+            least = Math.min(least, getAllocatedBytes() - before);
+        }
+        return least;
+    }
+
+    private long getAllocatedBytes() {
+        try {
+            return ((Long) allocatedBytes.invoke(threads, new Object[] { Long.valueOf(Thread.currentThread()
+                    .getId()) })).longValue();
+        } catch (final Exception exc) {
+            throw new IllegalStateException(exc.getMessage());
+        }
+    }
+}
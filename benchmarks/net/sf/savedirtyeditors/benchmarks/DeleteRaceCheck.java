@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+import net.sf.savedirtyeditors.PluginConstants;
+import net.sf.savedirtyeditors.actions.DeleteSnapshotAction;
+import net.sf.savedirtyeditors.store.SnapshotBuffer;
+import net.sf.savedirtyeditors.store.SnapshotWriteQueue;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Races a snapshot being queued against the snapshot being deleted - the editor is saved while the
+ * <code>SnapshotScheduler</code> is in the middle of a batch. The batch holds the rule of the snapshot, and queues a
+ * buffer for the {@link SnapshotWriteQueue} only once the {@link DeleteSnapshotAction} is blocked on the same rule;
+ * after the delete is done and the queue is drained, there must be no snapshot left. The check is repeated a number of
+ * times, and the program exits with 1 if a snapshot came back even once.
+ * <p>
+ * There is no build to hook this into, so it is run by hand (there is a launch configuration for it) whenever the
+ * write queue or the delete action is changed.
+ */
+public final class DeleteRaceCheck {
+    private static final int ROUNDS = 50;
+
+    /**
+     * The time (in millis) to wait for the delete to block on the rule, before giving up on the round.
+     */
+    private static final long BLOCK_TIMEOUT = 5000;
+
+    private DeleteRaceCheck() {
+        // no instances
+    }
+
+    /**
+     * Runs the check.
+     * 
+     * @param args
+     *            Not used
+     * @exception Exception
+     *                If the temporary folder could not be created, or the check was interrupted
+     */
+    public static void main(final String[] args) throws Exception {
+        final TempFolderSnapshotStore store = new TempFolderSnapshotStore(TempFolderSnapshotStore.createTempFolder(),
+                false);
+        final SnapshotWriteQueue writeQueue = new SnapshotWriteQueue();
+        final SyntheticEnvironment environment = new SyntheticEnvironment(store, writeQueue, new Executor() {
+            public void execute(final Runnable command) {
+                command.run();
+            }
+        });
+        int failures = 0;
+        try {
+            for (int i = 0; i < ROUNDS; i++) {
+                final SyntheticEditor editor = new SyntheticEditor(SyntheticResources
+                        .newFile("/check/File" + i + ".java"), "contents"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                environment.add(editor);
+                if (!race(environment, editor)) {
+                    failures++;
+                }
+            }
+        } finally {
+            writeQueue.dispose();
+            store.dispose();
+        }
+        System.out.print(failures == 0 ? "ok\t" : "FAILED\t"); //$NON-NLS-1$ //$NON-NLS-2$
+        System.out.println(failures + " of " + ROUNDS + " snapshots came back after being deleted"); //$NON-NLS-1$ //$NON-NLS-2$
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * @return True if the snapshot stayed deleted
+     */
+    private static boolean race(final SyntheticEnvironment environment, final SyntheticEditor editor)
+            throws Exception {
+        final TempFolderSnapshotStore store = (TempFolderSnapshotStore) environment.getSnapshotStore();
+        final IFile file = editor.getFile();
+        store.setContents(file, newBuffer());
+
+        final Throwable[] error = new Throwable[1];
+        final Thread delete = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    new DeleteSnapshotAction(editor.getPart(), file, environment).run();
+                } catch (final Throwable exc) {
+                    error[0] = exc;
+                }
+            }
+        }, "Delete"); //$NON-NLS-1$
+
+        // the batch of the scheduler - which still sees the editor as dirty
+        store.run(new IWorkspaceRunnable() {
+            public void run(final IProgressMonitor monitor) {
+                delete.start();
+                awaitBlocked(delete);
+                environment.getSnapshotWriteQueue().add(store, file, newBuffer(), null);
+            }
+        }, store.getSchedulingRule(file), null);
+        environment.getSnapshotWriteQueue().drain();
+
+        delete.join();
+        Job.getJobManager().join(PluginConstants.JOB_FAMILY_NAME, null);
+        if (error[0] != null) {
+            throw new IllegalStateException(error[0].toString());
+        }
+        return !store.exists(file);
+    }
+
+    private static void awaitBlocked(final Thread thread) {
+        final long end = System.currentTimeMillis() + BLOCK_TIMEOUT;
+        while (System.currentTimeMillis() < end) {
+            final Thread.State state = thread.getState();
+            if ((state == Thread.State.WAITING) || (state == Thread.State.TIMED_WAITING)
+                    || (state == Thread.State.TERMINATED)) {
+                return;
+            }
+            Thread.yield();
+        }
+    }
+
+    private static SnapshotBuffer newBuffer() {
+        final byte[] bytes = "snapshot".getBytes(); //$NON-NLS-1$
+        final SnapshotBuffer buffer = new SnapshotBuffer(bytes.length);
+        buffer.write(ByteBuffer.wrap(bytes));
+        return buffer;
+    }
+}
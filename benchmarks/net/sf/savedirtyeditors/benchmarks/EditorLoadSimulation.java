@@ -0,0 +1,303 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.benchmarks;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.savedirtyeditors.PluginConstants;
+import net.sf.savedirtyeditors.jobs.SnapshotScheduler;
+import net.sf.savedirtyeditors.listeners.PartListener;
+import net.sf.savedirtyeditors.listeners.WindowListener;
+import net.sf.savedirtyeditors.store.SnapshotWriteQueue;
+import net.sf.savedirtyeditors.utils.LatencyHistogram;
+import net.sf.savedirtyeditors.utils.SnapshotMetrics;
+
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
+
+/**
+ * Simulates a big workspace - a couple of hundred dirty editors - without a display, and prints how the snapshots keep
+ * up: snapshots per second, the lag of the job manager, the contention for the rules of the snapshots, and the tail
+ * latency of the callbacks on the (simulated) UI thread.
+ * <p>
+ * The very same {@link SnapshotScheduler}, <code>SaveSnapshotJob</code>s, {@link PartListener} and
+ * {@link WindowListener} that the plugin runs are run here, in a {@link SyntheticEnvironment} - so the quiet period,
+ * the maximum delay, the merged and time-boxed flushes, the deferral of what did not fit into a flush and the byte
+ * budget of the {@link SnapshotWriteQueue} all apply, just like in the workbench. The editors are
+ * {@link SyntheticEditor}s, and the snapshots are written into a temporary folder. A scripted workload runs on a single
+ * thread standing in for the UI thread: bursts of keystrokes into the active editor, switches to another editor (the
+ * one being left is deactivated, and saved now and then) and deactivations of the window.
+ * <p>
+ * The arguments are the number of editors (200), the length of the run in seconds (30), the keystrokes per second
+ * (100), the quiet period in millis (2000), the maximum delay of a snapshot in millis (15000) and the size of each
+ * document in characters (32768) - all optional.
+ */
+public final class EditorLoadSimulation {
+    /**
+     * The number of keystrokes in a row before the user switches to another editor - on average.
+     */
+    private static final int KEYSTROKES_PER_SWITCH = 40;
+
+    /**
+     * The number of editor switches before the user leaves the window - on average.
+     */
+    private static final int SWITCHES_PER_DEACTIVATION = 10;
+
+    /**
+     * The number of editor switches before the user saves the editor being left - on average.
+     */
+    private static final int SWITCHES_PER_SAVE = 4;
+
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private final List<SyntheticEditor> editors = new ArrayList<SyntheticEditor>();
+    private final TempFolderSnapshotStore store;
+    private final SnapshotWriteQueue writeQueue = new SnapshotWriteQueue();
+    private final ExecutorService uiThread = Executors.newSingleThreadExecutor();
+    private final SyntheticEnvironment environment;
+    private final SnapshotScheduler scheduler;
+    private final PartListener partListener;
+    private final WindowListener windowListener;
+    private final Random random = new Random(42);
+
+    private final LatencyHistogram uiCallbacks = new LatencyHistogram();
+    private final LatencyHistogram batches = new LatencyHistogram();
+    private final LatencyHistogram schedulingLag = new LatencyHistogram();
+
+    private SyntheticEditor active;
+    private int switches = 0;
+    private int saves = 0;
+    private int deactivations = 0;
+
+    private EditorLoadSimulation(final TempFolderSnapshotStore store, final long quietPeriod, final long maxDelay) {
+        super();
+        this.store = store;
+        this.environment = new SyntheticEnvironment(store, writeQueue, uiThread);
+        environment.getPreferenceStore().setValue(PluginConstants.KEY_QUIET_PERIOD, quietPeriod);
+        environment.getPreferenceStore().setValue(PluginConstants.KEY_RESCHEDULE_DELAY, maxDelay);
+        this.scheduler = new SnapshotScheduler(environment);
+        this.partListener = new PartListener(scheduler);
+        this.windowListener = new WindowListener(scheduler);
+        scheduler.addJobChangeListener(new JobChangeAdapter() {
+            private volatile long expectedStart;
+            private volatile long started;
+
+            @Override
+            public void scheduled(final IJobChangeEvent event) {
+                expectedStart = System.nanoTime() + event.getDelay() * 1000000;
+            }
+
+            @Override
+            public void running(final IJobChangeEvent event) {
+                started = System.nanoTime();
+                schedulingLag.record(Math.max(started - expectedStart, 0), 0);
+            }
+
+            @Override
+            public void done(final IJobChangeEvent event) {
+                batches.record(System.nanoTime() - started, 0);
+            }
+        });
+    }
+
+    /**
+     * Runs the simulation.
+     * 
+     * @param args
+     *            The number of editors, seconds, keystrokes per second, quiet period, maximum delay and document size -
+     *            all optional
+     * @exception Exception
+     *                If the temporary folder could not be created, or the simulation was interrupted
+     */
+    public static void main(final String[] args) throws Exception {
+        final int editorCount = getArgument(args, 0, 200);
+        final int seconds = getArgument(args, 1, 30);
+        final int keystrokesPerSecond = getArgument(args, 2, 100);
+        final int quietPeriod = getArgument(args, 3, (int) PluginConstants.DEFAULT_QUIET_PERIOD);
+        final int maxDelay = getArgument(args, 4, (int) PluginConstants.DEFAULT_RESCHEDULE_DELAY);
+        final int documentSize = getArgument(args, 5, 32 * 1024);
+
+        final TempFolderSnapshotStore store = new TempFolderSnapshotStore(TempFolderSnapshotStore.createTempFolder(),
+                false);
+        final EditorLoadSimulation simulation = new EditorLoadSimulation(store, quietPeriod, maxDelay);
+        try {
+            simulation.open(editorCount, documentSize);
+            final long start = System.nanoTime();
+            simulation.run(seconds * 1000L, keystrokesPerSecond);
+            simulation.print(System.out, (System.nanoTime() - start) / NANOS_PER_MILLI);
+        } finally {
+            simulation.close();
+            store.dispose();
+        }
+    }
+
+    private static int getArgument(final String[] args, final int index, final int defaultValue) {
+        return (args.length > index) ? Integer.parseInt(args[index]) : defaultValue;
+    }
+
+    /**
+     * Opens the editors through the {@link PartListener} - and waits for their reconciliations to be done, so that
+     * the measurements start with every editor being monitored.
+     */
+    private void open(final int editorCount, final int documentSize) throws InterruptedException {
+        final StringBuffer text = new StringBuffer(documentSize);
+        while (text.length() < documentSize) {
+            text.append((char) ('a' + (text.length() % 26)));
+            if (text.length() % 80 == 0) {
+                text.setCharAt(text.length() - 1, '\n');
+            }
+        }
+        final String contents = text.toString();
+        for (int i = 0; i < editorCount; i++) {
+            final String path = "/simulation/File" + i + ".java"; //$NON-NLS-1$ //$NON-NLS-2$
+            final SyntheticEditor editor = new SyntheticEditor(SyntheticResources.newFile(path), contents);
+            environment.add(editor);
+            editors.add(editor);
+            onUiThread(new Runnable() {
+                public void run() {
+                    partListener.partOpened(editor.getPart());
+                }
+            });
+        }
+        onUiThread(new Runnable() {
+            public void run() {
+                activate(editors.get(0));
+            }
+        });
+        Job.getJobManager().join(PluginConstants.JOB_FAMILY_NAME, null);
+    }
+
+    /**
+     * Plays the workload on the simulated UI thread, pacing the keystrokes - and then closes all the editors, and
+     * waits for the snapshots to be cleaned up.
+     */
+    private void run(final long millis, final int keystrokesPerSecond) throws InterruptedException {
+        final long pause = 1000000000L / Math.max(keystrokesPerSecond, 1);
+        final long end = System.nanoTime() + millis * 1000000;
+        long next = System.nanoTime();
+        while (System.nanoTime() < end) {
+            final int action = random.nextInt(KEYSTROKES_PER_SWITCH * SWITCHES_PER_DEACTIVATION);
+            if (action == 0) {
+                onUiThread(new Runnable() {
+                    public void run() {
+                        deactivations++;
+                        windowListener.windowDeactivated(null);
+                    }
+                });
+            } else if (action % KEYSTROKES_PER_SWITCH == 0) {
+                final SyntheticEditor target = editors.get(random.nextInt(editors.size()));
+                final boolean save = random.nextInt(SWITCHES_PER_SAVE) == 0;
+                onUiThread(new Runnable() {
+                    public void run() {
+                        switchTo(target, save);
+                    }
+                });
+            } else {
+                // the documents are only touched on the UI thread - so the offset is picked there
+                final int position = random.nextInt(Integer.MAX_VALUE);
+                onUiThread(new Runnable() {
+                    public void run() {
+                        active.type(position);
+                    }
+                });
+            }
+            next += pause;
+            final long sleep = next - System.nanoTime();
+            if (sleep > 0) {
+                Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+            }
+        }
+        onUiThread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < editors.size(); i++) {
+                    partListener.partClosed(editors.get(i).getPart());
+                }
+            }
+        });
+        uiThread.shutdown();
+        uiThread.awaitTermination(1, TimeUnit.MINUTES);
+        Job.getJobManager().join(PluginConstants.JOB_FAMILY_NAME, null);
+    }
+
+    /**
+     * Runs a callback on the simulated UI thread - recording the time from it being posted until it is done, which is
+     * how long the user waits for it.
+     */
+    private void onUiThread(final Runnable runnable) {
+        final long posted = System.nanoTime();
+        uiThread.execute(new Runnable() {
+            public void run() {
+                runnable.run();
+                uiCallbacks.record(System.nanoTime() - posted, 0);
+            }
+        });
+    }
+
+    private void switchTo(final SyntheticEditor editor, final boolean save) {
+        switches++;
+        partListener.partDeactivated(active.getPart());
+        if (save) {
+            saves++;
+            active.save();
+        }
+        activate(editor);
+    }
+
+    private void activate(final SyntheticEditor editor) {
+        active = editor;
+        partListener.partActivated(editor.getPart());
+    }
+
+    private void close() {
+        scheduler.cancel();
+        uiThread.shutdownNow();
+        writeQueue.dispose();
+    }
+
+    private void print(final PrintStream out, final double millis) {
+        final double seconds = millis / 1000;
+        final long taken = SnapshotMetrics.getHistogram(SnapshotMetrics.CAPTURE).getCount();
+        out.println("editors: " + editors.size() + ", seconds: " + format(seconds) //$NON-NLS-1$ //$NON-NLS-2$
+                + ", switches: " + switches + ", saves: " + saves //$NON-NLS-1$ //$NON-NLS-2$
+                + ", window deactivations: " + deactivations); //$NON-NLS-1$
+        out.println("snapshots taken: " + taken + " (" + format(taken / seconds) //$NON-NLS-1$ //$NON-NLS-2$
+                + "/s), written: " + store.getWrites().getCount() + " (" //$NON-NLS-1$ //$NON-NLS-2$
+                + format(store.getWrites().getCount() / seconds) + "/s)"); //$NON-NLS-1$
+        print(out, "batch", batches); //$NON-NLS-1$
+        print(out, "scheduling lag", schedulingLag); //$NON-NLS-1$
+        print(out, "rule wait", store.getRuleWaits()); //$NON-NLS-1$
+        print(out, "capture", SnapshotMetrics.getHistogram(SnapshotMetrics.CAPTURE)); //$NON-NLS-1$
+        print(out, "encode", SnapshotMetrics.getHistogram(SnapshotMetrics.ENCODE)); //$NON-NLS-1$
+        print(out, "write", store.getWrites()); //$NON-NLS-1$
+        print(out, "delete", SnapshotMetrics.getHistogram(SnapshotMetrics.DELETE)); //$NON-NLS-1$
+        print(out, "ui callback", uiCallbacks); //$NON-NLS-1$
+    }
+
+    private static void print(final PrintStream out, final String name, final LatencyHistogram histogram) {
+        out.println(name + ": count " + histogram.getCount() //$NON-NLS-1$
+                + ", mean " + format(histogram.getMeanMillis()) //$NON-NLS-1$
+                + " ms, p50 " + format(histogram.getMedianMillis()) //$NON-NLS-1$
+                + " ms, p90 " + format(histogram.get90thPercentileMillis()) //$NON-NLS-1$
+                + " ms, p99 " + format(histogram.get99thPercentileMillis()) //$NON-NLS-1$
+                + " ms, max " + format(histogram.getMaxMillis()) + " ms"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    private static String format(final double value) {
+        return String.valueOf(Math.round(value * 1000) / 1000.0);
+    }
+}
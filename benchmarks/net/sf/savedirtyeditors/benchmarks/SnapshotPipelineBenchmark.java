@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.benchmarks;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.sf.savedirtyeditors.store.DocumentCapture;
+import net.sf.savedirtyeditors.store.ISnapshotContents;
+import net.sf.savedirtyeditors.store.SnapshotBuffer;
+import net.sf.savedirtyeditors.utils.DocumentEncoder;
+import net.sf.savedirtyeditors.utils.LatencyHistogram;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+
+/**
+ * Measures the pipeline that a snapshot goes through - copying the contents of the document, encoding them, and
+ * writing them into a temporary folder - outside the workbench, against a plain {@link Document}. It runs documents
+ * from 1 KB up to 100 MB (in characters) in a few charsets, and prints the throughput (in characters of the document
+ * per second, so that the charsets can be compared) and the latency of each stage. Just like the
+ * <code>SaveSnapshotAction</code>, a document that {@link DocumentCapture} does not copy is encoded straight from the
+ * document into the file instead, which shows up as the <code>stream</code> stage.
+ * <p>
+ * This is a plain Java program rather than a JMH benchmark, since it has to build along with the plugin (for the
+ * J2SE-1.5 it targets) - so the runs are warmed up by hand, and the percentiles are only as precise as the buckets of
+ * the {@link LatencyHistogram}. Run it with the plugin and its required plugins on the classpath (the launch
+ * configuration in <code>.launchConfigs</code> does that), and enough heap for the largest document (a gigabyte for
+ * 100 MB). The arguments are the largest size in KB (102400 by default), and whether the snapshots are forced to the
+ * disk (<code>true</code> by default).
+ */
+public final class SnapshotPipelineBenchmark {
+    /**
+     * The sizes of the documents run (in characters) - up to the largest one asked for.
+     */
+    private static final int[] SIZES = { 1024, 16 * 1024, 256 * 1024, 4 * 1024 * 1024, 100 * 1024 * 1024 };
+
+    private static final String[] CHARSETS = { "UTF-8", //$NON-NLS-1$
+            "ISO-8859-1", //$NON-NLS-1$
+            "UTF-16" }; //$NON-NLS-1$
+
+    /**
+     * The line that the documents are made of - which has some characters that take more than a byte in UTF-8, but
+     * can all be encoded in ISO-8859-1.
+     */
+    private static final String LINE = "    caf\u00e9 = na\u00efve(\u00fcber, \"stra\u00dfe\"); // ok\n"; //$NON-NLS-1$
+
+    /**
+     * The number of characters that each size is run for, in total - within {@link #MIN_RUNS} and {@link #MAX_RUNS}.
+     */
+    private static final long CHARS_PER_SIZE = 256L * 1024 * 1024;
+
+    private static final int MIN_RUNS = 3;
+    private static final int MAX_RUNS = 2000;
+
+    private static final String CAPTURE = "capture"; //$NON-NLS-1$
+    private static final String ENCODE = "encode"; //$NON-NLS-1$
+    private static final String WRITE = "write"; //$NON-NLS-1$
+    private static final String STREAM = "stream"; //$NON-NLS-1$
+
+    private static final double MILLIS_PER_SECOND = 1000.0;
+    private static final double CHARS_PER_MEGA = 1024 * 1024;
+
+    private final TempFolderSnapshotStore store;
+    private final DocumentEncoder encoder = new DocumentEncoder();
+    private final PrintStream out;
+
+    private SnapshotPipelineBenchmark(final TempFolderSnapshotStore store, final PrintStream out) {
+        super();
+        this.store = store;
+        this.out = out;
+    }
+
+    /**
+     * Runs the benchmark.
+     * 
+     * @param args
+     *            The largest size in KB; and whether the snapshots are forced to the disk - both optional
+     * @exception Exception
+     *                If a snapshot could not be written
+     */
+    public static void main(final String[] args) throws Exception {
+        final long maxSize = (args.length > 0) ? Long.parseLong(args[0]) * 1024 : Long.MAX_VALUE;
+        final boolean sync = (args.length <= 1) || Boolean.valueOf(args[1]).booleanValue();
+        final TempFolderSnapshotStore store = new TempFolderSnapshotStore(TempFolderSnapshotStore.createTempFolder(),
+                sync);
+        try {
+            final SnapshotPipelineBenchmark benchmark = new SnapshotPipelineBenchmark(store, System.out);
+            benchmark.printHeader();
+            for (int i = 0; i < SIZES.length; i++) {
+                if (SIZES[i] > maxSize) {
+                    break;
+                }
+                final Document document = new Document(createText(SIZES[i]));
+                for (int j = 0; j < CHARSETS.length; j++) {
+                    benchmark.run(document, CHARSETS[j]);
+                }
+            }
+        } finally {
+            store.dispose();
+        }
+    }
+
+    private static String createText(final int length) {
+        final StringBuffer text = new StringBuffer(length);
+        while (text.length() < length) {
+            text.append(LINE, 0, Math.min(LINE.length(), length - text.length()));
+        }
+        return text.toString();
+    }
+
+    private void run(final Document document, final String charset) throws IOException, CoreException {
+        final int length = document.getLength();
+        final int runs = (int) Math.max(MIN_RUNS, Math.min(MAX_RUNS, CHARS_PER_SIZE / length));
+        final IFile file = SyntheticResources.newFile("/benchmark/" + length + '.' + charset); //$NON-NLS-1$
+        final DocumentCapture capture = new DocumentCapture(document);
+        capture.connect();
+        try {
+            final Map<String, LatencyHistogram> stages = new LinkedHashMap<String, LatencyHistogram>();
+            // the first runs only warm up the JIT - and are not counted
+            final int warmUp = Math.max(1, runs / 5);
+            for (int i = 0; i < warmUp; i++) {
+                runOnce(document, charset, capture, file, stages);
+            }
+            stages.clear();
+            for (int i = 0; i < runs; i++) {
+                runOnce(document, charset, capture, file, stages);
+            }
+            for (final Iterator<Map.Entry<String, LatencyHistogram>> iter = stages.entrySet().iterator(); iter
+                    .hasNext();) {
+                final Map.Entry<String, LatencyHistogram> entry = iter.next();
+                print(length, charset, entry.getKey(), entry.getValue());
+            }
+        } finally {
+            capture.disconnect();
+            store.delete(file);
+        }
+    }
+
+    private void runOnce(final Document document, final String charset, final DocumentCapture capture,
+            final IFile file, final Map<String, LatencyHistogram> stages) throws IOException, CoreException {
+        // a keystroke in between two snapshots - so that nothing is left over from the last run (for eg, the text
+        // cached by the document)
+        try {
+            document.replace(0, 1, document.getChar(0) == ' ' ? "\t" : " "); //$NON-NLS-1$ //$NON-NLS-2$
+        } catch (final BadLocationException exc) {
+            throw new IllegalStateException(exc.getMessage());
+        }
+        final int length = document.getLength();
+        if (!capture.accepts(length)) {
+            final long start = System.nanoTime();
+            store.setContents(file, new ISnapshotContents() {
+                public boolean writeTo(final WritableByteChannel channel) throws IOException {
+                    return encoder.encode(document, charset, channel);
+                }
+            });
+            record(stages, STREAM, start, length);
+            return;
+        }
+        long start = System.nanoTime();
+        final String contents = capture.capture();
+        record(stages, CAPTURE, start, length);
+
+        start = System.nanoTime();
+        final SnapshotBuffer buffer = new SnapshotBuffer(length);
+        encoder.encode(contents, charset, buffer);
+        record(stages, ENCODE, start, length);
+
+        start = System.nanoTime();
+        store.setContents(file, buffer);
+        record(stages, WRITE, start, length);
+    }
+
+    private static void record(final Map<String, LatencyHistogram> stages, final String stage, final long start,
+            final long chars) {
+        final long nanos = System.nanoTime() - start;
+        LatencyHistogram histogram = stages.get(stage);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            stages.put(stage, histogram);
+        }
+        histogram.record(nanos, chars);
+    }
+
+    private void printHeader() {
+        out.println("size(chars)\tcharset\tstage\truns\tMchars/s\tmean(ms)\tp50(ms)\tp99(ms)\tmax(ms)"); //$NON-NLS-1$
+    }
+
+    private void print(final int length, final String charset, final String stage, final LatencyHistogram histogram) {
+        final double seconds = histogram.getTotalMillis() / MILLIS_PER_SECOND;
+        final double throughput = (seconds > 0) ? histogram.getBytes() / CHARS_PER_MEGA / seconds : 0;
+        final StringBuffer line = new StringBuffer();
+        line.append(length).append('\t').append(charset).append('\t').append(stage);
+        line.append('\t').append(histogram.getCount());
+        line.append('\t').append(format(throughput));
+        line.append('\t').append(format(histogram.getMeanMillis()));
+        line.append('\t').append(format(histogram.getMedianMillis()));
+        line.append('\t').append(format(histogram.get99thPercentileMillis()));
+        line.append('\t').append(format(histogram.getMaxMillis()));
+        out.println(line);
+    }
+
+    private static String format(final double value) {
+        return String.valueOf(Math.round(value * 1000) / 1000.0);
+    }
+}
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.ui.IEditorPart;
+import org.eclipse.ui.IPropertyListener;
+
+/**
+ * Stands in for a text editor outside the workbench - a {@link Document} on a synthetic file, behind an
+ * {@link IEditorPart} {@link Proxy} that only knows whether it is dirty, and who listens to that. Just like a text
+ * editor, the first change after a save makes it dirty and a save makes it clean again - both firing
+ * {@link IEditorPart#PROP_DIRTY} after the document was changed. The file and the document are handed out by the
+ * {@link SyntheticEnvironment}, so the proxy need not answer anything else - and fails loudly if it is asked to.
+ * Everything except the constructor has to be called on the (simulated) UI thread.
+ */
+final class SyntheticEditor {
+    private final IFile file;
+    private final Document document;
+    private final IEditorPart part;
+
+    /**
+     * Boxed just once - since the editor is looked up in hash maps all the time.
+     */
+    private final Integer hashCode = Integer.valueOf(System.identityHashCode(this));
+    private final List<IPropertyListener> listeners = new CopyOnWriteArrayList<IPropertyListener>();
+    private volatile boolean dirty = false;
+
+    /**
+     * Constructor for SyntheticEditor.
+     * 
+     * @param file
+     *            The file being edited
+     * @param text
+     *            The contents of the file
+     */
+    SyntheticEditor(final IFile file, final String text) {
+        super();
+        this.file = file;
+        this.document = new Document(text);
+        this.part = (IEditorPart) Proxy.newProxyInstance(IEditorPart.class.getClassLoader(),
+                new Class[] { IEditorPart.class }, new InvocationHandler() {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        final String name = method.getName();
+                        if ("isDirty".equals(name)) { //$NON-NLS-1$
+                            return Boolean.valueOf(dirty);
+                        } else if ("addPropertyListener".equals(name)) { //$NON-NLS-1$
+                            listeners.add((IPropertyListener) args[0]);
+                            return null;
+                        } else if ("removePropertyListener".equals(name)) { //$NON-NLS-1$
+                            listeners.remove(args[0]);
+                            return null;
+                        } else if ("equals".equals(name)) { //$NON-NLS-1$
+                            return Boolean.valueOf(proxy == args[0]);
+                        } else if ("hashCode".equals(name)) { //$NON-NLS-1$
+                            return hashCode;
+                        } else if ("toString".equals(name)) { //$NON-NLS-1$
+                            return file.toString();
+                        }
+                        throw new UnsupportedOperationException(name);
+                    }
+                });
+    }
+
+    /**
+     * @return The file being edited
+     */
+    IFile getFile() {
+        return file;
+    }
+
+    /**
+     * @return The document being edited
+     */
+    Document getDocument() {
+        return document;
+    }
+
+    /**
+     * @return The editor itself
+     */
+    IEditorPart getPart() {
+        return part;
+    }
+
+    /**
+     * Types a character - making the editor dirty, if it was not.
+     * 
+     * @param position
+     *            Where to type it - wrapped around the length of the document
+     */
+    void type(final int position) {
+        try {
+            document.replace(position % (document.getLength() + 1), 0, "x"); //$NON-NLS-1$
+        } catch (final BadLocationException exc) {
+            throw new IllegalStateException(exc.getMessage());
+        }
+        if (!dirty) {
+            dirty = true;
+            firePropertyChange(IEditorPart.PROP_DIRTY);
+        }
+    }
+
+    /**
+     * Saves the editor - making it clean, if it was dirty.
+     */
+    void save() {
+        if (dirty) {
+            dirty = false;
+            firePropertyChange(IEditorPart.PROP_DIRTY);
+        }
+    }
+
+    private void firePropertyChange(final int propId) {
+        for (final Iterator<IPropertyListener> iter = listeners.iterator(); iter.hasNext();) {
+            iter.next().propertyChanged(part, propId);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import net.sf.savedirtyeditors.ISnapshotEnvironment;
+import net.sf.savedirtyeditors.PluginConstants;
+import net.sf.savedirtyeditors.store.ISnapshotStore;
+import net.sf.savedirtyeditors.store.SnapshotWriteQueue;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.preference.PreferenceStore;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.ui.IEditorPart;
+
+/**
+ * The {@link ISnapshotEnvironment} that the harnesses run the real <code>SnapshotScheduler</code>,
+ * <code>SaveSnapshotJob</code>s and snapshot actions in - without a workbench. The preferences start out with the
+ * defaults of the plugin, and can be changed through {@link #getPreferenceStore()}. There is a single store, the
+ * charset of every file is UTF-8, nothing is left over from an abnormal shutdown (so every editor is reconciled against
+ * the store when it is opened, just like in the workbench - unless {@link #setRecovered(boolean)} says otherwise), and
+ * the UI thread is whatever {@link Executor} the harness hands in.
+ */
+final class SyntheticEnvironment implements ISnapshotEnvironment {
+    private static final String CHARSET = "UTF-8"; //$NON-NLS-1$
+
+    private final ISnapshotStore store;
+    private final SnapshotWriteQueue writeQueue;
+    private final Executor uiThread;
+    private final IPreferenceStore preferences = new PreferenceStore();
+    private final Map<IEditorPart, SyntheticEditor> editors = new ConcurrentHashMap<IEditorPart, SyntheticEditor>();
+    private volatile boolean recovered = false;
+
+    /**
+     * Constructor for SyntheticEnvironment.
+     * 
+     * @param store
+     *            The store that the snapshots are kept in
+     * @param writeQueue
+     *            The queue that writes the snapshots
+     * @param uiThread
+     *            Runs the code that has to run on the UI thread
+     */
+    SyntheticEnvironment(final ISnapshotStore store, final SnapshotWriteQueue writeQueue, final Executor uiThread) {
+        super();
+        this.store = store;
+        this.writeQueue = writeQueue;
+        this.uiThread = uiThread;
+        preferences.setDefault(PluginConstants.KEY_RESCHEDULE_DELAY, PluginConstants.DEFAULT_RESCHEDULE_DELAY);
+        preferences.setDefault(PluginConstants.KEY_QUIET_PERIOD, PluginConstants.DEFAULT_QUIET_PERIOD);
+        preferences.setDefault(PluginConstants.KEY_COMPRESSION_ENABLED, PluginConstants.DEFAULT_COMPRESSION_ENABLED);
+        preferences.setDefault(PluginConstants.KEY_JOURNAL_ENABLED, PluginConstants.DEFAULT_JOURNAL_ENABLED);
+    }
+
+    /**
+     * Makes the file and the document of the editor known - which has to be done before it is opened.
+     * 
+     * @param editor
+     *            The editor
+     */
+    void add(final SyntheticEditor editor) {
+        editors.put(editor.getPart(), editor);
+    }
+
+    /**
+     * @param recovered
+     *            True if the snapshots of all the files are to be taken as already recovered - so that the editors are
+     *            not reconciled against the store
+     */
+    void setRecovered(final boolean recovered) {
+        this.recovered = recovered;
+    }
+
+    /**
+     * @see ISnapshotEnvironment#currentTimeMillis()
+     */
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @see ISnapshotEnvironment#isStopping()
+     */
+    public boolean isStopping() {
+        return false;
+    }
+
+    /**
+     * @see ISnapshotEnvironment#getPreferenceStore()
+     */
+    public IPreferenceStore getPreferenceStore() {
+        return preferences;
+    }
+
+    /**
+     * @see ISnapshotEnvironment#getSnapshotStore()
+     */
+    public ISnapshotStore getSnapshotStore() {
+        return store;
+    }
+
+    /**
+     * @see ISnapshotEnvironment#getSnapshotStores()
+     */
+    public ISnapshotStore[] getSnapshotStores() {
+        return new ISnapshotStore[] { store };
+    }
+
+    /**
+     * @see ISnapshotEnvironment#getSnapshotWriteQueue()
+     */
+    public SnapshotWriteQueue getSnapshotWriteQueue() {
+        return writeQueue;
+    }
+
+    /**
+     * @see ISnapshotEnvironment#isRecoveryPending(IFile)
+     */
+    public boolean isRecoveryPending(final IFile file) {
+        return false;
+    }
+
+    /**
+     * @see ISnapshotEnvironment#isRecovered(IFile)
+     */
+    public boolean isRecovered(final IFile file) {
+        return recovered;
+    }
+
+    /**
+     * @see ISnapshotEnvironment#getCharset(IFile)
+     */
+    public String getCharset(final IFile file) {
+        return CHARSET;
+    }
+
+    /**
+     * @see ISnapshotEnvironment#getFile(IEditorPart)
+     */
+    public IFile getFile(final IEditorPart editorPart) {
+        final SyntheticEditor editor = editors.get(editorPart);
+        return editor == null ? null : editor.getFile();
+    }
+
+    /**
+     * @see ISnapshotEnvironment#getDocument(IEditorPart)
+     */
+    public IDocument getDocument(final IEditorPart editorPart) {
+        final SyntheticEditor editor = editors.get(editorPart);
+        return editor == null ? null : editor.getDocument();
+    }
+
+    /**
+     * @see ISnapshotEnvironment#asyncExec(IEditorPart, Runnable)
+     */
+    public void asyncExec(final IEditorPart editorPart, final Runnable runnable) {
+        uiThread.execute(runnable);
+    }
+}
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * Stands in for the workspace outside the workbench - the snapshot stores and the write queue only ever ask a file for
+ * its path and name, so a {@link Proxy} answering just those is enough. Anything else fails loudly, so that a harness
+ * relying on more of the workspace is noticed right away.
+ */
+final class SyntheticResources {
+    private SyntheticResources() {
+        // no instances
+    }
+
+    /**
+     * @param path
+     *            The full path of the file - for eg, <code>/project/folder/file.txt</code>
+     * @return A file that knows its path and name - and is only equal to itself
+     */
+    static IFile newFile(final String path) {
+        final IPath fullPath = new Path(path);
+        // boxed just once - since the file is looked up in hash maps all the time
+        final Integer hashCode = Integer.valueOf(fullPath.hashCode());
+        return (IFile) Proxy.newProxyInstance(IFile.class.getClassLoader(), new Class[] { IFile.class },
+                new InvocationHandler() {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        final String name = method.getName();
+                        if ("getFullPath".equals(name)) { //$NON-NLS-1$
+                            return fullPath;
+                        } else if ("getName".equals(name)) { //$NON-NLS-1$
+                            return fullPath.lastSegment();
+                        } else if ("getFileExtension".equals(name)) { //$NON-NLS-1$
+                            return fullPath.getFileExtension();
+                        } else if ("equals".equals(name)) { //$NON-NLS-1$
+                            return Boolean.valueOf(proxy == args[0]);
+                        } else if ("hashCode".equals(name)) { //$NON-NLS-1$
+                            return hashCode;
+                        } else if ("toString".equals(name)) { //$NON-NLS-1$
+                            return fullPath.toString();
+                        }
+                        throw new UnsupportedOperationException(name);
+                    }
+                });
+    }
+}
@@ -0,0 +1,299 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sf.savedirtyeditors.PluginConstants;
+import net.sf.savedirtyeditors.store.ISnapshotContents;
+import net.sf.savedirtyeditors.store.ISnapshotStore;
+import net.sf.savedirtyeditors.store.ISnapshotVersion;
+import net.sf.savedirtyeditors.store.SnapshotManifest;
+import net.sf.savedirtyeditors.utils.LatencyHistogram;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.IJobManager;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * An {@link ISnapshotStore} in a temporary folder - for the harnesses that run outside the workbench, where the real
+ * stores cannot be used since they read the user preferences. Like the <code>StateLocationSnapshotStore</code>, each
+ * snapshot is written into a temporary file through a {@link FileChannel} (forced to the disk, if asked to) and then
+ * renamed over the previous one, and only a rule per file is held while writing it. There is no history (only the
+ * current snapshot is a version), no journal and no manifest. The time spent waiting for the rules is recorded, so
+ * that the contention between the batches and the writer can be told apart from the time spent writing.
+ */
+final class TempFolderSnapshotStore implements ISnapshotStore {
+    private static final String SNAPSHOT_EXTENSION = ".snapshot"; //$NON-NLS-1$
+    private static final String TEMP_EXTENSION = ".tmp"; //$NON-NLS-1$
+
+    private final File folder;
+    private final boolean sync;
+    private final Map<IFile, ISchedulingRule> rules = new HashMap<IFile, ISchedulingRule>();
+    private final LatencyHistogram ruleWaits = new LatencyHistogram();
+    private final LatencyHistogram writes = new LatencyHistogram();
+
+    /**
+     * Constructor for TempFolderSnapshotStore.
+     * 
+     * @param folder
+     *            The folder that the snapshots are written into - which is created if needed
+     * @param sync
+     *            True if every snapshot has to be forced to the disk before it is renamed
+     */
+    TempFolderSnapshotStore(final File folder, final boolean sync) {
+        super();
+        this.folder = folder;
+        this.sync = sync;
+        folder.mkdirs();
+    }
+
+    /**
+     * Creates a new (empty) folder for the snapshots - under the temporary folder of the system.
+     * 
+     * @return The folder
+     * @exception IOException
+     *                If the folder could not be created
+     */
+    static File createTempFolder() throws IOException {
+        final File folder = File.createTempFile("snapshots", ""); //$NON-NLS-1$ //$NON-NLS-2$
+        if (!folder.delete() || !folder.mkdir()) {
+            throw new IOException(folder.getPath());
+        }
+        return folder;
+    }
+
+    /**
+     * @return The times spent waiting for the rules of the batches
+     */
+    LatencyHistogram getRuleWaits() {
+        return ruleWaits;
+    }
+
+    /**
+     * @return The times spent writing the snapshots - along with the number of bytes written
+     */
+    LatencyHistogram getWrites() {
+        return writes;
+    }
+
+    /**
+     * @see ISnapshotStore#getSchedulingRule(IFile)
+     */
+    public synchronized ISchedulingRule getSchedulingRule(final IFile original) {
+        ISchedulingRule rule = rules.get(original);
+        if (rule == null) {
+            rule = new FileRule();
+            rules.put(original, rule);
+        }
+        return rule;
+    }
+
+    /**
+     * @see ISnapshotStore#run(IWorkspaceRunnable, ISchedulingRule, IProgressMonitor)
+     */
+    public void run(final IWorkspaceRunnable runnable, final ISchedulingRule rule, final IProgressMonitor monitor)
+            throws CoreException {
+        final IJobManager jobManager = Job.getJobManager();
+        final long start = System.nanoTime();
+        try {
+            jobManager.beginRule(rule, monitor);
+            ruleWaits.record(System.nanoTime() - start, 0);
+            runnable.run(monitor);
+        } finally {
+            jobManager.endRule(rule);
+        }
+    }
+
+    /**
+     * @see ISnapshotStore#refresh(IFile)
+     */
+    public void refresh(final IFile original) {
+        // do nothing
+    }
+
+    /**
+     * @see ISnapshotStore#exists(IFile)
+     */
+    public boolean exists(final IFile original) {
+        return getSnapshotFile(original).exists();
+    }
+
+    /**
+     * @see ISnapshotStore#journalExists(IFile)
+     */
+    public boolean journalExists(final IFile original) {
+        return false;
+    }
+
+    /**
+     * @see ISnapshotStore#getContents(IFile)
+     */
+    public InputStream getContents(final IFile original) throws CoreException {
+        return open(getSnapshotFile(original));
+    }
+
+    private static InputStream open(final File file) throws CoreException {
+        try {
+            return new FileInputStream(file);
+        } catch (final IOException exc) {
+            throw newCoreException(file, exc);
+        }
+    }
+
+    /**
+     * @see ISnapshotStore#getJournalContents(IFile)
+     */
+    public InputStream getJournalContents(final IFile original) {
+        return null;
+    }
+
+    /**
+     * @see ISnapshotStore#getVersions(IFile)
+     */
+    public ISnapshotVersion[] getVersions(final IFile original) {
+        final File file = getSnapshotFile(original);
+        if (!file.exists()) {
+            return new ISnapshotVersion[0];
+        }
+        return new ISnapshotVersion[] { new ISnapshotVersion() {
+            public long getTimeStamp() {
+                return file.lastModified();
+            }
+
+            public long getSize() {
+                return file.length();
+            }
+
+            public InputStream getContents() throws CoreException {
+                return open(file);
+            }
+        } };
+    }
+
+    /**
+     * @see ISnapshotStore#setContents(IFile, ISnapshotContents)
+     */
+    public boolean setContents(final IFile original, final ISnapshotContents contents) throws CoreException {
+        final File file = getSnapshotFile(original);
+        final File tempFile = new File(folder, file.getName() + TEMP_EXTENSION);
+        final long start = System.nanoTime();
+        try {
+            final FileOutputStream outputStream = new FileOutputStream(tempFile);
+            try {
+                final FileChannel channel = outputStream.getChannel();
+                if (!contents.writeTo(channel)) {
+                    outputStream.close();
+                    tempFile.delete();
+                    return false;
+                }
+                if (sync) {
+                    channel.force(true);
+                }
+            } finally {
+                outputStream.close();
+            }
+            if ((file.exists() && !file.delete()) || !tempFile.renameTo(file)) {
+                throw new IOException(file.getPath());
+            }
+        } catch (final IOException exc) {
+            throw newCoreException(file, exc);
+        }
+        writes.record(System.nanoTime() - start, file.length());
+        return true;
+    }
+
+    /**
+     * @see ISnapshotStore#appendJournal(IFile, byte[])
+     */
+    public void appendJournal(final IFile original, final byte[] records) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @see ISnapshotStore#deleteJournal(IFile)
+     */
+    public void deleteJournal(final IFile original) {
+        // there is never a journal
+    }
+
+    /**
+     * @see ISnapshotStore#getManifest()
+     */
+    public SnapshotManifest getManifest() {
+        return null;
+    }
+
+    /**
+     * @see ISnapshotStore#delete(IFile)
+     */
+    public void delete(final IFile original) {
+        getSnapshotFile(original).delete();
+    }
+
+    /**
+     * Deletes all the snapshots, and the folder itself.
+     * 
+     * @see ISnapshotStore#dispose()
+     */
+    public void dispose() {
+        final File[] files = folder.listFiles();
+        for (int i = 0; (files != null) && (i < files.length); i++) {
+            files[i].delete();
+        }
+        folder.delete();
+    }
+
+    private File getSnapshotFile(final IFile original) {
+        final String name = original.getFullPath().makeRelative().toPortableString().replace('/', '_');
+        return new File(folder, name + SNAPSHOT_EXTENSION);
+    }
+
+    private static CoreException newCoreException(final File file, final IOException exc) {
+        return new CoreException(new Status(IStatus.ERROR, PluginConstants.PLUGIN_ID, IStatus.OK, file.getPath(), exc));
+    }
+
+    /**
+     * The rule for a single snapshot - which only conflicts with itself.
+     */
+    private static final class FileRule implements ISchedulingRule {
+        FileRule() {
+            super();
+        }
+
+        /**
+         * @see ISchedulingRule#contains(ISchedulingRule)
+         */
+        public boolean contains(final ISchedulingRule rule) {
+            return rule == this;
+        }
+
+        /**
+         * @see ISchedulingRule#isConflicting(ISchedulingRule)
+         */
+        public boolean isConflicting(final ISchedulingRule rule) {
+            return rule == this;
+        }
+    }
+}
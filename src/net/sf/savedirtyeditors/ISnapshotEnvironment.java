@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors;
+
+import net.sf.savedirtyeditors.jobs.SaveSnapshotJob;
+import net.sf.savedirtyeditors.jobs.SnapshotScheduler;
+import net.sf.savedirtyeditors.store.ISnapshotStore;
+import net.sf.savedirtyeditors.store.SnapshotWriteQueue;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.ui.IEditorPart;
+
+/**
+ * Everything that the {@link SnapshotScheduler}, the {@link SaveSnapshotJob}s and the snapshot actions they run need
+ * from the workbench - the clock, the user preferences, the stores and the write queue, the files and documents of the
+ * editors, and the UI thread. The {@link PluginActivator} provides the real ones; the harnesses in the
+ * <code>benchmarks</code> source folder run the very same classes against stand-ins, without a workbench or a display.
+ */
+public interface ISnapshotEnvironment {
+    /**
+     * @return The current time in millis - which the snapshots are scheduled by
+     * @see System#currentTimeMillis()
+     */
+    long currentTimeMillis();
+
+    /**
+     * @return True if the system is shutting down - in which case no more snapshots are taken
+     */
+    boolean isStopping();
+
+    /**
+     * @return The store holding the user preferences (see {@link PluginConstants})
+     */
+    IPreferenceStore getPreferenceStore();
+
+    /**
+     * @return The {@link ISnapshotStore} where the snapshots are to be kept
+     */
+    ISnapshotStore getSnapshotStore();
+
+    /**
+     * @return All the {@link ISnapshotStore}s, starting with the one in use - so that snapshots can be cleaned up from
+     *         all of them
+     */
+    ISnapshotStore[] getSnapshotStores();
+
+    /**
+     * @return The {@link SnapshotWriteQueue} that writes the snapshots taken by the {@link SnapshotScheduler}
+     */
+    SnapshotWriteQueue getSnapshotWriteQueue();
+
+    /**
+     * @param file
+     *            The original file
+     * @return True if the snapshots left behind by an abnormal shutdown are still being looked at (or shown to the
+     *         user) - so that the snapshot of the file must not be touched yet
+     */
+    boolean isRecoveryPending(IFile file);
+
+    /**
+     * @param file
+     *            The original file
+     * @return True if the snapshot of the file was already restored or discarded after an abnormal shutdown - so that
+     *         it need not be reconciled again
+     */
+    boolean isRecovered(IFile file);
+
+    /**
+     * @param file
+     *            The original file
+     * @return The name of the charset of the file
+     * @exception CoreException
+     *                If the charset could not be determined
+     */
+    String getCharset(IFile file) throws CoreException;
+
+    /**
+     * @param editorPart
+     *            The editor
+     * @return The file being edited in the editor; or <code>null</code> if it is not editing a file
+     */
+    IFile getFile(IEditorPart editorPart);
+
+    /**
+     * @param editorPart
+     *            The editor
+     * @return The document being edited in the editor; or <code>null</code> if it is not a text editor
+     */
+    IDocument getDocument(IEditorPart editorPart);
+
+    /**
+     * Runs the specified code on the UI thread of the editor, some time later.
+     * 
+     * @param editorPart
+     *            The editor
+     * @param runnable
+     *            The code to run
+     */
+    void asyncExec(IEditorPart editorPart, Runnable runnable);
+}
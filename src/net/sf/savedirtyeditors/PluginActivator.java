@@ -10,34 +10,73 @@
  *******************************************************************************/
 package net.sf.savedirtyeditors;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.sf.savedirtyeditors.filters.SnapshotResourceFilters;
+import net.sf.savedirtyeditors.jobs.SnapshotRecoveryJob;
+import net.sf.savedirtyeditors.jobs.SnapshotScheduler;
 import net.sf.savedirtyeditors.listeners.PartListener;
 import net.sf.savedirtyeditors.listeners.WindowListener;
+import net.sf.savedirtyeditors.store.ISnapshotStore;
+import net.sf.savedirtyeditors.store.SnapshotWriteQueue;
+import net.sf.savedirtyeditors.store.StateLocationSnapshotStore;
+import net.sf.savedirtyeditors.store.WorkspaceSnapshotStore;
+import net.sf.savedirtyeditors.utils.CharsetCache;
+import net.sf.savedirtyeditors.utils.ResourceUtils;
+import net.sf.savedirtyeditors.utils.SnapshotMetrics;
+import net.sf.savedirtyeditors.utils.TraceBuffer;
 
+import org.eclipse.core.resources.IFile;
 import org.eclipse.core.runtime.Assert;
+import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.text.IDocument;
 import org.eclipse.ui.IEditorPart;
 import org.eclipse.ui.IStartup;
 import org.eclipse.ui.IWorkbenchWindow;
 import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 
 /**
- * The main plugin class to be used in the desktop.
+ * The main plugin class to be used in the desktop - which is also the {@link ISnapshotEnvironment} that the snapshots
+ * are taken in.
  */
-public class PluginActivator extends AbstractUIPlugin implements IStartup {
+public class PluginActivator extends AbstractUIPlugin implements IStartup, ISnapshotEnvironment {
     /**
      * A flag used by the plugin to determine whether to log info messages.
      */
     private static final boolean INFO = false;
 
+    /**
+     * The number of trace events held in memory until they are written to the log.
+     */
+    private static final int TRACE_CAPACITY = 1024;
+
     // The shared instance.
     private static PluginActivator plugin;
 
     private WindowListener windowListener;
     private PartListener partListener;
+    private SnapshotScheduler snapshotScheduler;
+    private SnapshotWriteQueue snapshotWriteQueue;
+    private SnapshotRecoveryJob snapshotRecoveryJob;
+    private ISnapshotStore workspaceSnapshotStore;
+    private ISnapshotStore stateLocationSnapshotStore;
+    private CharsetCache charsetCache;
+    private Bundle systemBundle;
+
+    /**
+     * The debug options that are turned on - see {@link #isTracing(String)}.
+     */
+    private volatile Set<String> traceOptions = Collections.emptySet();
+    private volatile TraceBuffer traceBuffer;
 
     /**
      * The constructor.
@@ -46,8 +85,11 @@ public class PluginActivator extends AbstractUIPlugin implements IStartup {
         super();
         Assert.isTrue(plugin == null);
         plugin = this;
-        windowListener = new WindowListener();
-        partListener = new PartListener();
+        snapshotScheduler = new SnapshotScheduler(this);
+        windowListener = new WindowListener(snapshotScheduler);
+        partListener = new PartListener(snapshotScheduler);
+        snapshotWriteQueue = new SnapshotWriteQueue();
+        snapshotRecoveryJob = new SnapshotRecoveryJob();
     }
 
     /**
@@ -56,6 +98,9 @@ public class PluginActivator extends AbstractUIPlugin implements IStartup {
      * @see IStartup#earlyStartup()
      */
     public void earlyStartup() {
+        // reconcile the snapshots left behind by an abnormal shutdown - before the editors get to them one by one
+        snapshotRecoveryJob.schedule();
+
         // add a window listener to the current workbench - for future windows opened from this
         PlatformUI.getWorkbench().addWindowListener(windowListener);
 
@@ -74,6 +119,33 @@ public class PluginActivator extends AbstractUIPlugin implements IStartup {
         }
     }
 
+    /**
+     * This method is called when the plug-in is started - and reads the debug options, if the plugin is being debugged.
+     * The {@link SnapshotMetrics} are registered with JMX right away, so that they can be watched from the start.
+     * 
+     * @see AbstractUIPlugin#start(BundleContext)
+     */
+    @Override
+    public void start(final BundleContext context) throws Exception {
+        super.start(context);
+        systemBundle = Platform.getBundle("org.eclipse.osgi"); //$NON-NLS-1$
+        SnapshotMetrics.register();
+        if (isDebugging()) {
+            final String[] options = { PluginConstants.TRACE_ACTIONS, PluginConstants.TRACE_JOBS,
+                    PluginConstants.TRACE_LISTENERS, PluginConstants.TRACE_STORE };
+            final Set<String> enabled = new HashSet<String>();
+            for (int i = 0; i < options.length; i++) {
+                if ("true".equalsIgnoreCase(Platform.getDebugOption(options[i]))) { //$NON-NLS-1$
+                    enabled.add(options[i]);
+                }
+            }
+            if (!enabled.isEmpty()) {
+                traceBuffer = new TraceBuffer(getLog(), TRACE_CAPACITY);
+                traceOptions = enabled;
+            }
+        }
+    }
+
     /**
      * This method is called when the plug-in is stopped
      * 
@@ -91,8 +163,36 @@ public class PluginActivator extends AbstractUIPlugin implements IStartup {
             // remove the window listener from the current workbench
             PlatformUI.getWorkbench().removeWindowListener(windowListener);
 
+            snapshotScheduler.cancel();
+            snapshotWriteQueue.dispose();
+            snapshotRecoveryJob.cancel();
+            SnapshotResourceFilters.uninstall();
+            SnapshotMetrics.unregister();
+            synchronized (this) {
+                if (workspaceSnapshotStore != null) {
+                    workspaceSnapshotStore.dispose();
+                }
+                if (stateLocationSnapshotStore != null) {
+                    stateLocationSnapshotStore.dispose();
+                }
+                if (charsetCache != null) {
+                    charsetCache.dispose();
+                }
+            }
+
             windowListener = null;
             partListener = null;
+            snapshotScheduler = null;
+            snapshotWriteQueue = null;
+            snapshotRecoveryJob = null;
+            workspaceSnapshotStore = null;
+            stateLocationSnapshotStore = null;
+            charsetCache = null;
+            traceOptions = Collections.emptySet();
+            if (traceBuffer != null) {
+                traceBuffer.dispose();
+                traceBuffer = null;
+            }
             plugin = null;
         } finally {
             super.stop(context);
@@ -108,6 +208,147 @@ public class PluginActivator extends AbstractUIPlugin implements IStartup {
         return plugin;
     }
 
+    /**
+     * Returns the single {@link SnapshotScheduler} that takes the snapshots for all the editors.
+     * 
+     * @return the snapshot scheduler.
+     */
+    public final SnapshotScheduler getSnapshotScheduler() {
+        return snapshotScheduler;
+    }
+
+    /**
+     * Returns the {@link SnapshotWriteQueue} that writes the snapshots taken by the {@link SnapshotScheduler}.
+     * 
+     * @return the snapshot write queue.
+     */
+    public final SnapshotWriteQueue getSnapshotWriteQueue() {
+        return snapshotWriteQueue;
+    }
+
+    /**
+     * Returns the {@link SnapshotRecoveryJob} that reconciles the snapshots left behind by an abnormal shutdown.
+     * 
+     * @return the snapshot recovery job.
+     */
+    public final SnapshotRecoveryJob getSnapshotRecoveryJob() {
+        return snapshotRecoveryJob;
+    }
+
+    /**
+     * Returns the {@link ISnapshotStore} where the snapshots are to be kept - as chosen by the user preference for
+     * {@link PluginConstants#KEY_SNAPSHOT_IN_WORKSPACE}.
+     * 
+     * @return the snapshot store in use.
+     */
+    public final ISnapshotStore getSnapshotStore() {
+        if (getBooleanPreference(PluginConstants.KEY_SNAPSHOT_IN_WORKSPACE)) {
+            return getWorkspaceSnapshotStore();
+        }
+        return getStateLocationSnapshotStore();
+    }
+
+    /**
+     * Returns all the {@link ISnapshotStore}s, starting with the one in use - so that snapshots can be cleaned up even
+     * if the user changed the preference for {@link PluginConstants#KEY_SNAPSHOT_IN_WORKSPACE} while they existed.
+     * 
+     * @return all the snapshot stores.
+     */
+    public final ISnapshotStore[] getSnapshotStores() {
+        final ISnapshotStore current = getSnapshotStore();
+        final ISnapshotStore other = (current == getWorkspaceSnapshotStore()) ? getStateLocationSnapshotStore()
+                : getWorkspaceSnapshotStore();
+        return new ISnapshotStore[] { current, other };
+    }
+
+    /**
+     * @see ISnapshotEnvironment#isRecoveryPending(IFile)
+     */
+    public final boolean isRecoveryPending(final IFile file) {
+        return !snapshotRecoveryJob.isDone() || snapshotRecoveryJob.isPending(file);
+    }
+
+    /**
+     * @see ISnapshotEnvironment#isRecovered(IFile)
+     */
+    public final boolean isRecovered(final IFile file) {
+        return snapshotRecoveryJob.isHandled(file);
+    }
+
+    /**
+     * @see ISnapshotEnvironment#currentTimeMillis()
+     */
+    public final long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @see ISnapshotEnvironment#isStopping()
+     */
+    public final boolean isStopping() {
+        return (systemBundle != null) && (systemBundle.getState() == Bundle.STOPPING);
+    }
+
+    /**
+     * Returns the charset of the file - from the {@link CharsetCache}, so that it is not looked up every time a
+     * snapshot is taken.
+     * 
+     * @see ISnapshotEnvironment#getCharset(IFile)
+     */
+    public final String getCharset(final IFile file) throws CoreException {
+        return getCharsetCache().getCharset(file);
+    }
+
+    /**
+     * @see ISnapshotEnvironment#getFile(IEditorPart)
+     */
+    public final IFile getFile(final IEditorPart editorPart) {
+        return ResourceUtils.getFile(editorPart);
+    }
+
+    /**
+     * @see ISnapshotEnvironment#getDocument(IEditorPart)
+     */
+    public final IDocument getDocument(final IEditorPart editorPart) {
+        return ResourceUtils.getDocument(editorPart);
+    }
+
+    /**
+     * @see ISnapshotEnvironment#asyncExec(IEditorPart, Runnable)
+     */
+    public final void asyncExec(final IEditorPart editorPart, final Runnable runnable) {
+        ResourceUtils.getDisplay(editorPart).asyncExec(runnable);
+    }
+
+    /**
+     * Returns the {@link CharsetCache} holding the charsets of the files being snapshot.
+     * 
+     * @return the charset cache.
+     */
+    public final synchronized CharsetCache getCharsetCache() {
+        // it listens to the workspace - so it is only created once there is something to snapshot
+        if (charsetCache == null) {
+            charsetCache = new CharsetCache();
+        }
+        return charsetCache;
+    }
+
+    private synchronized ISnapshotStore getWorkspaceSnapshotStore() {
+        // its manifest is kept in the state location - so this cannot be created upfront either
+        if (workspaceSnapshotStore == null) {
+            workspaceSnapshotStore = new WorkspaceSnapshotStore(getStateLocation());
+        }
+        return workspaceSnapshotStore;
+    }
+
+    private synchronized ISnapshotStore getStateLocationSnapshotStore() {
+        // the state location is not available until the bundle is started - so this cannot be created upfront
+        if (stateLocationSnapshotStore == null) {
+            stateLocationSnapshotStore = new StateLocationSnapshotStore(getStateLocation());
+        }
+        return stateLocationSnapshotStore;
+    }
+
     /**
      * A utility method to retrieve the primitive long preference value for the specified key.
      * 
@@ -134,6 +375,19 @@ public class PluginActivator extends AbstractUIPlugin implements IStartup {
         return getDefault().getPreferenceStore().getString(key);
     }
 
+    /**
+     * A utility method to retrieve the primitive boolean preference value for the specified key.
+     * 
+     * @param key
+     *            The key whose preference value has to be retrieved
+     * @return The boolean preference value from the user preferences or default (as specified by
+     *         {@link IPreferenceStore#getBoolean(String)}
+     * @see IPreferenceStore#getBoolean(String)
+     */
+    public static final boolean getBooleanPreference(final String key) {
+        return getDefault().getPreferenceStore().getBoolean(key);
+    }
+
     /**
      * Utility method to log an error represented by/in {@link Throwable}
      * 
@@ -157,15 +411,34 @@ public class PluginActivator extends AbstractUIPlugin implements IStartup {
     }
 
     /**
-     * Utility method to log a debug message
+     * Returns true if the specified debug option is turned on - which is only the case if the plugin is being debugged,
+     * and the option is set to <code>true</code> in the .options file. Callers should check this before building the
+     * message for {@link #trace(String, String)}, so that tracing costs nothing when it is turned off.
      * 
+     * @param option
+     *            The debug option - one of the <code>TRACE_</code> constants in {@link PluginConstants}
+     * @return True if the events for the option are traced
+     */
+    public static final boolean isTracing(final String option) {
+        // HACKTAG: Dont know why - but we need to do a null check (for 3.1)
+        final PluginActivator activator = getDefault();
+        return (activator != null) && activator.traceOptions.contains(option);
+    }
+
+    /**
+     * Utility method to trace a debug message - which is held in memory, and written to the log in the background.
+     * 
+     * @param option
+     *            The debug option - one of the <code>TRACE_</code> constants in {@link PluginConstants}
      * @param message
      *            The text to be logged
+     * @see #isTracing(String)
      */
-    public static final void logDebug(final String message) {
-        // HACKTAG: Dont know why - but we need to do a null check (for 3.1)
-        if ((getDefault() != null) && getDefault().isDebugging()) {
-            log(new Status(IStatus.WARNING, PluginConstants.PLUGIN_ID, IStatus.WARNING, message, null));
+    public static final void trace(final String option, final String message) {
+        final PluginActivator activator = getDefault();
+        final TraceBuffer buffer = activator == null ? null : activator.traceBuffer;
+        if ((buffer != null) && activator.traceOptions.contains(option)) {
+            buffer.add(message);
         }
     }
 
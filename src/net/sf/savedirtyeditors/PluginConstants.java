@@ -31,6 +31,26 @@ public interface PluginConstants {
      */
     String ERROR = "Error"; //$NON-NLS-1$
 
+    /**
+     * Debug option (see the .options file) for tracing the snapshot actions.
+     */
+    String TRACE_ACTIONS = PLUGIN_ID + "/debug/actions"; //$NON-NLS-1$
+
+    /**
+     * Debug option (see the .options file) for tracing the snapshot jobs.
+     */
+    String TRACE_JOBS = PLUGIN_ID + "/debug/jobs"; //$NON-NLS-1$
+
+    /**
+     * Debug option (see the .options file) for tracing the part and window listeners.
+     */
+    String TRACE_LISTENERS = PLUGIN_ID + "/debug/listeners"; //$NON-NLS-1$
+
+    /**
+     * Debug option (see the .options file) for tracing the snapshot stores.
+     */
+    String TRACE_STORE = PLUGIN_ID + "/debug/store"; //$NON-NLS-1$
+
     /**
      * Key for storing the reschedule delay.
      */
@@ -46,6 +66,21 @@ public interface PluginConstants {
      */
     String LABEL_RESCHEDULE_DELAY = Messages.getString("reschedule.delay.label"); //$NON-NLS-1$
 
+    /**
+     * Key for storing for how long (in millis) the user has to stop typing before a snapshot is taken.
+     */
+    String KEY_QUIET_PERIOD = "reschedule.quiet.period"; //$NON-NLS-1$
+
+    /**
+     * Default value for quiet period.
+     */
+    long DEFAULT_QUIET_PERIOD = 2000;// 2 secs
+
+    /**
+     * Label for quiet period preference page field.
+     */
+    String LABEL_QUIET_PERIOD = Messages.getString("reschedule.quiet.period.label"); //$NON-NLS-1$
+
     /**
      * Key for storing snapshot name prefix.
      */
@@ -75,4 +110,130 @@ public interface PluginConstants {
      * Label for snapshot name suffix preference page field.
      */
     String LABEL_SNAPSHOT_NAME_SUFFIX = Messages.getString("snapshot.name.suffix.label"); //$NON-NLS-1$
+
+    /**
+     * Key for storing the comma-separated name patterns (with <code>*</code> and <code>?</code> wildcards) of other
+     * resources to be filtered out along with the snapshots - for eg, those of an older prefix and suffix.
+     */
+    String KEY_SNAPSHOT_NAME_FILTERS = "snapshot.name.filters"; //$NON-NLS-1$
+
+    /**
+     * Default value for the other name patterns to be filtered out.
+     */
+    String DEFAULT_SNAPSHOT_NAME_FILTERS = ""; //$NON-NLS-1$
+
+    /**
+     * Label for snapshot name filters preference page field.
+     */
+    String LABEL_SNAPSHOT_NAME_FILTERS = Messages.getString("snapshot.name.filters.label"); //$NON-NLS-1$
+
+    /**
+     * Key for storing whether snapshots are kept next to the original files (instead of the workspace metadata area).
+     */
+    String KEY_SNAPSHOT_IN_WORKSPACE = "snapshot.in.workspace"; //$NON-NLS-1$
+
+    /**
+     * Default value for keeping snapshots next to the original files.
+     */
+    boolean DEFAULT_SNAPSHOT_IN_WORKSPACE = false;
+
+    /**
+     * Label for keeping snapshots next to the original files preference page field.
+     */
+    String LABEL_SNAPSHOT_IN_WORKSPACE = Messages.getString("snapshot.in.workspace.label"); //$NON-NLS-1$
+
+    /**
+     * Key for storing after how many snapshot writes the data is forced to the disk.
+     */
+    String KEY_FSYNC_INTERVAL = "snapshot.fsync.interval"; //$NON-NLS-1$
+
+    /**
+     * Default value for the fsync interval - 0 leaves it to the operating system, 1 forces every write.
+     */
+    long DEFAULT_FSYNC_INTERVAL = 0;
+
+    /**
+     * Label for fsync interval preference page field.
+     */
+    String LABEL_FSYNC_INTERVAL = Messages.getString("snapshot.fsync.interval.label"); //$NON-NLS-1$
+
+    /**
+     * Key for storing whether snapshots are compressed.
+     */
+    String KEY_COMPRESSION_ENABLED = "snapshot.compressed"; //$NON-NLS-1$
+
+    /**
+     * Default value for compressing snapshots.
+     */
+    boolean DEFAULT_COMPRESSION_ENABLED = false;
+
+    /**
+     * Label for compressing snapshots preference page field.
+     */
+    String LABEL_COMPRESSION_ENABLED = Messages.getString("snapshot.compressed.label"); //$NON-NLS-1$
+
+    /**
+     * Key for storing how many older versions of a snapshot are kept.
+     */
+    String KEY_HISTORY_SIZE = "snapshot.history.size"; //$NON-NLS-1$
+
+    /**
+     * Default value for the number of older versions of a snapshot - 0 keeps only the current one.
+     */
+    long DEFAULT_HISTORY_SIZE = 5;
+
+    /**
+     * Label for number of older versions preference page field.
+     */
+    String LABEL_HISTORY_SIZE = Messages.getString("snapshot.history.size.label"); //$NON-NLS-1$
+
+    /**
+     * Key for storing for how long (in minutes) an older version of a snapshot is kept.
+     */
+    String KEY_HISTORY_MAX_AGE = "snapshot.history.max.age"; //$NON-NLS-1$
+
+    /**
+     * Default value for the age of the older versions - one day.
+     */
+    long DEFAULT_HISTORY_MAX_AGE = 24 * 60;
+
+    /**
+     * Label for age of older versions preference page field.
+     */
+    String LABEL_HISTORY_MAX_AGE = Messages.getString("snapshot.history.max.age.label"); //$NON-NLS-1$
+
+    /**
+     * Key for storing how much space (in KB) all the versions of the snapshot of a file may take up.
+     */
+    String KEY_HISTORY_MAX_SIZE = "snapshot.history.max.size"; //$NON-NLS-1$
+
+    /**
+     * Default value for the space taken up by the versions of the snapshot of a file - 10 MB.
+     */
+    long DEFAULT_HISTORY_MAX_SIZE = 10 * 1024;
+
+    /**
+     * Label for space taken up by the versions preference page field.
+     */
+    String LABEL_HISTORY_MAX_SIZE = Messages.getString("snapshot.history.max.size.label"); //$NON-NLS-1$
+
+    /**
+     * Key for storing whether snapshots are written as a base snapshot plus an edit journal.
+     */
+    String KEY_JOURNAL_ENABLED = "snapshot.journal.enabled"; //$NON-NLS-1$
+
+    /**
+     * Default value for the edit journal.
+     */
+    boolean DEFAULT_JOURNAL_ENABLED = false;
+
+    /**
+     * Label for edit journal preference page field.
+     */
+    String LABEL_JOURNAL_ENABLED = Messages.getString("snapshot.journal.enabled.label"); //$NON-NLS-1$
+
+    /**
+     * The text inserted between the original file name and the snapshot name suffix to name the edit journal.
+     */
+    String JOURNAL_NAME_INFIX = ".journal"; //$NON-NLS-1$
 }
\ No newline at end of file
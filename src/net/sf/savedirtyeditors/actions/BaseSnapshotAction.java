@@ -10,16 +10,20 @@
  *******************************************************************************/
 package net.sf.savedirtyeditors.actions;
 
+import net.sf.savedirtyeditors.ISnapshotEnvironment;
 import net.sf.savedirtyeditors.PluginActivator;
 import net.sf.savedirtyeditors.PluginConstants;
+import net.sf.savedirtyeditors.store.CompressedSnapshotContents;
+import net.sf.savedirtyeditors.store.ISnapshotContents;
+import net.sf.savedirtyeditors.store.ISnapshotStore;
 import net.sf.savedirtyeditors.utils.Messages;
 import net.sf.savedirtyeditors.utils.ResourceUtils;
 
 import org.eclipse.core.resources.IFile;
-import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.Assert;
-import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.ISafeRunnable;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
 import org.eclipse.ui.IEditorPart;
 
 /**
@@ -28,10 +32,28 @@ import org.eclipse.ui.IEditorPart;
  */
 abstract class BaseSnapshotAction implements ISafeRunnable {
     /**
-     * The file editor input that this action performs the operation on.
+     * The file editor input that this action performs the operation on; or <code>null</code> if the action was created
+     * for a file that is not (yet) open in an editor.
      */
     protected final IEditorPart editorPart;
 
+    /**
+     * The file that this action performs the operation on - the one under the <code>editorPart</code>, if there is
+     * one, as it was when the action was created.
+     */
+    private final IFile originalFile;
+
+    /**
+     * The store where the snapshot of the <code>editorPart</code> is kept.
+     */
+    protected final ISnapshotStore store;
+
+    /**
+     * The environment that this action runs in - the {@link PluginActivator}, unless the action was created by a
+     * {@link net.sf.savedirtyeditors.jobs.SnapshotScheduler} running elsewhere.
+     */
+    protected final ISnapshotEnvironment environment;
+
     /**
      * Constructor for BaseSnapshotAction. Should not be visible from outside this package - so no qualifier
      * 
@@ -39,34 +61,122 @@ abstract class BaseSnapshotAction implements ISafeRunnable {
      *            The non-null {@link IEditorPart} that this action performs the operation on.
      */
     BaseSnapshotAction(final IEditorPart editorPart) {
+        // hold on to the store, so that the whole action works against the same one even if the preference changes
+        this(editorPart, PluginActivator.getDefault().getSnapshotStore());
+    }
+
+    /**
+     * Constructor for BaseSnapshotAction. Should not be visible from outside this package - so no qualifier
+     * 
+     * @param editorPart
+     *            The non-null {@link IEditorPart} that this action performs the operation on.
+     * @param store
+     *            The non-null {@link ISnapshotStore} where the snapshot is kept.
+     */
+    BaseSnapshotAction(final IEditorPart editorPart, final ISnapshotStore store) {
+        this(editorPart, ResourceUtils.getFile(editorPart), PluginActivator.getDefault(), store);
+    }
+
+    /**
+     * Constructor for BaseSnapshotAction - for an editor whose file is already known, so that it need not be looked up
+     * again. Should not be visible from outside this package - so no qualifier
+     * 
+     * @param editorPart
+     *            The non-null {@link IEditorPart} that this action performs the operation on.
+     * @param originalFile
+     *            The {@link IFile} under the <code>editorPart</code>
+     * @param environment
+     *            The non-null {@link ISnapshotEnvironment} that this action runs in
+     * @param store
+     *            The non-null {@link ISnapshotStore} where the snapshot is kept.
+     */
+    BaseSnapshotAction(final IEditorPart editorPart, final IFile originalFile, final ISnapshotEnvironment environment,
+            final ISnapshotStore store) {
         super();
         Assert.isNotNull(editorPart, Messages.getString("BaseSnapshotAction.null_editorPart")); //$NON-NLS-1$
         this.editorPart = editorPart;
+        this.originalFile = originalFile;
+        this.environment = environment;
+        this.store = store;
+    }
+
+    /**
+     * Constructor for BaseSnapshotAction - for a file that is not open in an editor. Should not be visible from
+     * outside this package - so no qualifier
+     * 
+     * @param originalFile
+     *            The non-null {@link IFile} that this action performs the operation on.
+     * @param store
+     *            The non-null {@link ISnapshotStore} where the snapshot is kept.
+     */
+    BaseSnapshotAction(final IFile originalFile, final ISnapshotStore store) {
+        super();
+        Assert.isNotNull(originalFile, Messages.getString("BaseSnapshotAction.null_file")); //$NON-NLS-1$
+        this.editorPart = null;
+        this.originalFile = originalFile;
+        this.environment = PluginActivator.getDefault();
+        this.store = store;
     }
 
     /**
      * Common place to retrieve the underlying {@link IFile} from the <code>editorPart</code>
      * 
-     * @return The IFile under the editorPart
+     * @return The IFile under the editorPart; or the file that this action was created for
      */
-    protected final IFile getOriginalFile() {
-        return ResourceUtils.getFile(editorPart);
+    public final IFile getOriginalFile() {
+        return originalFile;
     }
 
     /**
-     * Common place to create the snapshot {@link IFile} based on the underlying {@link IFile} from the
-     * <code>editorPart</code>
+     * Returns the charset of the original file - without looking it up every time a snapshot is taken.
      * 
-     * @return A reference to the IFile (at the same physical folder location as the original file, but with the name
-     *         surrounded with the user-defined preferences for the snapshot name prefix and suffix.
-     */
-    protected final IFile getSnapshotFile() {
-        final IFile origFile = getOriginalFile();
-        final IPath origFileFolder = origFile.getParent().getFullPath();
-        final IPath snapshotPath = origFileFolder.addTrailingSeparator().append(
-                PluginActivator.getStringPreference(PluginConstants.KEY_SNAPSHOT_NAME_PREFIX) + origFile.getName()
-                        + PluginActivator.getStringPreference(PluginConstants.KEY_SNAPSHOT_NAME_SUFFIX));
-        return ResourcesPlugin.getWorkspace().getRoot().getFile(snapshotPath);
+     * @return The name of the charset of the original file
+     * @exception CoreException
+     *                If the charset could not be determined
+     * @see ISnapshotEnvironment#getCharset(IFile)
+     */
+    protected final String getOriginalCharset() throws CoreException {
+        return environment.getCharset(getOriginalFile());
+    }
+
+    /**
+     * Returns the {@link ISnapshotStore} where the snapshot of the <code>editorPart</code> is kept.
+     * 
+     * @return The snapshot store used by this action
+     */
+    public final ISnapshotStore getStore() {
+        return store;
+    }
+
+    /**
+     * Returns the smallest {@link ISchedulingRule} that needs to be held while running this action - so that snapshots
+     * of different editors do not block each other or any other workspace operation (like a build).
+     * 
+     * @return The rule to be held while running this action; or <code>null</code> if none is needed
+     * @see ISnapshotStore#getSchedulingRule(IFile)
+     */
+    public final ISchedulingRule getSchedulingRule() {
+        return store.getSchedulingRule(getOriginalFile());
+    }
+
+    /**
+     * Wraps the contents of a snapshot into the format chosen by the user preference for
+     * {@link PluginConstants#KEY_COMPRESSION_ENABLED}.
+     * 
+     * @param contents
+     *            The (encoded) contents of the snapshot
+     * @param charset
+     *            The name of the charset the contents are encoded with
+     * @param length
+     *            The length of the contents in characters
+     * @return The contents to be written to the store
+     */
+    protected final ISnapshotContents format(final ISnapshotContents contents, final String charset,
+            final long length) {
+        if (environment.getPreferenceStore().getBoolean(PluginConstants.KEY_COMPRESSION_ENABLED)) {
+            return new CompressedSnapshotContents(contents, charset, length);
+        }
+        return contents;
     }
 
     /**
@@ -76,6 +186,19 @@ abstract class BaseSnapshotAction implements ISafeRunnable {
         PluginActivator.logError(throwable);
     }
 
+    /**
+     * Utility method to trace similar messages for all subclasses - which are only built if the actions are being
+     * traced (see {@link PluginConstants#TRACE_ACTIONS}).
+     * 
+     * @param key
+     *            The key of the text prefix for this message (see {@link Messages}).
+     */
+    protected final void trace(final String key) {
+        if (PluginActivator.isTracing(PluginConstants.TRACE_ACTIONS)) {
+            PluginActivator.trace(PluginConstants.TRACE_ACTIONS, buildLog(Messages.getString(key)));
+        }
+    }
+
     /**
      * Utility method to build similar log messages for all subclasses.
      * 
@@ -84,7 +207,8 @@ abstract class BaseSnapshotAction implements ISafeRunnable {
      * @return The more "rounded-out" log message that includes information about the editorPart's underlying IFile that
      *         this action is associated with.
      */
-    protected final String buildLog(final String message) {
-        return message + " : " + ResourceUtils.getFullPathAsString(editorPart); //$NON-NLS-1$
+    private String buildLog(final String message) {
+        final IFile file = getOriginalFile();
+        return message + " : " + (file == null ? null : file.getFullPath().toPortableString()); //$NON-NLS-1$
     }
 }
\ No newline at end of file
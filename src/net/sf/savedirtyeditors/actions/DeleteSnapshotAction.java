@@ -10,15 +10,16 @@
  *******************************************************************************/
 package net.sf.savedirtyeditors.actions;
 
-import net.sf.savedirtyeditors.PluginActivator;
-import net.sf.savedirtyeditors.utils.Messages;
+import net.sf.savedirtyeditors.ISnapshotEnvironment;
+import net.sf.savedirtyeditors.store.ISnapshotStore;
+import net.sf.savedirtyeditors.store.SnapshotWriteQueue;
+import net.sf.savedirtyeditors.utils.SnapshotMetrics;
 
 import org.eclipse.core.resources.IFile;
-import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspaceRunnable;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.ISafeRunnable;
-import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.ui.IEditorPart;
 
@@ -39,36 +40,72 @@ public final class DeleteSnapshotAction extends BaseSnapshotAction {
     }
 
     /**
-     * Deletes the snapshot that was created by the {@link SaveSnapshotAction} for the <code>editorPart</code>.
+     * Constructor for DeleteSnapshotAction - for an editor whose file is already known, so that it need not be looked
+     * up again.
+     * 
+     * @param editorPart
+     *            The non-null {@link IEditorPart} that this action performs the operation on.
+     * @param originalFile
+     *            The {@link IFile} under the <code>editorPart</code>
+     * @param environment
+     *            The non-null {@link ISnapshotEnvironment} that this action runs in
+     */
+    public DeleteSnapshotAction(final IEditorPart editorPart, final IFile originalFile,
+            final ISnapshotEnvironment environment) {
+        super(editorPart, originalFile, environment, environment.getSnapshotStore());
+    }
+
+    /**
+     * Constructor for DeleteSnapshotAction - for a file that is not open in an editor.
+     * 
+     * @param originalFile
+     *            The non-null {@link IFile} whose snapshot has to be deleted.
+     * @param store
+     *            The non-null {@link ISnapshotStore} where the snapshot was found.
+     */
+    public DeleteSnapshotAction(final IFile originalFile, final ISnapshotStore store) {
+        super(originalFile, store);
+    }
+
+    /**
+     * Deletes the snapshot that was created by the {@link SaveSnapshotAction} for the <code>editorPart</code> - from
+     * all the stores, in case the user moved the snapshots after this one was created. Each store is cleaned up while
+     * holding its rule for the file, so that a snapshot being written meanwhile either lands before the delete, or
+     * waits for it and finds its folders again - and the snapshot still queued for writing is dropped under the same
+     * rule (see {@link SnapshotWriteQueue#cancel(IFile)}).
      * 
      * @exception CoreException
-     *                if this method fails. Reasons include:
-     *                <ul>
-     *                <li>This resource could not be deleted for some reason.</li>
-     *                <li>This resource or one of its descendents is out of sync with the local file system and
-     *                <code>force</code> is <code>false</code>.</li>
-     *                <li>Resource changes are disallowed during certain types of resource change event notification.
-     *                See <code>IResourceChangeEvent</code> for more details.</li>
-     *                </ul>
+     *                if the snapshot could not be deleted from one of the stores
      * @exception OperationCanceledException
      *                if the operation is canceled. Cancelation can occur even if no progress monitor is provided.
-     * @see IResource#delete(boolean,IProgressMonitor)
+     * @see ISnapshotStore#delete(IFile)
      * @see ISafeRunnable#run
      */
     public void run() throws CoreException {
         // NOTE: dont verify if the editorPart is dirty - it might have been dirty at some point, but subsequently
         // saved, and the snapshot file would still be present since this is the only place where we delete the snapshot
-
-        final IFile snapshotFile = getSnapshotFile();
-        // if the snapshotFile does not exist OR it is the same as the original file - dont proceed any further
-        if (!snapshotFile.exists() || snapshotFile.equals(getOriginalFile())) {
-            return;
+        final long start = System.nanoTime();
+        final IFile originalFile = getOriginalFile();
+        final SnapshotWriteQueue writeQueue = environment.getSnapshotWriteQueue();
+        final ISnapshotStore[] stores = environment.getSnapshotStores();
+        for (int i = 0; i < stores.length; i++) {
+            final ISnapshotStore store = stores[i];
+            store.run(new IWorkspaceRunnable() {
+                public void run(final IProgressMonitor monitor) throws CoreException {
+                    // a snapshot still waiting to be written would bring it back - and it can only be queued by a
+                    // batch holding the same rule, so none can sneak in between this and the delete
+                    if (writeQueue != null) {
+                        writeQueue.cancel(originalFile);
+                    }
+                    // the older versions go along with the snapshot - even if we crashed before the current one was
+                    // written
+                    if ((store.getVersions(originalFile).length > 0) || store.journalExists(originalFile)) {
+                        trace("DeleteSnapshotAction.delete"); //$NON-NLS-1$
+                        store.delete(originalFile);
+                    }
+                }
+            }, store.getSchedulingRule(originalFile), null);
         }
-
-        PluginActivator.logDebug(buildLog(Messages.getString("DeleteSnapshotAction.delete"))); //$NON-NLS-1$
-
-        // NOTE: dont verify the timestamps - since the snapshot might be newer if the user selected to NOT save the
-        // changes, and just closed the editor
-        snapshotFile.delete(true, new NullProgressMonitor());
+        SnapshotMetrics.record(SnapshotMetrics.DELETE, start);
     }
 }
\ No newline at end of file
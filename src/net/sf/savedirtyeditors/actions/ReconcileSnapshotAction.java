@@ -10,21 +10,39 @@
  *******************************************************************************/
 package net.sf.savedirtyeditors.actions;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.text.DateFormat;
+import java.util.Date;
+
+import net.sf.savedirtyeditors.ISnapshotEnvironment;
 import net.sf.savedirtyeditors.PluginActivator;
+import net.sf.savedirtyeditors.store.ISnapshotContents;
+import net.sf.savedirtyeditors.store.ISnapshotStore;
+import net.sf.savedirtyeditors.store.ISnapshotVersion;
+import net.sf.savedirtyeditors.store.SnapshotInputStream;
+import net.sf.savedirtyeditors.store.SnapshotJournal;
+import net.sf.savedirtyeditors.store.SnapshotManifest;
+import net.sf.savedirtyeditors.utils.DocumentEncoder;
 import net.sf.savedirtyeditors.utils.Messages;
 import net.sf.savedirtyeditors.utils.ResourceUtils;
+import net.sf.savedirtyeditors.utils.SnapshotMetrics;
 
-import org.eclipse.compare.internal.CompareAction;
+import org.eclipse.compare.CompareUI;
 import org.eclipse.core.resources.IFile;
-import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
-import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.OperationCanceledException;
-import org.eclipse.jface.action.Action;
 import org.eclipse.jface.dialogs.MessageDialog;
-import org.eclipse.jface.viewers.StructuredSelection;
+import org.eclipse.jface.viewers.ArrayContentProvider;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.window.Window;
 import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Shell;
 import org.eclipse.ui.IEditorPart;
+import org.eclipse.ui.dialogs.ListDialog;
 
 /**
  * A <code>ReconcileSnapshotAction</code> will be called when the wo save the {@link IEditorPart} that it is associated
@@ -42,34 +60,55 @@ public class ReconcileSnapshotAction extends BaseSnapshotAction {
         super(editorPart);
     }
 
+    /**
+     * Constructor for ReconcileSnapshotAction - for an editor whose file is already known, so that it need not be
+     * looked up again.
+     * 
+     * @param editorPart
+     *            The non-null {@link IEditorPart} that this action performs the operation on.
+     * @param originalFile
+     *            The {@link IFile} under the <code>editorPart</code>
+     * @param environment
+     *            The non-null {@link ISnapshotEnvironment} that this action runs in
+     */
+    public ReconcileSnapshotAction(final IEditorPart editorPart, final IFile originalFile,
+            final ISnapshotEnvironment environment) {
+        super(editorPart, originalFile, environment, environment.getSnapshotStore());
+    }
+
+    /**
+     * Constructor for ReconcileSnapshotAction - for a file that is not open in an editor, which can only be
+     * {@link #prepare()}d and {@link #compare()}d.
+     * 
+     * @param originalFile
+     *            The non-null {@link IFile} whose snapshot has to be reconciled.
+     * @param store
+     *            The non-null {@link ISnapshotStore} where the snapshot is kept.
+     */
+    public ReconcileSnapshotAction(final IFile originalFile, final ISnapshotStore store) {
+        super(originalFile, store);
+    }
+
     /**
      * If the Eclipse workbench was shutdown abnormally, this will reconcile the snapshot that was created by the
      * {@link SaveSnapshotAction} for the <code>editorPart</code> with the underlying contents of the {@link IFile}
-     * within the <code>editorPart</code>.
+     * within the <code>editorPart</code>. If the store has kept older versions of the snapshot (see
+     * {@link ISnapshotStore#getVersions(IFile)}), the user gets to pick the one to compare with. If the snapshot turns
+     * out to be the same as the original file, it is deleted without bothering the user.
      * 
      * @exception CoreException
-     *                if this method fails. Reasons include:
-     *                <ul>
-     *                <li>Resource changes are disallowed during certain types of resource change event notification.
-     *                See <code>IResourceChangeEvent</code> for more details.</li>
-     *                </ul>
+     *                if the snapshot could not be read from (or the replayed journal written back to) the store
+     * @exception IOException
+     *                If the edit journal could not be replayed on top of the snapshot
      * @exception OperationCanceledException
      *                if the operation is canceled. Cancelation can occur even if no progress monitor is provided.
-     * @see IResource#refreshLocal(int, org.eclipse.core.runtime.IProgressMonitor)
+     * @see #prepare()
      */
-    public void run() throws CoreException {
-        final IFile snapshotFile = getSnapshotFile();
-
-        // for some reason the snapshot file is not being recognized as being already present unless we refresh
-        snapshotFile.getParent().refreshLocal(IResource.DEPTH_INFINITE, new NullProgressMonitor());
-
-        // if the snapshotFile does not exist OR it is the same as the original file - dont proceed any further
-        if (!snapshotFile.exists() || snapshotFile.equals(getOriginalFile())) {
+    public void run() throws CoreException, IOException {
+        if (!prepare()) {
             return;
         }
 
-        PluginActivator.logDebug(buildLog(Messages.getString("ReconcileSnapshotAction.reconcile"))); //$NON-NLS-1$
-
         // even if the user had decided to rollback the changes, the only way we can come here is if Eclipse crashed and
         // so the snapshot file is still present
         ResourceUtils.getDisplay(editorPart).asyncExec(new Runnable() {
@@ -79,12 +118,206 @@ public class ReconcileSnapshotAction extends BaseSnapshotAction {
                         Messages.getString("ReconcileSnapshotAction.reconcile.prompt.message") //$NON-NLS-1$
                                 + ResourceUtils.getFullPathAsString(editorPart));
                 if (confirmation) {
-                    final CompareAction compareAction = new CompareAction();
-                    compareAction.selectionChanged(new Action() {
-                    }, new StructuredSelection(new Object[] { getOriginalFile(), snapshotFile }));
-                    compareAction.run((Action) null);
+                    compare();
                 }
             }
         });
     }
+
+    /**
+     * Gets the snapshot ready to be compared with the original file - replaying its edit journal, and deleting it if it
+     * turns out to be the same as the original file. This must be run while holding {@link #getSchedulingRule()}.
+     * 
+     * @return True if there is a snapshot that differs from the original file; false if there is nothing to reconcile
+     * @exception CoreException
+     *                if the snapshot could not be read from (or the replayed journal written back to) the store
+     * @exception IOException
+     *                If the edit journal could not be replayed on top of the snapshot
+     * @see ISnapshotStore#refresh(IFile)
+     */
+    public boolean prepare() throws CoreException, IOException {
+        final long start = System.nanoTime();
+        try {
+            return prepareSnapshot();
+        } finally {
+            SnapshotMetrics.record(SnapshotMetrics.RECONCILE, start);
+        }
+    }
+
+    private boolean prepareSnapshot() throws CoreException, IOException {
+        final IFile originalFile = getOriginalFile();
+        store.refresh(originalFile);
+
+        // if no version of the snapshot exists - dont proceed any further. NOTE: the current snapshot can be missing
+        // while older versions are not, if we crashed right in between moving it into the history and replacing it
+        if (store.getVersions(originalFile).length == 0) {
+            return false;
+        }
+
+        trace("ReconcileSnapshotAction.reconcile"); //$NON-NLS-1$
+
+        // if the snapshots were being journaled, fold the journal into the snapshot so that it can be compared as is
+        if (store.exists(originalFile) && store.journalExists(originalFile)) {
+            replayJournal();
+        }
+        // if the editor was not dirty when the snapshot was last written (for eg, it was saved right after), there is
+        // nothing to reconcile
+        if (store.exists(originalFile) && isSameAsOriginal()) {
+            trace("ReconcileSnapshotAction.identical"); //$NON-NLS-1$
+            store.delete(originalFile);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Opens the compare editor for the original file and its snapshot - letting the user pick the version of the
+     * snapshot first, if there are older ones. This must be called from the UI thread, after {@link #prepare()}.
+     */
+    public void compare() {
+        final ISnapshotVersion version = selectVersion(store.getVersions(getOriginalFile()));
+        if (version == null) {
+            return;
+        }
+        try {
+            openCompareEditor(version);
+        } catch (final CoreException exc) {
+            PluginActivator.logError(exc);
+        } catch (final IOException exc) {
+            PluginActivator.logError(exc);
+        }
+    }
+
+    private ISnapshotVersion selectVersion(final ISnapshotVersion[] versions) {
+        if (versions.length <= 1) {
+            return versions.length == 0 ? null : versions[0];
+        }
+        final Shell shell = Display.getCurrent().getActiveShell();
+        // a ListDialog (unlike an ElementListSelectionDialog) does not sort the versions by their labels
+        final ListDialog dialog = new ListDialog(shell);
+        dialog.setTitle(Messages.getString("ReconcileSnapshotAction.version.title")); //$NON-NLS-1$
+        dialog.setMessage(Messages.getString("ReconcileSnapshotAction.version.message") //$NON-NLS-1$
+                + getOriginalFile().getFullPath().toPortableString());
+        dialog.setContentProvider(new ArrayContentProvider());
+        dialog.setLabelProvider(new VersionLabelProvider(versions[0]));
+        dialog.setInput(versions);
+        dialog.setInitialSelections(new Object[] { versions[0] });
+        if ((dialog.open() != Window.OK) || (dialog.getResult() == null) || (dialog.getResult().length == 0)) {
+            return null;
+        }
+        return (ISnapshotVersion) dialog.getResult()[0];
+    }
+
+    private void openCompareEditor(final ISnapshotVersion version) throws CoreException, IOException {
+        // compressed snapshots are decompressed right here - so that the compare editor only sees the text
+        final SnapshotInputStream snapshotStream = open(version.getContents());
+        final String charset = getCharset(snapshotStream);
+        final byte[] snapshotContents = ResourceUtils.read(snapshotStream);
+        CompareUI.openCompareEditor(new SnapshotCompareInput(getOriginalFile(), snapshotContents, charset));
+    }
+
+    private void replayJournal() throws CoreException, IOException {
+        trace("ReconcileSnapshotAction.replay"); //$NON-NLS-1$
+
+        final IFile originalFile = getOriginalFile();
+        final SnapshotInputStream snapshotStream = openSnapshot();
+        final String charset = getCharset(snapshotStream);
+        final String base = new String(ResourceUtils.read(snapshotStream), charset);
+        final InputStream journalStream = store.getJournalContents(originalFile);
+        final String dirtyContents;
+        try {
+            dirtyContents = SnapshotJournal.replay(base, journalStream);
+        } finally {
+            journalStream.close();
+        }
+        // remove the journal before the replayed base is written - if we crash in between, the old base is still
+        // consistent by itself, whereas the journal would be replayed a second time over the new base
+        store.deleteJournal(originalFile);
+        store.setContents(originalFile, format(new ISnapshotContents() {
+            public boolean writeTo(final WritableByteChannel channel) throws IOException {
+                new DocumentEncoder().encode(dirtyContents, charset, channel);
+                return true;
+            }
+        }, charset, dirtyContents.length()));
+    }
+
+    /**
+     * Compares the current snapshot with the original file. A plain snapshot is compared by its size and checksum as
+     * recorded in the {@link SnapshotManifest} - so only the original file is read. Otherwise (compressed, or not
+     * recorded for this very snapshot), both are read side by side until the first difference.
+     */
+    private boolean isSameAsOriginal() throws CoreException, IOException {
+        final IFile originalFile = getOriginalFile();
+        final IPath location = originalFile.getLocation();
+        final SnapshotInputStream snapshotStream = openSnapshot();
+        if (!snapshotStream.isCompressed() && (location != null) && isRecorded()) {
+            snapshotStream.close();
+            final File file = location.toFile();
+            final SnapshotManifest.Entry entry = store.getManifest().getEntry(originalFile);
+            return (entry.getSize() == file.length()) && (entry.getChecksum() == ResourceUtils.checksum(file));
+        }
+        // the bytes can only be the same if they are in the same charset
+        if (!getCharset(snapshotStream).equals(originalFile.getCharset())) {
+            snapshotStream.close();
+            return false;
+        }
+        return ResourceUtils.contentEquals(snapshotStream, originalFile.getContents(true));
+    }
+
+    private boolean isRecorded() {
+        // the manifest is only saved at the end of a batch - so after a crash it might describe an older snapshot
+        final SnapshotManifest.Entry entry = store.getManifest().getEntry(getOriginalFile());
+        final ISnapshotVersion[] versions = store.getVersions(getOriginalFile());
+        return (entry != null) && (versions.length > 0) && (entry.getSize() == versions[0].getSize())
+                && (entry.getTimeStamp() == versions[0].getTimeStamp());
+    }
+
+    private SnapshotInputStream openSnapshot() throws CoreException, IOException {
+        return open(store.getContents(getOriginalFile()));
+    }
+
+    private SnapshotInputStream open(final InputStream inputStream) throws IOException {
+        try {
+            return new SnapshotInputStream(inputStream);
+        } catch (final IOException exc) {
+            inputStream.close();
+            throw exc;
+        }
+    }
+
+    private String getCharset(final SnapshotInputStream snapshotStream) throws CoreException {
+        // a compressed snapshot knows the charset it was written with - a plain one is in that of the original file
+        final String charset = snapshotStream.getCharset();
+        return charset == null ? getOriginalFile().getCharset() : charset;
+    }
+
+    /**
+     * Labels a version of the snapshot with the time it was written and its size.
+     */
+    private static final class VersionLabelProvider extends LabelProvider {
+        private final DateFormat dateFormat = DateFormat.getDateTimeInstance();
+        private final ISnapshotVersion latest;
+
+        VersionLabelProvider(final ISnapshotVersion latest) {
+            super();
+            this.latest = latest;
+        }
+
+        /**
+         * @see LabelProvider#getText(Object)
+         */
+        @Override
+        public String getText(final Object element) {
+            final ISnapshotVersion version = (ISnapshotVersion) element;
+            final StringBuffer text = new StringBuffer(dateFormat.format(new Date(version.getTimeStamp())));
+            if (version.getSize() >= 0) {
+                text.append(" - ").append(version.getSize()); //$NON-NLS-1$
+                text.append(Messages.getString("ReconcileSnapshotAction.version.bytes")); //$NON-NLS-1$
+            }
+            if (version == latest) {
+                text.append(Messages.getString("ReconcileSnapshotAction.version.latest")); //$NON-NLS-1$
+            }
+            return text.toString();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.actions;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import net.sf.savedirtyeditors.store.ISnapshotStore;
+import net.sf.savedirtyeditors.store.ISnapshotVersion;
+import net.sf.savedirtyeditors.store.SnapshotInputStream;
+import net.sf.savedirtyeditors.utils.ResourceUtils;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.ISafeRunnable;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.MultiRule;
+
+/**
+ * A <code>RestoreSnapshotAction</code> overwrites a file with the latest version of its snapshot - and then deletes the
+ * snapshot. This is how the user takes back all the changes that were lost in an abnormal shutdown, without going
+ * through the compare editor (see {@link ReconcileSnapshotAction}) for each file.
+ */
+public final class RestoreSnapshotAction extends BaseSnapshotAction {
+    /**
+     * Constructor for RestoreSnapshotAction.
+     * 
+     * @param originalFile
+     *            The non-null {@link IFile} that has to be restored from its snapshot.
+     * @param store
+     *            The non-null {@link ISnapshotStore} where the snapshot is kept.
+     */
+    public RestoreSnapshotAction(final IFile originalFile, final ISnapshotStore store) {
+        super(originalFile, store);
+    }
+
+    /**
+     * Returns the {@link ISchedulingRule} that needs to be held while running this action - since the original file
+     * is modified as well, this is more than {@link #getSchedulingRule()}.
+     * 
+     * @return The rule to be held while running this action
+     */
+    public ISchedulingRule getRestoreRule() {
+        final IFile originalFile = getOriginalFile();
+        return MultiRule.combine(getSchedulingRule(), ResourcesPlugin.getWorkspace().getRuleFactory().modifyRule(
+                originalFile));
+    }
+
+    /**
+     * Writes the latest version of the snapshot into the original file - in the charset of the original file, which
+     * might have changed since the snapshot was taken - and deletes the snapshot.
+     * 
+     * @exception CoreException
+     *                if the snapshot could not be read, or the original file could not be written
+     * @exception IOException
+     *                If the snapshot is not in a known format
+     * @exception OperationCanceledException
+     *                if the operation is canceled. Cancelation can occur even if no progress monitor is provided.
+     * @see ISafeRunnable#run
+     */
+    public void run() throws CoreException, IOException {
+        final IFile originalFile = getOriginalFile();
+        final ISnapshotVersion[] versions = store.getVersions(originalFile);
+        if (versions.length == 0) {
+            return;
+        }
+        trace("RestoreSnapshotAction.restore"); //$NON-NLS-1$
+
+        final InputStream inputStream = versions[0].getContents();
+        final SnapshotInputStream snapshotStream;
+        try {
+            snapshotStream = new SnapshotInputStream(inputStream);
+        } catch (final IOException exc) {
+            inputStream.close();
+            throw exc;
+        }
+        // a compressed snapshot knows the charset it was written with - a plain one is in that of the original file
+        final String charset = snapshotStream.getCharset();
+        final String originalCharset = originalFile.getCharset();
+        InputStream contents = snapshotStream;
+        if ((charset != null) && !charset.equals(originalCharset)) {
+            final String text = new String(ResourceUtils.read(snapshotStream), charset);
+            contents = new ByteArrayInputStream(text.getBytes(originalCharset));
+        }
+        try {
+            originalFile.setContents(contents, true, true, null);
+        } finally {
+            contents.close();
+        }
+        store.delete(originalFile);
+    }
+}
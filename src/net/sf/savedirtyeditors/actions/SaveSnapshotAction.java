@@ -10,37 +10,85 @@
  *******************************************************************************/
 package net.sf.savedirtyeditors.actions;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
+import java.nio.channels.WritableByteChannel;
 
-import net.sf.savedirtyeditors.PluginActivator;
-import net.sf.savedirtyeditors.utils.Messages;
-import net.sf.savedirtyeditors.utils.ResourceUtils;
+import net.sf.savedirtyeditors.ISnapshotEnvironment;
+import net.sf.savedirtyeditors.PluginConstants;
+import net.sf.savedirtyeditors.store.DocumentCapture;
+import net.sf.savedirtyeditors.store.ISnapshotContents;
+import net.sf.savedirtyeditors.store.ISnapshotStore;
+import net.sf.savedirtyeditors.store.SnapshotBuffer;
+import net.sf.savedirtyeditors.store.SnapshotChangeTracker;
+import net.sf.savedirtyeditors.store.SnapshotJournal;
+import net.sf.savedirtyeditors.store.SnapshotWriteQueue;
+import net.sf.savedirtyeditors.utils.DocumentEncoder;
+import net.sf.savedirtyeditors.utils.SnapshotMetrics;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.runtime.CoreException;
-import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.ISafeRunnable;
-import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.jface.text.IDocument;
 import org.eclipse.ui.IEditorPart;
 
 /**
- * A <code>SaveSnapshotAction</code> will save the {@link IEditorPart} that it is associated with into a temporary area.
- * If there is already a file for the same {@link IEditorPart} in the temp area, this will overwrite the contents of
- * that file with the contents of the {@link IEditorPart}
+ * A <code>SaveSnapshotAction</code> will save the {@link IEditorPart} that it is associated with into the
+ * {@link ISnapshotStore}. If there is already a snapshot for the same {@link IEditorPart} in the store, this will
+ * overwrite the contents of that snapshot with the contents of the {@link IEditorPart}. If the user has turned on the
+ * edit journal, only the changes recorded by the {@link SnapshotJournal} since the last run are appended to the
+ * journal, and the full contents are written only when the journal asks for a new base. If a
+ * {@link SnapshotChangeTracker} is given, nothing is done at all when the document has not changed since the last
+ * snapshot. The contents are copied by the {@link DocumentCapture} in a short critical section, and then encoded by
+ * the {@link DocumentEncoder} into a {@link SnapshotBuffer}, which is handed to the {@link SnapshotWriteQueue} to be
+ * written in the background (or written right away, if the queue is full). A document too large to be copied is
+ * encoded straight from the document into the store instead - and the snapshot is discarded if the document changed in
+ * the meantime.
  */
 public final class SaveSnapshotAction extends BaseSnapshotAction {
+    private final DocumentEncoder encoder;
+    private final SnapshotWriteQueue writeQueue;
+    private final DocumentCapture capture;
+    private final SnapshotJournal journal;
+    private final SnapshotChangeTracker tracker;
+
     /**
      * Constructor for SaveSnapshotAction.
      * 
      * @param editorPart
      *            The non-null {@link IEditorPart} that this action performs the operation on.
+     * @param originalFile
+     *            The {@link IFile} under the <code>editorPart</code>
+     * @param environment
+     *            The non-null {@link ISnapshotEnvironment} that this action runs in
+     * @param store
+     *            The non-null {@link ISnapshotStore} where the snapshot is kept.
+     * @param encoder
+     *            The non-null {@link DocumentEncoder} to encode the snapshot with - which must not be used by any other
+     *            thread while this action runs
+     * @param writeQueue
+     *            The {@link SnapshotWriteQueue} that the full snapshots are handed to; or <code>null</code> if they
+     *            have to be written right away
+     * @param capture
+     *            The {@link DocumentCapture} for the document of the <code>editorPart</code>; or <code>null</code> if
+     *            the document has to be encoded without being copied
+     * @param journal
+     *            The {@link SnapshotJournal} recording the changes to the document of the <code>editorPart</code>; or
+     *            <code>null</code> if the changes are not being recorded
+     * @param tracker
+     *            The {@link SnapshotChangeTracker} for the document of the <code>editorPart</code>; or
+     *            <code>null</code> if a snapshot has to be written every time
      */
-    public SaveSnapshotAction(final IEditorPart editorPart) {
-        super(editorPart);
+    public SaveSnapshotAction(final IEditorPart editorPart, final IFile originalFile,
+            final ISnapshotEnvironment environment, final ISnapshotStore store, final DocumentEncoder encoder,
+            final SnapshotWriteQueue writeQueue, final DocumentCapture capture, final SnapshotJournal journal,
+            final SnapshotChangeTracker tracker) {
+        super(editorPart, originalFile, environment, store);
+        this.encoder = encoder;
+        this.writeQueue = writeQueue;
+        this.capture = capture;
+        this.journal = journal;
+        this.tracker = tracker;
     }
 
     /**
@@ -48,56 +96,146 @@ public final class SaveSnapshotAction extends BaseSnapshotAction {
      * this method repeatedly will just keep overwriting the snapshot.
      * 
      * @exception CoreException
-     *                if this method fails. Reasons include:
-     *                <ul>
-     *                <li>The parent of this resource does not exist.</li>
-     *                <li>The project of this resource is not accessible.</li>
-     *                <li>The parent contains a resource of a different type at the same path as this resource.</li>
-     *                <li>The name of this resource is not valid (according to <code>IWorkspace.validateName</code>).</li>
-     *                <li>The corresponding location in the local file system is occupied by a directory.</li>
-     *                <li>The corresponding location in the local file system is occupied by a file and
-     *                <code>force </code> is <code>false</code>.</li>
-     *                <li>Resource changes are disallowed during certain types of resource change event notification.
-     *                See <code>IResourceChangeEvent</code> for more details.</li>
-     *                </ul>
-     *                <li>The workspace is not in sync with the corresponding location in the local file system and
-     *                <code>force </code> is <code>false</code>.</li> <li>The file modification validator disallowed the
-     *                change.</li>
-     * @exception UnsupportedEncodingException
-     *                If the named charset is not supported
+     *                if the snapshot could not be written to the store
+     * @exception IOException
+     *                If the changes recorded in the journal could not be serialized
      * @exception OperationCanceledException
      *                if the operation is canceled. Cancelation can occur even if no progress monitor is provided.
-     * @see IFile#create(InputStream, boolean, IProgressMonitor)
-     * @see IFile#setContents(InputStream, boolean, boolean, IProgressMonitor)
+     * @see ISnapshotStore#setContents(org.eclipse.core.resources.IFile, ISnapshotContents)
+     * @see ISnapshotStore#appendJournal(org.eclipse.core.resources.IFile, byte[])
      * @see ISafeRunnable#run
      */
-    public void run() throws CoreException, UnsupportedEncodingException {
-        PluginActivator.logDebug(buildLog(Messages.getString("SaveSnapshotAction.save"))); //$NON-NLS-1$
+    public void run() throws CoreException, IOException {
+        trace("SaveSnapshotAction.save"); //$NON-NLS-1$
+        final long start = System.nanoTime();
 
         // if the editorPart is not dirty - dont proceed any further
         if (!editorPart.isDirty()) {
             return;
         }
 
-        final IFile origFile = getOriginalFile();
-        final IFile snapshotFile = getSnapshotFile();
-        InputStream inputStream = null;
-        final String dirtyContents = ResourceUtils.getDirtyContents(editorPart);
-        try {
-            inputStream = new ByteArrayInputStream(dirtyContents.getBytes(origFile.getCharset()));
-            if (!snapshotFile.exists()) {
-                snapshotFile.create(inputStream, true, new NullProgressMonitor());
-            } else {
-                snapshotFile.setContents(inputStream, true, false, new NullProgressMonitor());
+        // if nothing changed since the last snapshot - dont copy, encode or write the contents all over again
+        if ((tracker != null) && tracker.isUnchanged()) {
+            trace("SaveSnapshotAction.unchanged"); //$NON-NLS-1$
+            return;
+        }
+
+        if (saveSnapshot()) {
+            SnapshotMetrics.record(SnapshotMetrics.CAPTURE, start);
+            if (tracker != null) {
+                tracker.written();
+            }
+        }
+    }
+
+    private boolean saveSnapshot() throws CoreException, IOException {
+        if ((journal == null) || !environment.getPreferenceStore().getBoolean(PluginConstants.KEY_JOURNAL_ENABLED)) {
+            if (journal != null) {
+                // the user turned off the journal - so stop recording changes
+                journal.invalidate();
             }
-        } finally {
-            if (inputStream != null) {
-                try {
-                    inputStream.close();
-                } catch (final IOException exc) {
-                    PluginActivator.logError(exc);
+            final IDocument document = environment.getDocument(editorPart);
+            if (document == null) {
+                return false;
+            }
+            final String charset = getOriginalCharset();
+            if ((capture != null) && capture.accepts(document.getLength())) {
+                final String dirtyContents = capture.capture();
+                if (dirtyContents == null) {
+                    // the document is being changed right now - try again the next time
+                    return false;
+                }
+                return write(format(new ISnapshotContents() {
+                    public boolean writeTo(final WritableByteChannel channel) throws IOException {
+                        encoder.encode(dirtyContents, charset, channel);
+                        return true;
+                    }
+                }, charset, dirtyContents.length()), dirtyContents.length());
+            }
+            // if the document changes while being written, the old snapshot is kept and the next run catches up
+            cancelQueued();
+            return store.setContents(getOriginalFile(), format(new ISnapshotContents() {
+                public boolean writeTo(final WritableByteChannel channel) throws IOException {
+                    return encoder.encode(document, charset, channel);
                 }
+            }, charset, document.getLength()));
+        }
+
+        // the snapshot is written along with its journal from now on - so an older one must not overwrite it
+        cancelQueued();
+        try {
+            if (journal.shouldRebase() || !store.exists(getOriginalFile())) {
+                return writeBase();
+            }
+            return appendJournal();
+        } catch (final CoreException exc) {
+            // we dont know how much of the snapshot made it to the disk - so start afresh the next time
+            journal.invalidate();
+            throw exc;
+        } catch (final IOException exc) {
+            journal.invalidate();
+            throw exc;
+        }
+    }
+
+    private boolean write(final ISnapshotContents contents, final int length) throws CoreException, IOException {
+        if (writeQueue != null) {
+            return queue(contents, length);
+        }
+        return store.setContents(getOriginalFile(), contents);
+    }
+
+    private boolean queue(final ISnapshotContents contents, final int length) throws CoreException, IOException {
+        final long start = System.nanoTime();
+        final SnapshotBuffer buffer = new SnapshotBuffer(length);
+        if (!contents.writeTo(buffer)) {
+            return false;
+        }
+        SnapshotMetrics.record(SnapshotMetrics.ENCODE, start);
+        if (writeQueue.add(store, getOriginalFile(), buffer, tracker)) {
+            return true;
+        }
+        // the queue is full - so write it ourselves, which holds up the batch until the writer catches up
+        cancelQueued();
+        return store.setContents(getOriginalFile(), buffer);
+    }
+
+    private void cancelQueued() {
+        if (writeQueue != null) {
+            writeQueue.cancel(getOriginalFile());
+        }
+    }
+
+    private boolean writeBase() throws CoreException {
+        final String dirtyContents = journal.captureBase();
+        if (dirtyContents == null) {
+            // the document is being changed right now - try again the next time
+            return false;
+        }
+        trace("SaveSnapshotAction.base"); //$NON-NLS-1$
+
+        // remove the old journal before the new base is written - if we crash in between, the old base is still
+        // consistent by itself, whereas the old journal would corrupt the new base
+        store.deleteJournal(getOriginalFile());
+        final String charset = getOriginalCharset();
+        return store.setContents(getOriginalFile(), format(new ISnapshotContents() {
+            public boolean writeTo(final WritableByteChannel channel) throws IOException {
+                encoder.encode(dirtyContents, charset, channel);
+                return true;
             }
+        }, charset, dirtyContents.length()));
+    }
+
+    private boolean appendJournal() throws CoreException, IOException {
+        final byte[] records = journal.drain();
+        if (records == null) {
+            return writeBase();
+        }
+        if (records.length == 0) {
+            // the change has not been recorded yet - so dont consider the snapshot up-to-date
+            return false;
         }
+        store.appendJournal(getOriginalFile(), records);
+        return true;
     }
 }
\ No newline at end of file
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.actions;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import net.sf.savedirtyeditors.store.ISnapshotStore;
+import net.sf.savedirtyeditors.utils.Messages;
+
+import org.eclipse.compare.CompareConfiguration;
+import org.eclipse.compare.CompareEditorInput;
+import org.eclipse.compare.IEncodedStreamContentAccessor;
+import org.eclipse.compare.ITypedElement;
+import org.eclipse.compare.ResourceNode;
+import org.eclipse.compare.structuremergeviewer.Differencer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.swt.graphics.Image;
+
+/**
+ * A {@link CompareEditorInput} comparing the original {@link IFile} with the contents of its snapshot - which might not
+ * be in the workspace at all (see {@link ISnapshotStore}). The original file is editable, so that the changes from the
+ * snapshot can be merged into it. This class should not be visible outside this package.
+ */
+final class SnapshotCompareInput extends CompareEditorInput {
+    private final IFile originalFile;
+    private final byte[] snapshotContents;
+    private final String snapshotCharset;
+    private ResourceNode originalNode;
+
+    /**
+     * Constructor for SnapshotCompareInput.
+     * 
+     * @param originalFile
+     *            The original file
+     * @param snapshotContents
+     *            The (encoded, but not compressed) contents of the snapshot of the original file
+     * @param snapshotCharset
+     *            The name of the charset the snapshot is encoded with
+     */
+    SnapshotCompareInput(final IFile originalFile, final byte[] snapshotContents, final String snapshotCharset) {
+        super(createConfiguration(originalFile));
+        this.originalFile = originalFile;
+        this.snapshotContents = snapshotContents;
+        this.snapshotCharset = snapshotCharset;
+        setTitle(Messages.getString("SnapshotCompareInput.title") + originalFile.getFullPath().toPortableString()); //$NON-NLS-1$
+    }
+
+    private static CompareConfiguration createConfiguration(final IFile originalFile) {
+        final CompareConfiguration configuration = new CompareConfiguration();
+        configuration.setLeftEditable(true);
+        configuration.setRightEditable(false);
+        configuration.setLeftLabel(originalFile.getFullPath().toPortableString());
+        configuration.setRightLabel(Messages.getString("SnapshotCompareInput.snapshot") + originalFile.getName()); //$NON-NLS-1$
+        return configuration;
+    }
+
+    /**
+     * Returns <code>null</code> if there are no differences - in which case the user is told so instead of being shown
+     * an empty compare editor.
+     * 
+     * @see CompareEditorInput#prepareInput(IProgressMonitor)
+     */
+    @Override
+    protected Object prepareInput(final IProgressMonitor monitor) {
+        originalNode = new ResourceNode(originalFile);
+        return new Differencer().findDifferences(false, monitor, null, null, originalNode, new SnapshotNode());
+    }
+
+    /**
+     * Writes the merged contents back into the original file.
+     * 
+     * @see CompareEditorInput#saveChanges(IProgressMonitor)
+     */
+    @Override
+    public void saveChanges(final IProgressMonitor monitor) throws CoreException {
+        // flushes the contents of the viewers into the nodes
+        super.saveChanges(monitor);
+        if (originalNode != null) {
+            originalFile.setContents(new ByteArrayInputStream(originalNode.getContent()), true, true, monitor);
+            setDirty(false);
+        }
+    }
+
+    /**
+     * The read-only side of the comparison - holding the contents of the snapshot.
+     */
+    private final class SnapshotNode implements ITypedElement, IEncodedStreamContentAccessor {
+        /**
+         * @see ITypedElement#getName()
+         */
+        public String getName() {
+            return Messages.getString("SnapshotCompareInput.snapshot") + originalFile.getName(); //$NON-NLS-1$
+        }
+
+        /**
+         * @see ITypedElement#getImage()
+         */
+        public Image getImage() {
+            return null;
+        }
+
+        /**
+         * Same as the original file - so that the same content viewer is used for both sides.
+         * 
+         * @see ITypedElement#getType()
+         */
+        public String getType() {
+            final String extension = originalFile.getFileExtension();
+            return extension == null ? ITypedElement.TEXT_TYPE : extension;
+        }
+
+        /**
+         * @see IEncodedStreamContentAccessor#getContents()
+         */
+        public InputStream getContents() {
+            return new ByteArrayInputStream(snapshotContents);
+        }
+
+        /**
+         * @see IEncodedStreamContentAccessor#getCharset()
+         */
+        public String getCharset() {
+            return snapshotCharset;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.actions;
+
+import net.sf.savedirtyeditors.utils.Messages;
+
+import org.eclipse.jface.dialogs.IDialogConstants;
+import org.eclipse.jface.viewers.ArrayContentProvider;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.ui.dialogs.ListSelectionDialog;
+
+/**
+ * Lists all the files whose snapshots differ from them after an abnormal shutdown - so that the user can decide what to
+ * do with all of them at once, instead of being asked about each file as its editor is opened. The dialog is closed
+ * with the id of the button that was pressed: {@link #RESTORE_ID}, {@link #DISCARD_ID}, {@link #COMPARE_ID} - or
+ * {@link IDialogConstants#CANCEL_ID} if the user wants to be asked again later. The checked files are then returned by
+ * {@link #getSelectedActions()}.
+ */
+public final class SnapshotRecoveryDialog extends ListSelectionDialog {
+    /**
+     * The id of the button that overwrites the checked files with their snapshots.
+     */
+    public static final int RESTORE_ID = IDialogConstants.CLIENT_ID + 1;
+
+    /**
+     * The id of the button that deletes the snapshots of the checked files.
+     */
+    public static final int DISCARD_ID = IDialogConstants.CLIENT_ID + 2;
+
+    /**
+     * The id of the button that opens a compare editor for each of the checked files.
+     */
+    public static final int COMPARE_ID = IDialogConstants.CLIENT_ID + 3;
+
+    private ReconcileSnapshotAction[] selectedActions = new ReconcileSnapshotAction[0];
+
+    /**
+     * Constructor for SnapshotRecoveryDialog. All the files are checked to begin with.
+     * 
+     * @param parentShell
+     *            The parent shell
+     * @param actions
+     *            The actions for the files whose snapshots differ from them - which are already prepared (see
+     *            {@link ReconcileSnapshotAction#prepare()})
+     */
+    public SnapshotRecoveryDialog(final Shell parentShell, final ReconcileSnapshotAction[] actions) {
+        super(parentShell, actions, new ArrayContentProvider(), new ActionLabelProvider(), Messages
+                .getString("SnapshotRecoveryDialog.message")); //$NON-NLS-1$
+        setTitle(Messages.getString("SnapshotRecoveryDialog.title")); //$NON-NLS-1$
+        setInitialSelections(actions);
+    }
+
+    /**
+     * @return The actions for the files that were checked when the dialog was closed; empty if it was canceled
+     */
+    public ReconcileSnapshotAction[] getSelectedActions() {
+        return selectedActions;
+    }
+
+    /**
+     * Replaces the OK button with one button per choice.
+     * 
+     * @see ListSelectionDialog#createButtonsForButtonBar(Composite)
+     */
+    @Override
+    protected void createButtonsForButtonBar(final Composite parent) {
+        createButton(parent, RESTORE_ID, Messages.getString("SnapshotRecoveryDialog.restore"), true); //$NON-NLS-1$
+        createButton(parent, DISCARD_ID, Messages.getString("SnapshotRecoveryDialog.discard"), false); //$NON-NLS-1$
+        createButton(parent, COMPARE_ID, Messages.getString("SnapshotRecoveryDialog.compare"), false); //$NON-NLS-1$
+        createButton(parent, IDialogConstants.CANCEL_ID, Messages.getString("SnapshotRecoveryDialog.later"), false); //$NON-NLS-1$
+    }
+
+    /**
+     * @see ListSelectionDialog#buttonPressed(int)
+     */
+    @Override
+    protected void buttonPressed(final int buttonId) {
+        if ((buttonId != RESTORE_ID) && (buttonId != DISCARD_ID) && (buttonId != COMPARE_ID)) {
+            super.buttonPressed(buttonId);
+            return;
+        }
+        final Object[] checked = getViewer().getCheckedElements();
+        selectedActions = new ReconcileSnapshotAction[checked.length];
+        System.arraycopy(checked, 0, selectedActions, 0, checked.length);
+        setReturnCode(buttonId);
+        close();
+    }
+
+    /**
+     * Labels the action for a file with the full path of the file.
+     */
+    private static final class ActionLabelProvider extends LabelProvider {
+        /**
+         * @see LabelProvider#getText(Object)
+         */
+        @Override
+        public String getText(final Object element) {
+            return ((ReconcileSnapshotAction) element).getOriginalFile().getFullPath().toPortableString();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.filters;
+
+import java.util.StringTokenizer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.sf.savedirtyeditors.PluginConstants;
+
+/**
+ * Matches the names of the resources created by this plugin - the part of the {@link SnapshotResourceFilters} that
+ * does not depend on the preferences or the viewers. The name prefix, suffix and patterns are compiled into a single
+ * {@link Pattern} (see {@link #compile(String, String, String)}), and the {@link Matcher} is reset for every name
+ * instead of a new one being allocated each time - so an instance must not be shared between threads.
+ */
+public final class SnapshotNameMatcher {
+    /**
+     * The separator between the name patterns in {@link PluginConstants#KEY_SNAPSHOT_NAME_FILTERS}.
+     */
+    private static final String PATTERN_SEPARATOR = ","; //$NON-NLS-1$
+
+    /**
+     * The matcher of the pattern last matched against.
+     */
+    private Matcher matcher;
+
+    /**
+     * Constructor for SnapshotNameMatcher.
+     */
+    public SnapshotNameMatcher() {
+        super();
+    }
+
+    /**
+     * Returns true if the name matches the pattern.
+     * 
+     * @param pattern
+     *            The pattern compiled by {@link #compile(String, String, String)}; or <code>null</code> if there are no
+     *            names to be matched
+     * @param name
+     *            The name of the resource
+     * @return True if the resource is to be filtered out
+     */
+    public boolean matches(final Pattern pattern, final String name) {
+        if ((pattern == null) || (name == null)) {
+            return false;
+        }
+        if ((matcher == null) || (matcher.pattern() != pattern)) {
+            // the pattern was recompiled since
+            matcher = pattern.matcher(name);
+        } else {
+            matcher.reset(name);
+        }
+        return matcher.matches();
+    }
+
+    /**
+     * Compiles the names of all the resources to be filtered out into a single pattern.
+     * 
+     * @param prefix
+     *            The name prefix of the snapshots (see {@link PluginConstants#KEY_SNAPSHOT_NAME_PREFIX})
+     * @param suffix
+     *            The name suffix of the snapshots (see {@link PluginConstants#KEY_SNAPSHOT_NAME_SUFFIX})
+     * @param filters
+     *            The other name patterns to be filtered out (see {@link PluginConstants#KEY_SNAPSHOT_NAME_FILTERS})
+     * @return The pattern matching the names of all the resources to be filtered out; or <code>null</code> if there
+     *         are none
+     */
+    public static Pattern compile(final String prefix, final String suffix, final String filters) {
+        final StringBuffer regex = new StringBuffer();
+        // if both the prefix and suffix are empty - then leave them out (or else we will filter out every member!)
+        if (isNonTrivial(prefix) || isNonTrivial(suffix)) {
+            regex.append(Pattern.quote(prefix)).append(".*").append(Pattern.quote(suffix)); //$NON-NLS-1$
+        }
+        final StringTokenizer tokenizer = new StringTokenizer(filters == null ? "" : filters, //$NON-NLS-1$
+                PATTERN_SEPARATOR);
+        while (tokenizer.hasMoreTokens()) {
+            final String glob = tokenizer.nextToken().trim();
+            // a lone wildcard would filter out every member as well
+            if (isNonTrivial(glob.replace('*', ' ').replace('?', ' '))) {
+                if (regex.length() > 0) {
+                    regex.append('|');
+                }
+                appendGlob(regex, glob);
+            }
+        }
+        return regex.length() == 0 ? null : Pattern.compile(regex.toString());
+    }
+
+    /**
+     * Appends a name pattern - where <code>*</code> matches any number of characters and <code>?</code> matches any
+     * one character - as a regular expression.
+     */
+    private static void appendGlob(final StringBuffer regex, final String glob) {
+        int start = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            final char c = glob.charAt(i);
+            if ((c == '*') || (c == '?')) {
+                if (i > start) {
+                    regex.append(Pattern.quote(glob.substring(start, i)));
+                }
+                regex.append(c == '*' ? ".*" : "."); //$NON-NLS-1$ //$NON-NLS-2$
+                start = i + 1;
+            }
+        }
+        if (start < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(start)));
+        }
+    }
+
+    private static boolean isNonTrivial(final String str) {
+        return (str != null) && (str.trim().length() > 0);
+    }
+}
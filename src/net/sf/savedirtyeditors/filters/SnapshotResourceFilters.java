@@ -10,33 +10,63 @@
  *******************************************************************************/
 package net.sf.savedirtyeditors.filters;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.regex.Pattern;
+
 import net.sf.savedirtyeditors.PluginActivator;
 import net.sf.savedirtyeditors.PluginConstants;
+import net.sf.savedirtyeditors.utils.SnapshotMetrics;
 
 import org.eclipse.core.resources.IResource;
+import org.eclipse.jface.util.IPropertyChangeListener;
+import org.eclipse.jface.util.PropertyChangeEvent;
 import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.jface.viewers.ViewerFilter;
+import org.eclipse.swt.widgets.Control;
 
 /**
- * Filter out resources created by this plugin based on user preference settings for the name prefix and suffix.
+ * Filter out resources created by this plugin based on user preference settings for the name prefix and suffix - and
+ * any other name patterns the user wants hidden along with them (see
+ * {@link PluginConstants#KEY_SNAPSHOT_NAME_FILTERS}), for eg the snapshots left behind by an older naming scheme. All
+ * of these are compiled into a single {@link Pattern}, so each resource is matched once. The pattern is shared by all
+ * the filters, and is recompiled (and the viewers being filtered refreshed) as soon as any of these preferences
+ * change. The names themselves are matched by a {@link SnapshotNameMatcher}, which knows nothing of the preferences.
  */
 public class SnapshotResourceFilters extends ViewerFilter {
-    private final String snapshotNamePrefix;
-    private final String snapshotNameSuffix;
-    private boolean shouldApply = false;
+    /**
+     * The viewers that any filter was applied to - weakly held, since a filter is not told when its view is closed.
+     * NOTE: Guarded by the class lock.
+     */
+    private static final Map<Viewer, Object> viewers = new WeakHashMap<Viewer, Object>();
+
+    private static IPropertyChangeListener preferenceListener;
+
+    /**
+     * The names of the resources to be filtered out; or <code>null</code> if there are none.
+     */
+    private static volatile Pattern namePattern;
+
+    /**
+     * The viewer that this filter was last applied to - so that it is only registered once.
+     */
+    private Viewer lastViewer;
+
+    /**
+     * Matches the names against {@link #namePattern}. Filters are only applied on the UI thread, so it is not shared
+     * between threads.
+     */
+    private final SnapshotNameMatcher nameMatcher = new SnapshotNameMatcher();
 
     /**
      * Constructor for SnapshotResourceFilters.
      */
     public SnapshotResourceFilters() {
         super();
-
-        // since there's only one filter per target (registered view) - its better performance-wise to retrieve these
-        // settings here - of course the caveat is that once the user changes these in the preference dialog, these will
-        // need to be refreshed by closing and opening the view again
-        snapshotNamePrefix = PluginActivator.getStringPreference(PluginConstants.KEY_SNAPSHOT_NAME_PREFIX);
-        snapshotNameSuffix = PluginActivator.getStringPreference(PluginConstants.KEY_SNAPSHOT_NAME_SUFFIX);
-        shouldApply = isNonTrivial(snapshotNamePrefix) || isNonTrivial(snapshotNameSuffix);
+        install();
     }
 
     /**
@@ -53,15 +83,83 @@ public class SnapshotResourceFilters extends ViewerFilter {
      */
     @Override
     public boolean select(final Viewer viewer, final Object parentElement, final Object element) {
-        // if both the prefix and suffix are empty - then dont proceed (or else we will filter out every member!)
-        if (shouldApply && (element instanceof IResource)) {
-            final String name = ((IResource) element).getName();
-            return !(name.startsWith(snapshotNamePrefix) && name.endsWith(snapshotNameSuffix));
+        if (viewer != lastViewer) {
+            register(viewer);
+            lastViewer = viewer;
+        }
+        final Pattern pattern = namePattern;
+        if ((pattern != null) && (element instanceof IResource)) {
+            return !nameMatcher.matches(pattern, ((IResource) element).getName());
         }
         return true;
     }
 
-    private boolean isNonTrivial(final String str) {
-        return (str != null) && (str.trim().length() > 0);
+    /**
+     * Stops listening to the preferences - called when the plugin is stopped.
+     */
+    public static synchronized void uninstall() {
+        if (preferenceListener != null) {
+            PluginActivator.getDefault().getPreferenceStore().removePropertyChangeListener(preferenceListener);
+            preferenceListener = null;
+        }
+        viewers.clear();
+    }
+
+    private static synchronized void install() {
+        if (preferenceListener != null) {
+            return;
+        }
+        preferenceListener = new IPropertyChangeListener() {
+            public void propertyChange(final PropertyChangeEvent event) {
+                final String property = event.getProperty();
+                if (PluginConstants.KEY_SNAPSHOT_NAME_PREFIX.equals(property)
+                        || PluginConstants.KEY_SNAPSHOT_NAME_SUFFIX.equals(property)
+                        || PluginConstants.KEY_SNAPSHOT_NAME_FILTERS.equals(property)) {
+                    namePattern = compile();
+                    refreshViewers();
+                }
+            }
+        };
+        PluginActivator.getDefault().getPreferenceStore().addPropertyChangeListener(preferenceListener);
+        namePattern = compile();
+    }
+
+    private static synchronized void register(final Viewer viewer) {
+        viewers.put(viewer, null);
+    }
+
+    private static void refreshViewers() {
+        final List<Viewer> liveViewers;
+        synchronized (SnapshotResourceFilters.class) {
+            liveViewers = new ArrayList<Viewer>(viewers.keySet());
+        }
+        for (final Iterator<Viewer> iter = liveViewers.iterator(); iter.hasNext();) {
+            final Viewer viewer = iter.next();
+            final Control control = viewer.getControl();
+            if ((control == null) || control.isDisposed()) {
+                continue;
+            }
+            // the preferences might not be changed from the UI thread
+            control.getDisplay().asyncExec(new Runnable() {
+                public void run() {
+                    if (!control.isDisposed()) {
+                        final long start = System.nanoTime();
+                        viewer.refresh();
+                        SnapshotMetrics.record(SnapshotMetrics.UI_THREAD, start);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @return The pattern matching the names of all the resources to be filtered out; or <code>null</code> if there
+     *         are none
+     */
+    private static Pattern compile() {
+        final String prefix = PluginActivator.getStringPreference(PluginConstants.KEY_SNAPSHOT_NAME_PREFIX);
+        final String suffix = PluginActivator.getStringPreference(PluginConstants.KEY_SNAPSHOT_NAME_SUFFIX);
+        final String filters = PluginActivator.getStringPreference(PluginConstants.KEY_SNAPSHOT_NAME_FILTERS);
+        return SnapshotNameMatcher.compile(prefix, suffix, filters);
     }
-}
\ No newline at end of file
+}
@@ -10,67 +10,169 @@
  *******************************************************************************/
 package net.sf.savedirtyeditors.jobs;
 
+import net.sf.savedirtyeditors.ISnapshotEnvironment;
 import net.sf.savedirtyeditors.PluginActivator;
 import net.sf.savedirtyeditors.PluginConstants;
 import net.sf.savedirtyeditors.actions.DeleteSnapshotAction;
 import net.sf.savedirtyeditors.actions.ReconcileSnapshotAction;
 import net.sf.savedirtyeditors.actions.SaveSnapshotAction;
+import net.sf.savedirtyeditors.store.DocumentCapture;
+import net.sf.savedirtyeditors.store.ISnapshotStore;
+import net.sf.savedirtyeditors.store.SnapshotChangeTracker;
+import net.sf.savedirtyeditors.store.SnapshotJournal;
+import net.sf.savedirtyeditors.store.SnapshotWriteQueue;
+import net.sf.savedirtyeditors.utils.DocumentEncoder;
 import net.sf.savedirtyeditors.utils.Messages;
 import net.sf.savedirtyeditors.utils.ResourceUtils;
+import net.sf.savedirtyeditors.utils.SnapshotMetrics;
 
-import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.resources.IFile;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
-import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.IJobManager;
 import org.eclipse.core.runtime.jobs.ISchedulingRule;
 import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
 import org.eclipse.ui.IEditorPart;
 import org.eclipse.ui.IPropertyListener;
-import org.osgi.framework.Bundle;
 
 /**
- * A custom implementation of {@link Job} to schedule either the {@link SaveSnapshotAction} or the
- * {@link DeleteSnapshotAction}. This belongs to the Job family defined by {@link PluginConstants#JOB_FAMILY_NAME}.
+ * A custom implementation of {@link Job} that keeps track of the snapshot of a single {@link IEditorPart}. The job
+ * itself is only run once, to reconcile the snapshot left behind by an abnormal shutdown - after that the
+ * {@link SaveSnapshotAction} is run by the {@link SnapshotScheduler} (along with all the other editors that are due),
+ * and the {@link DeleteSnapshotAction} whenever the editor is saved or closed. This belongs to the Job family defined
+ * by {@link PluginConstants#JOB_FAMILY_NAME}.
+ * <p>
+ * When the editor has a document, the snapshot is debounced on its edits: it is due once the user has stopped typing
+ * for the user-defined quiet period ({@link PluginConstants#KEY_QUIET_PERIOD}), or at the latest the reschedule delay
+ * ({@link PluginConstants#KEY_RESCHEDULE_DELAY}) after the first edit that is not in a snapshot yet. An editor that is
+ * not edited is never due - however long it stays dirty. Without a document, the snapshot is simply due every
+ * reschedule delay.
  */
 public final class SaveSnapshotJob extends Job {
-    private final Bundle systemBundle = Platform.getBundle("org.eclipse.osgi"); //$NON-NLS-1$
+    /**
+     * Used to denote that the editor was not edited since its last snapshot.
+     */
+    private static final long NO_EDIT = Long.MAX_VALUE;
+
+    /**
+     * The time (in millis) to wait before checking again whether the {@link SnapshotRecoveryJob} is done.
+     */
+    private static final long RECOVERY_WAIT = 500;
 
+    private final SnapshotScheduler scheduler;
+    private final ISnapshotEnvironment environment;
     private final IEditorPart editorPart;
     private final IPropertyListener stateListener;
+    private final IDocument document;
+    private final IDocumentListener editListener;
+    private final DocumentCapture capture;
+    private final SnapshotJournal journal;
+    private final SnapshotChangeTracker tracker;
+
+    /**
+     * The file under the <code>editorPart</code> - looked up again only when the editor input changes (for eg, when
+     * the file is moved or renamed).
+     */
+    private volatile IFile originalFile;
     private boolean completed = false;
     private boolean firstTime = true;
+    private boolean dirty;
+
+    /**
+     * True if the next snapshot is due right away (see {@link #snapshotSoon()}) - regardless of the edits.
+     */
+    private boolean snapshotSoon = false;
+
+    /**
+     * When the next snapshot is due - only for an editor without a document, since the edits decide it otherwise.
+     */
+    private long nextSnapshotTime = NO_EDIT;
+    private long firstEditTime = NO_EDIT;
+    private long lastEditTime = NO_EDIT;
 
     /**
      * Constructor for SaveSnapshotJob.
      * 
      * @param editorPart
      *            The non-null {@link IEditorPart} for which the scheduled tasks need to be run.
+     * @param scheduler
+     *            The non-null {@link SnapshotScheduler} that takes the snapshots of the <code>editorPart</code>
      */
-    public SaveSnapshotJob(final IEditorPart editorPart) {
-        super(Messages.getString("SaveSnapshotJob.running") + ResourceUtils.getFullPathAsString(editorPart)); //$NON-NLS-1$
+    public SaveSnapshotJob(final IEditorPart editorPart, final SnapshotScheduler scheduler) {
+        this(editorPart, scheduler, scheduler.getEnvironment().getFile(editorPart));
+    }
+
+    private SaveSnapshotJob(final IEditorPart editorPart, final SnapshotScheduler scheduler,
+            final IFile originalFile) {
+        super(Messages.getString("SaveSnapshotJob.running") + getFullPath(originalFile)); //$NON-NLS-1$
+        this.scheduler = scheduler;
+        this.environment = scheduler.getEnvironment();
         this.editorPart = editorPart;
+        this.originalFile = originalFile;
         this.stateListener = new IPropertyListener() {
             public void propertyChanged(final Object source, final int propId) {
+                if ((IEditorPart.PROP_INPUT == propId) && (editorPart == source)) {
+                    SaveSnapshotJob.this.originalFile = environment.getFile(editorPart);
+                    return;
+                }
                 if ((IEditorPart.PROP_DIRTY != propId) || (editorPart != source)) {
                     return;
                 }
                 if (!editorPart.isDirty()) {
                     // if the previously dirty editor is now NOT dirty anymore...
-                    ResourceUtils.getDisplay(editorPart).asyncExec(new Runnable() {
+                    environment.asyncExec(editorPart, new Runnable() {
                         public void run() {
+                            // the user might have typed again since - and that snapshot must be kept
+                            if (editorPart.isDirty()) {
+                                return;
+                            }
+                            final long start = System.nanoTime();
                             cleanupSnapshot();
+                            SnapshotMetrics.record(SnapshotMetrics.UI_THREAD, start);
                         }
                     });
                 } else {
                     // if the editorPart became dirty - either for the first time or after being saved...
-                    schedule();
+                    setDirty(true);
+                    getScheduler().reschedule(SaveSnapshotJob.this);
                 }
             }
         };
+        this.document = environment.getDocument(editorPart);
+        this.tracker = document == null ? null : new SnapshotChangeTracker(document);
+        if (document != null) {
+            this.editListener = new IDocumentListener() {
+                public void documentAboutToBeChanged(final DocumentEvent event) {
+                    // do nothing
+                }
+
+                public void documentChanged(final DocumentEvent event) {
+                    edited();
+                }
+            };
+            document.addDocumentListener(editListener);
+            this.capture = new DocumentCapture(document);
+            capture.connect();
+        } else {
+            this.editListener = null;
+            this.capture = null;
+        }
+        // record the changes if the user wants them journaled - this is only decided when the editor is opened
+        if ((document != null) && getPreferenceStore().getBoolean(PluginConstants.KEY_JOURNAL_ENABLED)) {
+            this.journal = new SnapshotJournal(document);
+            journal.connect();
+        } else {
+            this.journal = null;
+        }
+        this.dirty = editorPart.isDirty();
         setSystem(true);
         setPriority(SHORT);
+        getScheduler().add(this);
         // schedule the job here itself - in case a reconciliation is needed
         schedule();
         editorPart.addPropertyListener(stateListener);
@@ -98,6 +200,13 @@ public final class SaveSnapshotJob extends Job {
         return this.editorPart == editorPart;
     }
 
+    /**
+     * @return The {@link IEditorPart} that this Job was created for
+     */
+    IEditorPart getEditorPart() {
+        return editorPart;
+    }
+
     /**
      * @see Job#shouldRun()
      */
@@ -115,49 +224,205 @@ public final class SaveSnapshotJob extends Job {
     }
 
     /**
+     * Runs the {@link ReconcileSnapshotAction} for the <code>editorPart</code> - unless the {@link SnapshotRecoveryJob}
+     * already restored or discarded its snapshot. This waits for the recovery job, and for the user to decide on the
+     * file if it was shown by it. The snapshots themselves are taken by the {@link SnapshotScheduler} once this
+     * is done.
+     * 
      * @see Job#run(IProgressMonitor)
      */
     @Override
     protected IStatus run(final IProgressMonitor monitor) {
         // if the system is shutting down, don't build
-        if (systemBundle.getState() == Bundle.STOPPING) {
+        if (environment.isStopping()) {
             return Status.OK_STATUS;
         }
 
-        PluginActivator
-                .logDebug(Messages.getString("SaveSnapshotJob.running") + ResourceUtils.getFullPathAsString(editorPart)); //$NON-NLS-1$
+        if (environment.isRecoveryPending(originalFile)) {
+            schedule(RECOVERY_WAIT);
+            return Status.OK_STATUS;
+        }
 
-        final IJobManager jobManager = Job.getJobManager();
-        final ISchedulingRule rule = ResourcesPlugin.getWorkspace().getRoot();
-        try {
-            jobManager.beginRule(rule, monitor);
+        trace("SaveSnapshotJob.running"); //$NON-NLS-1$
 
-            if (firstTime) {
-                // Need to run the reconcile action
-                ResourceUtils.run(new ReconcileSnapshotAction(editorPart));
-                firstTime = false;
-            } else {
-                // Do the actual save by delegating to an action
-                ResourceUtils.run(new SaveSnapshotAction(editorPart));
+        if (!environment.isRecovered(originalFile)) {
+            // Need to run the reconcile action - holding only the rules for its snapshot files (not the workspace root)
+            final ReconcileSnapshotAction reconcileAction = new ReconcileSnapshotAction(editorPart, originalFile,
+                    environment);
+            final IJobManager jobManager = Job.getJobManager();
+            final ISchedulingRule rule = reconcileAction.getSchedulingRule();
+            try {
+                final long start = System.nanoTime();
+                jobManager.beginRule(rule, monitor);
+                SnapshotMetrics.record(SnapshotMetrics.RULE_WAIT, start);
+                ResourceUtils.run(reconcileAction);
+            } finally {
+                jobManager.endRule(rule);
             }
-        } finally {
-            jobManager.endRule(rule);
         }
-        schedule(PluginActivator.getLongPreference(PluginConstants.KEY_RESCHEDULE_DELAY));
+        synchronized (this) {
+            firstTime = false;
+        }
+        // the editor might have become dirty while we were reconciling
+        getScheduler().snapshotSoon(this);
         return Status.OK_STATUS;
     }
 
+    /**
+     * Creates the {@link SaveSnapshotAction} for the <code>editorPart</code>. This is called by the
+     * {@link SnapshotScheduler} when this job is due, and the action is run along with those of the other editors.
+     * 
+     * @param store
+     *            The {@link ISnapshotStore} that the whole batch is saved into
+     * @param encoder
+     *            The {@link DocumentEncoder} shared by the whole batch
+     * @param writeQueue
+     *            The {@link SnapshotWriteQueue} that the snapshot is handed to, once encoded
+     * @return The action that does the actual save
+     */
+    SaveSnapshotAction createSnapshotAction(final ISnapshotStore store, final DocumentEncoder encoder,
+            final SnapshotWriteQueue writeQueue) {
+        trace("SaveSnapshotJob.running"); //$NON-NLS-1$
+
+        return new SaveSnapshotAction(editorPart, originalFile, environment, store, encoder, writeQueue, capture,
+                journal, tracker);
+    }
+
+    /**
+     * Returns true if a snapshot needs to be taken at <code>now</code> - ie, the reconciliation is done, the editor is
+     * dirty and its next snapshot time (see {@link #getNextSnapshotTime()}) has arrived.
+     * 
+     * @param now
+     *            The current time in millis
+     * @return True if the {@link SnapshotScheduler} should run the {@link #createSnapshotAction}
+     */
+    synchronized boolean isDue(final long now) {
+        return isPending() && (getNextSnapshotTime() <= now);
+    }
+
+    /**
+     * @return True if the snapshot is pending (see {@link #isPending()}) and the editor might have changed since its
+     *         last snapshot
+     */
+    public boolean isFlushNeeded() {
+        return isPending() && ((tracker == null) || tracker.mayHaveChanged());
+    }
+
+    /**
+     * @return True if the reconciliation is done and the editor is dirty - ie, a snapshot will be due at
+     *         {@link #getNextSnapshotTime()}
+     */
+    synchronized boolean isPending() {
+        return !completed && !firstTime && dirty;
+    }
+
+    /**
+     * @return The time (in millis) when the next snapshot is due - the quiet period after the last edit, but no later
+     *         than the maximum delay after the first one; 0 if it was asked for right away (see
+     *         {@link #snapshotSoon()}); {@link Long#MAX_VALUE} if the editor was not edited since its last snapshot
+     */
+    synchronized long getNextSnapshotTime() {
+        if (snapshotSoon) {
+            return 0;
+        }
+        if (editListener == null) {
+            return nextSnapshotTime;
+        }
+        if (firstEditTime == NO_EDIT) {
+            return NO_EDIT;
+        }
+        final long quietPeriod = getPreferenceStore().getLong(PluginConstants.KEY_QUIET_PERIOD);
+        final long maxDelay = getPreferenceStore().getLong(PluginConstants.KEY_RESCHEDULE_DELAY);
+        return Math.min(lastEditTime + quietPeriod, firstEditTime + maxDelay);
+    }
+
+    /**
+     * Records that the {@link SnapshotScheduler} is about to take the snapshot - so the edits made until now will be
+     * in it.
+     * 
+     * @param now
+     *            The current time in millis
+     */
+    synchronized void snapshotStarted(final long now) {
+        snapshotSoon = false;
+        firstEditTime = NO_EDIT;
+        nextSnapshotTime = now + getPreferenceStore().getLong(PluginConstants.KEY_RESCHEDULE_DELAY);
+    }
+
+    /**
+     * Makes the next snapshot due right away - until it is started (see {@link #snapshotStarted(long)}).
+     */
+    synchronized void snapshotSoon() {
+        snapshotSoon = true;
+    }
+
+    private synchronized void setDirty(final boolean dirty) {
+        this.dirty = dirty;
+    }
+
+    private void edited() {
+        final boolean firstEdit;
+        synchronized (this) {
+            final long now = environment.currentTimeMillis();
+            firstEdit = firstEditTime == NO_EDIT;
+            if (firstEdit) {
+                firstEditTime = now;
+            }
+            lastEditTime = now;
+        }
+        // the following edits only push the snapshot further out - which the scheduler finds out when it wakes up
+        if (firstEdit) {
+            getScheduler().reschedule(this);
+        }
+    }
+
+    /**
+     * Traces a message about the <code>editorPart</code> - which is only built if the jobs are being traced (see
+     * {@link PluginConstants#TRACE_JOBS}).
+     */
+    private void trace(final String key) {
+        if (PluginActivator.isTracing(PluginConstants.TRACE_JOBS)) {
+            PluginActivator.trace(PluginConstants.TRACE_JOBS, Messages.getString(key) + getFullPath(originalFile));
+        }
+    }
+
+    private static String getFullPath(final IFile file) {
+        return file == null ? null : file.getFullPath().toPortableString();
+    }
+
+    private SnapshotScheduler getScheduler() {
+        return scheduler;
+    }
+
+    private IPreferenceStore getPreferenceStore() {
+        return environment.getPreferenceStore();
+    }
+
     /**
      * Called when this Job needs to be shutdown. This method will run the {@link DeleteSnapshotAction} for the
      * <code>editorPart</code> from this Job and then stop itself from being scheduled/run any more.
      */
     public void complete() {
-        PluginActivator
-                .logDebug(Messages.getString("SaveSnapshotJob.complete") + ResourceUtils.getFullPathAsString(editorPart)); //$NON-NLS-1$
+        trace("SaveSnapshotJob.complete"); //$NON-NLS-1$
+        if ((tracker != null) && PluginActivator.isTracing(PluginConstants.TRACE_JOBS)) {
+            PluginActivator.trace(PluginConstants.TRACE_JOBS, Messages.getString("SaveSnapshotJob.skipped") //$NON-NLS-1$
+                    + tracker.getSkippedCount());
+        }
         // Need to clean the temp area
         cleanupSnapshot();
-        completed = true;
+        synchronized (this) {
+            completed = true;
+        }
+        getScheduler().remove(this);
         editorPart.removePropertyListener(stateListener);
+        if (editListener != null) {
+            // the document provider might have let go of the document by now - so dont look it up again
+            document.removeDocumentListener(editListener);
+            capture.disconnect();
+        }
+        if (journal != null) {
+            journal.disconnect();
+        }
         sleep();
         cancel();
     }
@@ -167,6 +432,18 @@ public final class SaveSnapshotJob extends Job {
      * the disk.
      */
     void cleanupSnapshot() {
-        ResourceUtils.run(new DeleteSnapshotAction(editorPart));
+        synchronized (this) {
+            dirty = false;
+            snapshotSoon = false;
+            firstEditTime = NO_EDIT;
+        }
+        if (journal != null) {
+            // the base snapshot is going away - so the journal has to start over
+            journal.invalidate();
+        }
+        if (tracker != null) {
+            tracker.reset();
+        }
+        ResourceUtils.run(new DeleteSnapshotAction(editorPart, originalFile, environment));
     }
 }
\ No newline at end of file
@@ -0,0 +1,313 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.jobs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sf.savedirtyeditors.PluginActivator;
+import net.sf.savedirtyeditors.PluginConstants;
+import net.sf.savedirtyeditors.actions.DeleteSnapshotAction;
+import net.sf.savedirtyeditors.actions.ReconcileSnapshotAction;
+import net.sf.savedirtyeditors.actions.RestoreSnapshotAction;
+import net.sf.savedirtyeditors.actions.SnapshotRecoveryDialog;
+import net.sf.savedirtyeditors.store.ISnapshotStore;
+import net.sf.savedirtyeditors.utils.Messages;
+import net.sf.savedirtyeditors.utils.ResourceUtils;
+import net.sf.savedirtyeditors.utils.SnapshotMetrics;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IWorkspaceRoot;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.IJobManager;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.MultiRule;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.PlatformUI;
+import org.osgi.framework.Bundle;
+
+/**
+ * A {@link Job} that is run once at startup, to reconcile all the snapshots left behind by an abnormal shutdown in one
+ * go - rather than one editor at a time as each {@link SaveSnapshotJob} runs for the first time. Every file listed in
+ * the manifest of a store is prepared (see {@link ReconcileSnapshotAction#prepare()}) in parallel, each holding only
+ * the rule for its own snapshot; and the files whose snapshots still differ from them are then shown to the user in a
+ * single {@link SnapshotRecoveryDialog}. The {@link SaveSnapshotJob}s wait for this job to be done (see
+ * {@link #isDone()}), and for the user to decide on their files (see {@link #isPending(IFile)}). Only the files whose
+ * snapshots were restored or discarded here are skipped by them (see {@link #isHandled(IFile)}) - the ones the user
+ * left for later (or only compared) are reconciled by their editors, as if this job had never seen them. This belongs
+ * to the Job family defined by {@link PluginConstants#JOB_FAMILY_NAME}.
+ */
+public final class SnapshotRecoveryJob extends Job {
+    private final Bundle systemBundle = Platform.getBundle("org.eclipse.osgi"); //$NON-NLS-1$
+
+    /**
+     * The full paths of the files whose snapshots were restored or discarded by the user.
+     */
+    private final Set<IPath> handledPaths = Collections.synchronizedSet(new HashSet<IPath>());
+
+    /**
+     * The full paths of the files shown to the user, until the user has decided what to do with them.
+     */
+    private final Set<IPath> pendingPaths = Collections.synchronizedSet(new HashSet<IPath>());
+    private volatile boolean done = false;
+
+    /**
+     * Constructor for SnapshotRecoveryJob.
+     */
+    public SnapshotRecoveryJob() {
+        super(Messages.getString("SnapshotRecoveryJob.name")); //$NON-NLS-1$
+        setSystem(true);
+        setPriority(SHORT);
+    }
+
+    /**
+     * Returns true if family is the same as defined by {@link PluginConstants#JOB_FAMILY_NAME}
+     * 
+     * @see Job#belongsTo(Object)
+     */
+    @Override
+    public boolean belongsTo(final Object family) {
+        return PluginConstants.JOB_FAMILY_NAME.equals(family);
+    }
+
+    /**
+     * @return True once all the snapshots found at startup are prepared - whether or not the user has decided what to
+     *         do with them yet
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * @param file
+     *            The original file
+     * @return True if the snapshot of the file was already restored or discarded by this job - so it should not be
+     *         reconciled again when the file is opened in an editor
+     */
+    public boolean isHandled(final IFile file) {
+        return (file != null) && handledPaths.contains(file.getFullPath());
+    }
+
+    /**
+     * @param file
+     *            The original file
+     * @return True if the snapshot of the file is shown to the user (or being restored or discarded) right now - so its
+     *         editor has to wait before reconciling it
+     */
+    public boolean isPending(final IFile file) {
+        return (file != null) && pendingPaths.contains(file.getFullPath());
+    }
+
+    /**
+     * @see Job#run(IProgressMonitor)
+     */
+    @Override
+    protected IStatus run(final IProgressMonitor monitor) {
+        try {
+            // if the system is shutting down, don't build
+            if (systemBundle.getState() == Bundle.STOPPING) {
+                return Status.OK_STATUS;
+            }
+            final List<ReconcileSnapshotAction> divergent = prepareAll(findSnapshots());
+            if (!divergent.isEmpty()) {
+                for (int i = 0; i < divergent.size(); i++) {
+                    pendingPaths.add(divergent.get(i).getOriginalFile().getFullPath());
+                }
+                prompt(divergent.toArray(new ReconcileSnapshotAction[divergent.size()]));
+            }
+        } finally {
+            done = true;
+        }
+        return Status.OK_STATUS;
+    }
+
+    /**
+     * @return An action for every file that might have a snapshot in any of the stores - as listed in their manifests
+     */
+    private List<ReconcileSnapshotAction> findSnapshots() {
+        final IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+        final List<ReconcileSnapshotAction> actions = new ArrayList<ReconcileSnapshotAction>();
+        final ISnapshotStore[] stores = PluginActivator.getDefault().getSnapshotStores();
+        for (int i = 0; i < stores.length; i++) {
+            final IPath[] paths = stores[i].getManifest().getPaths();
+            for (int j = 0; j < paths.length; j++) {
+                final IFile file = root.getFile(paths[j]);
+                // a snapshot of a file that is gone cannot be reconciled with anything
+                if (file.exists()) {
+                    actions.add(new ReconcileSnapshotAction(file, stores[i]));
+                }
+            }
+        }
+        return actions;
+    }
+
+    /**
+     * Prepares all the actions on a pool of one thread per processor.
+     * 
+     * @return The actions for the files whose snapshots differ from them
+     */
+    private List<ReconcileSnapshotAction> prepareAll(final List<ReconcileSnapshotAction> actions) {
+        final List<ReconcileSnapshotAction> divergent = new ArrayList<ReconcileSnapshotAction>();
+        if (actions.isEmpty()) {
+            return divergent;
+        }
+        final List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>(actions.size());
+        for (int i = 0; i < actions.size(); i++) {
+            final ReconcileSnapshotAction action = actions.get(i);
+            tasks.add(new Callable<Boolean>() {
+                public Boolean call() {
+                    return Boolean.valueOf(prepare(action));
+                }
+            });
+        }
+        final int threads = Math.min(actions.size(), Runtime.getRuntime().availableProcessors());
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Boolean>> results = executor.invokeAll(tasks);
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    if (results.get(i).get().booleanValue()) {
+                        divergent.add(actions.get(i));
+                    }
+                } catch (final ExecutionException exc) {
+                    PluginActivator.logError(exc.getCause());
+                }
+            }
+        } catch (final InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+        }
+        return divergent;
+    }
+
+    private boolean prepare(final ReconcileSnapshotAction action) {
+        final IJobManager jobManager = Job.getJobManager();
+        final ISchedulingRule rule = action.getSchedulingRule();
+        try {
+            final long start = System.nanoTime();
+            jobManager.beginRule(rule, null);
+            SnapshotMetrics.record(SnapshotMetrics.RULE_WAIT, start);
+            return action.prepare();
+        } catch (final CoreException exc) {
+            // left to the SaveSnapshotJob of the file, if it is ever opened
+            PluginActivator.logError(exc);
+        } catch (final IOException exc) {
+            PluginActivator.logError(exc);
+        } finally {
+            jobManager.endRule(rule);
+        }
+        return false;
+    }
+
+    private void prompt(final ReconcileSnapshotAction[] actions) {
+        final Display display = PlatformUI.getWorkbench().getDisplay();
+        display.asyncExec(new Runnable() {
+            public void run() {
+                // the unchecked files (and all of them, unless the user restores or discards) go back to their editors
+                final Set<ReconcileSnapshotAction> chosen = new HashSet<ReconcileSnapshotAction>();
+                try {
+                    final SnapshotRecoveryDialog dialog = new SnapshotRecoveryDialog(display.getActiveShell(),
+                            actions);
+                    final int choice = dialog.open();
+                    final ReconcileSnapshotAction[] selected = dialog.getSelectedActions();
+                    if (choice == SnapshotRecoveryDialog.COMPARE_ID) {
+                        for (int i = 0; i < selected.length; i++) {
+                            selected[i].compare();
+                        }
+                    } else if ((choice == SnapshotRecoveryDialog.RESTORE_ID)
+                            || (choice == SnapshotRecoveryDialog.DISCARD_ID)) {
+                        chosen.addAll(Arrays.asList(selected));
+                        new RecoveryJob(selected, choice == SnapshotRecoveryDialog.RESTORE_ID).schedule();
+                    }
+                } finally {
+                    for (int i = 0; i < actions.length; i++) {
+                        if (!chosen.contains(actions[i])) {
+                            pendingPaths.remove(actions[i].getOriginalFile().getFullPath());
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Restores (or discards) the snapshots of the files chosen by the user - in the background, holding the rules for
+     * all of them at once. A file is only handled once its snapshot is gone; if that failed, its editor reconciles it.
+     */
+    private final class RecoveryJob extends Job {
+        private final ReconcileSnapshotAction[] actions;
+        private final boolean restore;
+
+        RecoveryJob(final ReconcileSnapshotAction[] actions, final boolean restore) {
+            super(Messages.getString("SnapshotRecoveryJob.name")); //$NON-NLS-1$
+            this.actions = actions;
+            this.restore = restore;
+            ISchedulingRule rule = null;
+            for (int i = 0; i < actions.length; i++) {
+                final IFile file = actions[i].getOriginalFile();
+                if (restore) {
+                    rule = MultiRule.combine(rule, new RestoreSnapshotAction(file, actions[i].getStore())
+                            .getRestoreRule());
+                } else {
+                    // the snapshot is deleted from all the stores - each one holding its own rule
+                    final ISnapshotStore[] stores = PluginActivator.getDefault().getSnapshotStores();
+                    for (int j = 0; j < stores.length; j++) {
+                        rule = MultiRule.combine(rule, stores[j].getSchedulingRule(file));
+                    }
+                }
+            }
+            setRule(rule);
+            setPriority(SHORT);
+        }
+
+        /**
+         * @see Job#run(IProgressMonitor)
+         */
+        @Override
+        protected IStatus run(final IProgressMonitor monitor) {
+            for (int i = 0; i < actions.length; i++) {
+                final IFile file = actions[i].getOriginalFile();
+                final ISnapshotStore store = actions[i].getStore();
+                try {
+                    if (restore) {
+                        ResourceUtils.run(new RestoreSnapshotAction(file, store));
+                    } else {
+                        ResourceUtils.run(new DeleteSnapshotAction(file, store));
+                    }
+                    if ((store.getVersions(file).length == 0) && !store.journalExists(file)) {
+                        handledPaths.add(file.getFullPath());
+                    }
+                } finally {
+                    pendingPaths.remove(file.getFullPath());
+                }
+            }
+            return Status.OK_STATUS;
+        }
+    }
+}
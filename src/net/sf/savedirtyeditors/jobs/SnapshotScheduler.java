@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.jobs;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.sf.savedirtyeditors.ISnapshotEnvironment;
+import net.sf.savedirtyeditors.PluginActivator;
+import net.sf.savedirtyeditors.PluginConstants;
+import net.sf.savedirtyeditors.actions.SaveSnapshotAction;
+import net.sf.savedirtyeditors.store.ISnapshotStore;
+import net.sf.savedirtyeditors.store.SnapshotWriteQueue;
+import net.sf.savedirtyeditors.utils.DocumentEncoder;
+import net.sf.savedirtyeditors.utils.Messages;
+import net.sf.savedirtyeditors.utils.ResourceUtils;
+import net.sf.savedirtyeditors.utils.SnapshotMetrics;
+
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.MultiRule;
+import org.eclipse.ui.IEditorPart;
+
+/**
+ * The single {@link Job} that takes the snapshots for all the editors being monitored. Each {@link SaveSnapshotJob}
+ * registers itself here when its editor is opened, and on every run all the editors whose snapshots are due are saved
+ * as one batch inside a single {@link IWorkspaceRunnable} (see {@link ISnapshotStore#run}) - so that at most one
+ * resource change notification goes out per run, no matter how many editors are open. The batch only holds the rules
+ * for the snapshots of the editors in it (see {@link SaveSnapshotAction#getSchedulingRule()}) rather than the
+ * workspace root - and the snapshots are only encoded in the batch, and written afterwards by the
+ * {@link SnapshotWriteQueue}, which holds up the next batch once it falls too far behind. The jobs are kept in a
+ * {@link ConcurrentHashMap} keyed on their editors, so that the part listeners can look up the job of an editor (see
+ * {@link #find(IEditorPart)}) from the UI thread without locking, scanning or allocating anything. Whatever the
+ * scheduler and its jobs need from the workbench (the clock, the preferences, the stores) comes from its
+ * {@link ISnapshotEnvironment}. This belongs to the Job family defined by {@link PluginConstants#JOB_FAMILY_NAME}.
+ */
+public final class SnapshotScheduler extends Job {
+    /**
+     * Used to denote that the scheduler is not waiting to run.
+     */
+    private static final long NOT_SCHEDULED = Long.MAX_VALUE;
+
+    /**
+     * The time (in millis) that a flush waits for, so that a burst of requests (for eg, the user alt-tabbing back and
+     * forth) is merged into one.
+     */
+    private static final long FLUSH_DELAY = 500;
+
+    /**
+     * The time (in millis) that a flush may take - the snapshots that are not taken by then are left to the next run.
+     */
+    private static final long FLUSH_TIMEOUT = 2000;
+
+    private final ISnapshotEnvironment environment;
+
+    /**
+     * Only ever used from within {@link #run(IProgressMonitor)} - so it can be shared by all the snapshots.
+     */
+    private final DocumentEncoder encoder = new DocumentEncoder();
+
+    /**
+     * NOTE: editor parts do not override {@link Object#equals(Object)} - so this is an identity map in practice.
+     */
+    private final ConcurrentMap<IEditorPart, SaveSnapshotJob> jobs =
+            new ConcurrentHashMap<IEditorPart, SaveSnapshotJob>();
+    private long nextRunTime = NOT_SCHEDULED;
+    private boolean flushRequested = false;
+
+    /**
+     * Constructor for SnapshotScheduler.
+     * 
+     * @param environment
+     *            The non-null {@link ISnapshotEnvironment} that the snapshots are taken in
+     */
+    public SnapshotScheduler(final ISnapshotEnvironment environment) {
+        super(Messages.getString("SnapshotScheduler.name")); //$NON-NLS-1$
+        this.environment = environment;
+        setSystem(true);
+        setPriority(SHORT);
+    }
+
+    /**
+     * @return The {@link ISnapshotEnvironment} that the snapshots are taken in
+     */
+    public ISnapshotEnvironment getEnvironment() {
+        return environment;
+    }
+
+    /**
+     * Returns true if family is the same as defined by {@link PluginConstants#JOB_FAMILY_NAME}
+     * 
+     * @see Job#belongsTo(Object)
+     */
+    @Override
+    public boolean belongsTo(final Object family) {
+        return PluginConstants.JOB_FAMILY_NAME.equals(family);
+    }
+
+    /**
+     * Starts monitoring the editor of the specified {@link SaveSnapshotJob}.
+     * 
+     * @param job
+     *            The non-null {@link SaveSnapshotJob} to be added
+     */
+    public void add(final SaveSnapshotJob job) {
+        jobs.put(job.getEditorPart(), job);
+    }
+
+    /**
+     * Stops monitoring the editor of the specified {@link SaveSnapshotJob}.
+     * 
+     * @param job
+     *            The {@link SaveSnapshotJob} to be removed
+     */
+    public void remove(final SaveSnapshotJob job) {
+        // only if it is still the one registered for its editor
+        jobs.remove(job.getEditorPart(), job);
+    }
+
+    /**
+     * Finds the {@link SaveSnapshotJob} that was created for the specified {@link IEditorPart}.
+     * 
+     * @param editorPart
+     *            The IEditorPart whose job has to be found
+     * @return The SaveSnapshotJob for the <code>editorPart</code>; or <code>null</code> if it is not being monitored
+     */
+    public SaveSnapshotJob find(final IEditorPart editorPart) {
+        return jobs.get(editorPart);
+    }
+
+    /**
+     * Makes the snapshot of the specified {@link SaveSnapshotJob} due right away (for eg, when the user leaves its
+     * editor), and makes sure that the scheduler runs as soon as possible. Nothing is done if its editor is not dirty -
+     * so that the first edit after this still waits for the quiet period.
+     * 
+     * @param job
+     *            The non-null {@link SaveSnapshotJob} whose snapshot has to be taken
+     */
+    public synchronized void snapshotSoon(final SaveSnapshotJob job) {
+        if (job.isPending()) {
+            job.snapshotSoon();
+            scheduleAt(environment.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Makes sure that the scheduler runs by the time the snapshot of the specified {@link SaveSnapshotJob} is due (for
+     * eg, when its editor was just edited after a snapshot).
+     * 
+     * @param job
+     *            The non-null {@link SaveSnapshotJob} whose next snapshot time has changed
+     */
+    public synchronized void reschedule(final SaveSnapshotJob job) {
+        if (job.isPending()) {
+            scheduleAt(job.getNextSnapshotTime());
+        }
+    }
+
+    /**
+     * Takes the snapshots of the dirty editors that have changed since their last snapshot, even though their
+     * scheduled times might not have arrived - as a single batch, shortly after. The requests made until then are
+     * merged into the same flush, and the editors that did not change are left alone.
+     */
+    public synchronized void flush() {
+        if (flushRequested) {
+            return;
+        }
+        flushRequested = true;
+        scheduleAt(environment.currentTimeMillis() + FLUSH_DELAY);
+    }
+
+    /**
+     * @see Job#run(IProgressMonitor)
+     */
+    @Override
+    protected IStatus run(final IProgressMonitor monitor) {
+        final boolean flush;
+        synchronized (this) {
+            nextRunTime = NOT_SCHEDULED;
+            flush = flushRequested;
+            flushRequested = false;
+        }
+        // if the system is shutting down, don't build
+        if (environment.isStopping()) {
+            return Status.OK_STATUS;
+        }
+
+        final long now = environment.currentTimeMillis();
+        final SaveSnapshotJob[] dueJobs = getDueJobs(now, flush);
+        if (dueJobs.length > 0) {
+            if (PluginActivator.isTracing(PluginConstants.TRACE_JOBS)) {
+                PluginActivator.trace(PluginConstants.TRACE_JOBS, Messages.getString("SnapshotScheduler.batch") //$NON-NLS-1$
+                        + dueJobs.length);
+            }
+            final long deadline = flush ? now + FLUSH_TIMEOUT : NOT_SCHEDULED;
+
+            // the whole batch goes into the same store - even if the user changes the preference in between
+            final ISnapshotStore store = environment.getSnapshotStore();
+            final SnapshotWriteQueue writeQueue = environment.getSnapshotWriteQueue();
+            final SaveSnapshotAction[] actions = new SaveSnapshotAction[dueJobs.length];
+            ISchedulingRule rule = null;
+            for (int i = 0; i < dueJobs.length; i++) {
+                actions[i] = dueJobs[i].createSnapshotAction(store, encoder, writeQueue);
+                rule = MultiRule.combine(rule, actions[i].getSchedulingRule());
+            }
+
+            try {
+                final long start = System.nanoTime();
+                store.run(new IWorkspaceRunnable() {
+                    public void run(final IProgressMonitor progressMonitor) {
+                        SnapshotMetrics.record(SnapshotMetrics.RULE_WAIT, start);
+                        for (int i = 0; i < actions.length; i++) {
+                            if (environment.currentTimeMillis() > deadline) {
+                                deferJobs(dueJobs, i);
+                                return;
+                            }
+                            ResourceUtils.run(actions[i]);
+                        }
+                    }
+                }, rule, monitor);
+            } catch (final CoreException exc) {
+                PluginActivator.logError(exc);
+            }
+            // only once the rules are released - since the writer needs them
+            writeQueue.drain();
+        }
+        scheduleNext();
+        return Status.OK_STATUS;
+    }
+
+    /**
+     * Makes the snapshots of the jobs (starting from <code>start</code>) that were not taken due again right away.
+     */
+    private void deferJobs(final SaveSnapshotJob[] dueJobs, final int start) {
+        if (PluginActivator.isTracing(PluginConstants.TRACE_JOBS)) {
+            PluginActivator.trace(PluginConstants.TRACE_JOBS, Messages.getString("SnapshotScheduler.deferred") //$NON-NLS-1$
+                    + (dueJobs.length - start));
+        }
+        for (int i = start; i < dueJobs.length; i++) {
+            dueJobs[i].snapshotSoon();
+        }
+    }
+
+    private synchronized SaveSnapshotJob[] getDueJobs(final long now, final boolean flush) {
+        final List<SaveSnapshotJob> dueJobs = new ArrayList<SaveSnapshotJob>();
+        for (final Iterator<SaveSnapshotJob> iter = jobs.values().iterator(); iter.hasNext();) {
+            final SaveSnapshotJob job = iter.next();
+            if (job.isDue(now) || (flush && job.isFlushNeeded())) {
+                job.snapshotStarted(now);
+                dueJobs.add(job);
+            }
+        }
+        return dueJobs.toArray(new SaveSnapshotJob[dueJobs.size()]);
+    }
+
+    private synchronized void scheduleNext() {
+        long next = NOT_SCHEDULED;
+        for (final Iterator<SaveSnapshotJob> iter = jobs.values().iterator(); iter.hasNext();) {
+            final SaveSnapshotJob job = iter.next();
+            if (job.isPending()) {
+                next = Math.min(next, job.getNextSnapshotTime());
+            }
+        }
+        // if none of the dirty editors were edited since their snapshots, there is nothing to do until one of them is
+        if (next != NOT_SCHEDULED) {
+            scheduleAt(next);
+        }
+    }
+
+    private void scheduleAt(final long time) {
+        // only ever move the next run forward - a later run would be covered by the earlier one anyway
+        if (time >= nextRunTime) {
+            return;
+        }
+        nextRunTime = time;
+        final long delay = Math.max(0, time - environment.currentTimeMillis());
+        if ((getState() == WAITING) || (getState() == SLEEPING)) {
+            // a waiting job ignores schedule() - so put it back to sleep and wake it up with the new delay
+            sleep();
+            wakeUp(delay);
+        } else {
+            // if the job is running right now, this reschedules it once it is done
+            schedule(delay);
+        }
+    }
+}
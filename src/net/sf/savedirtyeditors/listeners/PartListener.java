@@ -13,8 +13,8 @@ package net.sf.savedirtyeditors.listeners;
 import net.sf.savedirtyeditors.PluginActivator;
 import net.sf.savedirtyeditors.PluginConstants;
 import net.sf.savedirtyeditors.jobs.SaveSnapshotJob;
+import net.sf.savedirtyeditors.jobs.SnapshotScheduler;
 import net.sf.savedirtyeditors.utils.Messages;
-import net.sf.savedirtyeditors.utils.ResourceUtils;
 
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.ui.IEditorPart;
@@ -26,6 +26,19 @@ import org.eclipse.ui.IWorkbenchPart;
  * {@link IEditorPart} that was opened/closed.
  */
 public final class PartListener implements IPartListener {
+    private final SnapshotScheduler scheduler;
+
+    /**
+     * Constructor for PartListener.
+     * 
+     * @param scheduler
+     *            The non-null {@link SnapshotScheduler} that takes the snapshots of the editors
+     */
+    public PartListener(final SnapshotScheduler scheduler) {
+        super();
+        this.scheduler = scheduler;
+    }
+
     /**
      * If the {@link IWorkbenchPart} passed in is an instance of {@link IEditorPart}, then it creates a new instance of
      * {@link SaveSnapshotJob} for that specific {@link IEditorPart}
@@ -40,10 +53,13 @@ public final class PartListener implements IPartListener {
             return;
         }
 
-        PluginActivator.logDebug(Messages.getString("PartListener.part.monitoring")); //$NON-NLS-1$
+        if (PluginActivator.isTracing(PluginConstants.TRACE_LISTENERS)) {
+            PluginActivator.trace(PluginConstants.TRACE_LISTENERS, Messages
+                    .getString("PartListener.part.monitoring")); //$NON-NLS-1$
+        }
 
         // create a scheduled job which will in turn call the save action at specified time intervals
-        new SaveSnapshotJob((IEditorPart) part);
+        new SaveSnapshotJob((IEditorPart) part, scheduler);
     }
 
     /**
@@ -55,65 +71,53 @@ public final class PartListener implements IPartListener {
      * @see IPartListener#partClosed(IWorkbenchPart)
      */
     public void partClosed(final IWorkbenchPart part) {
-        // if the part is not an EditorPart - just quit
-        if (!canProcess(part)) {
+        // if the editor is not being monitored - just quit
+        final SaveSnapshotJob job = findJobFor(part);
+        if (job == null) {
             return;
         }
 
-        PluginActivator.logDebug(Messages.getString("PartListener.part.unmonitoring")); //$NON-NLS-1$
+        if (PluginActivator.isTracing(PluginConstants.TRACE_LISTENERS)) {
+            PluginActivator.trace(PluginConstants.TRACE_LISTENERS, Messages
+                    .getString("PartListener.part.unmonitoring")); //$NON-NLS-1$
+        }
 
         // Remove job
-        final SaveSnapshotJob job = findJobFor((IEditorPart) part);
-        if (job != null) {
-            job.complete();
-        }
+        job.complete();
     }
 
     /**
-     * If the {@link IWorkbenchPart} passed in is an instance of {@link IEditorPart}, then it finds the specific
-     * {@link Job} associated with that {@link IEditorPart} and wakes it up.
+     * Dummy implementation since the {@link SnapshotScheduler} takes care of the editors while they are active.
      * 
-     * @param part
-     *            The {@link IWorkbenchPart} that was activated
      * @see IPartListener#partActivated(IWorkbenchPart)
      */
     public void partActivated(final IWorkbenchPart part) {
-        // NOTE: IF performance is an issue - we could put the job to sleep/wake cycles
-        // if the part is not an EditorPart - just quit
-        if (!canProcess(part)) {
-            return;
-        }
-
-        PluginActivator.logDebug(Messages.getString("PartListener.part.monitoring")); //$NON-NLS-1$
-
-        // Remove job
-        final SaveSnapshotJob job = findJobFor((IEditorPart) part);
-        if (job != null) {
-            job.wakeUp();
-        }
     }
 
     /**
      * If the {@link IWorkbenchPart} passed in is an instance of {@link IEditorPart}, then it finds the specific
-     * {@link Job} associated with that {@link IEditorPart} and put it to sleep.
+     * {@link Job} associated with that {@link IEditorPart} and asks the {@link SnapshotScheduler} to take its snapshot
+     * right away - since the user is done editing it for now. Nothing is done if the editor has not changed since its
+     * last snapshot, so that switching between editors does not wake up the scheduler.
      * 
      * @param part
      *            The {@link IWorkbenchPart} that was deactivated
      * @see IPartListener#partDeactivated(IWorkbenchPart)
      */
     public void partDeactivated(final IWorkbenchPart part) {
-        // NOTE: IF performance is an issue - we could put the job to sleep/wake cycles
-        // if the part is not an EditorPart - just quit
-        if (!canProcess(part)) {
+        // if the editor is not being monitored - just quit
+        final SaveSnapshotJob job = findJobFor(part);
+        if (job == null) {
             return;
         }
 
-        PluginActivator.logDebug(Messages.getString("PartListener.part.unmonitoring")); //$NON-NLS-1$
+        if (PluginActivator.isTracing(PluginConstants.TRACE_LISTENERS)) {
+            PluginActivator.trace(PluginConstants.TRACE_LISTENERS, Messages
+                    .getString("PartListener.part.unmonitoring")); //$NON-NLS-1$
+        }
 
-        // Remove job
-        final SaveSnapshotJob job = findJobFor((IEditorPart) part);
-        if (job != null) {
-            job.sleep();
+        if (job.isFlushNeeded()) {
+            getScheduler().snapshotSoon(job);
         }
     }
 
@@ -125,18 +129,22 @@ public final class PartListener implements IPartListener {
     public void partBroughtToTop(final IWorkbenchPart part) {
     }
 
-    private SaveSnapshotJob findJobFor(final IEditorPart part) {
-        final Job[] jobs = Job.getJobManager().find(PluginConstants.JOB_FAMILY_NAME);
-        for (int i = 0; i < jobs.length; i++) {
-            final SaveSnapshotJob job = (SaveSnapshotJob) jobs[i];
-            if (job.isForInput(part)) {
-                return job;
-            }
+    /**
+     * Looks up the job of the part - which only ever exists for an editor on a file (see {@link #canProcess}), so
+     * the file need not be looked up again on every activation, deactivation or close.
+     */
+    private SaveSnapshotJob findJobFor(final IWorkbenchPart part) {
+        if (!(part instanceof IEditorPart)) {
+            return null;
         }
-        return null;
+        return getScheduler().find((IEditorPart) part);
+    }
+
+    private SnapshotScheduler getScheduler() {
+        return scheduler;
     }
 
     private boolean canProcess(final IWorkbenchPart part) {
-        return (part instanceof IEditorPart) && (ResourceUtils.getFile((IEditorPart) part) != null);
+        return (part instanceof IEditorPart) && (scheduler.getEnvironment().getFile((IEditorPart) part) != null);
     }
 }
\ No newline at end of file
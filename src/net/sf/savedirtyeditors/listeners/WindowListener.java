@@ -12,9 +12,9 @@ package net.sf.savedirtyeditors.listeners;
 
 import net.sf.savedirtyeditors.PluginActivator;
 import net.sf.savedirtyeditors.PluginConstants;
+import net.sf.savedirtyeditors.jobs.SnapshotScheduler;
 import net.sf.savedirtyeditors.utils.Messages;
 
-import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.ui.IPartListener;
 import org.eclipse.ui.IPartService;
 import org.eclipse.ui.IWindowListener;
@@ -23,14 +23,27 @@ import org.eclipse.ui.IWorkbenchWindow;
 /**
  * An implementation of {@link IWindowListener} that is used to
  * <ul>
- * <li>wake up all {@link Job}s pertaining to this plugin's family and perform their respective operations even though
- * their scheduled times might not have arrived.</li>
+ * <li>ask the {@link SnapshotScheduler} to take the snapshots of the changed dirty editors even though their scheduled
+ * times might not have arrived.</li>
  * <li>listen to new {@link IWorkbenchWindow}s being opened or closed and add {@link IPartListener} to their respective
  * {@link IPartService}s
  * </ul>
  */
 public final class WindowListener implements IWindowListener {
-    private final PartListener partListener = new PartListener();
+    private final SnapshotScheduler scheduler;
+    private final PartListener partListener;
+
+    /**
+     * Constructor for WindowListener.
+     * 
+     * @param scheduler
+     *            The non-null {@link SnapshotScheduler} that takes the snapshots of the editors
+     */
+    public WindowListener(final SnapshotScheduler scheduler) {
+        super();
+        this.scheduler = scheduler;
+        this.partListener = new PartListener(scheduler);
+    }
 
     /**
      * When a new {@link IWorkbenchWindow} is opened, adds the {@link IPartListener} to the {@link IPartService} of that
@@ -40,7 +53,10 @@ public final class WindowListener implements IWindowListener {
      *            The {@link IWorkbenchWindow} that was opened
      */
     public void windowOpened(final IWorkbenchWindow window) {
-        PluginActivator.logDebug(Messages.getString("WindowListener.window.monitoring")); //$NON-NLS-1$
+        if (PluginActivator.isTracing(PluginConstants.TRACE_LISTENERS)) {
+            PluginActivator.trace(PluginConstants.TRACE_LISTENERS, Messages
+                    .getString("WindowListener.window.monitoring")); //$NON-NLS-1$
+        }
         window.getPartService().addPartListener(partListener);
     }
 
@@ -52,25 +68,21 @@ public final class WindowListener implements IWindowListener {
      *            The {@link IWorkbenchWindow} that was closed
      */
     public void windowClosed(final IWorkbenchWindow window) {
-        PluginActivator.logDebug(Messages.getString("WindowListener.window.unmonitoring")); //$NON-NLS-1$
+        if (PluginActivator.isTracing(PluginConstants.TRACE_LISTENERS)) {
+            PluginActivator.trace(PluginConstants.TRACE_LISTENERS, Messages
+                    .getString("WindowListener.window.unmonitoring")); //$NON-NLS-1$
+        }
         window.getPartService().removePartListener(partListener);
     }
 
     /**
-     * When the window is deactivated, finds any jobs created by this plugin and "wakes" them forcing them to perform
-     * whatever their operation is outside of their scheduled time.
+     * When the window is deactivated, asks the {@link SnapshotScheduler} to flush the snapshots of the dirty editors
+     * that changed since their last snapshot (see {@link SnapshotScheduler#flush()}).
      * 
      * @see IWindowListener#windowDeactivated(IWorkbenchWindow)
      */
     public void windowDeactivated(final IWorkbenchWindow window) {
-        window.getShell().getDisplay().asyncExec(new Runnable() {
-            public void run() {
-                final Job[] jobs = Job.getJobManager().find(PluginConstants.JOB_FAMILY_NAME);
-                for (int i = 0; i < jobs.length; i++) {
-                    jobs[i].wakeUp();
-                }
-            }
-        });
+        scheduler.flush();
     }
 
     /**
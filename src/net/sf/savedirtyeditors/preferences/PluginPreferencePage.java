@@ -14,6 +14,7 @@ import net.sf.savedirtyeditors.PluginActivator;
 import net.sf.savedirtyeditors.PluginConstants;
 import net.sf.savedirtyeditors.utils.Messages;
 
+import org.eclipse.jface.preference.BooleanFieldEditor;
 import org.eclipse.jface.preference.FieldEditor;
 import org.eclipse.jface.preference.IntegerFieldEditor;
 import org.eclipse.jface.preference.PreferencePage;
@@ -30,9 +31,18 @@ import org.eclipse.ui.IWorkbenchPreferencePage;
  * A simple implementation of {@link PreferencePage} for setting user-editable values for this plugin.
  */
 public class PluginPreferencePage extends PreferencePage implements IWorkbenchPreferencePage {
+    private FieldEditor snapshotInWorkspace;
     private FieldEditor snapshotNamePrefix;
     private FieldEditor snapshotNameSuffix;
+    private FieldEditor snapshotNameFilters;
+    private FieldEditor journalEnabled;
+    private FieldEditor fsyncInterval;
+    private FieldEditor compressionEnabled;
+    private FieldEditor historySize;
+    private FieldEditor historyMaxAge;
+    private FieldEditor historyMaxSize;
     private FieldEditor rescheduleDelay;
+    private FieldEditor quietPeriod;
 
     /**
      * @see PreferencePage#createContents(Composite)
@@ -43,16 +53,38 @@ public class PluginPreferencePage extends PreferencePage implements IWorkbenchPr
 
         Composite spacingComposite = SWTHelper.createGroupComposite(composite, 2, Messages
                 .getString("snapshot.file.group")); //$NON-NLS-1$
+        snapshotInWorkspace = createBooleanFieldEditor(spacingComposite, PluginConstants.KEY_SNAPSHOT_IN_WORKSPACE,
+                PluginConstants.LABEL_SNAPSHOT_IN_WORKSPACE);
         snapshotNamePrefix = createStringFieldEditor(spacingComposite, PluginConstants.KEY_SNAPSHOT_NAME_PREFIX,
                 PluginConstants.LABEL_SNAPSHOT_NAME_PREFIX);
         snapshotNameSuffix = createStringFieldEditor(spacingComposite, PluginConstants.KEY_SNAPSHOT_NAME_SUFFIX,
                 PluginConstants.LABEL_SNAPSHOT_NAME_SUFFIX);
+        snapshotNameFilters = createStringFieldEditor(spacingComposite, PluginConstants.KEY_SNAPSHOT_NAME_FILTERS,
+                PluginConstants.LABEL_SNAPSHOT_NAME_FILTERS);
+        journalEnabled = createBooleanFieldEditor(spacingComposite, PluginConstants.KEY_JOURNAL_ENABLED,
+                PluginConstants.LABEL_JOURNAL_ENABLED);
+        fsyncInterval = createIntegerFieldEditor(spacingComposite, PluginConstants.KEY_FSYNC_INTERVAL,
+                PluginConstants.LABEL_FSYNC_INTERVAL, 0, "snapshot.fsync.interval.invalid"); //$NON-NLS-1$
+        compressionEnabled = createBooleanFieldEditor(spacingComposite, PluginConstants.KEY_COMPRESSION_ENABLED,
+                PluginConstants.LABEL_COMPRESSION_ENABLED);
+
+        SWTHelper.createSpacer(composite, 2);
+
+        spacingComposite = SWTHelper.createGroupComposite(composite, 2, Messages.getString("history.group")); //$NON-NLS-1$
+        historySize = createIntegerFieldEditor(spacingComposite, PluginConstants.KEY_HISTORY_SIZE,
+                PluginConstants.LABEL_HISTORY_SIZE, 0, "snapshot.history.size.invalid"); //$NON-NLS-1$
+        historyMaxAge = createIntegerFieldEditor(spacingComposite, PluginConstants.KEY_HISTORY_MAX_AGE,
+                PluginConstants.LABEL_HISTORY_MAX_AGE, 1, "snapshot.history.max.age.invalid"); //$NON-NLS-1$
+        historyMaxSize = createIntegerFieldEditor(spacingComposite, PluginConstants.KEY_HISTORY_MAX_SIZE,
+                PluginConstants.LABEL_HISTORY_MAX_SIZE, 1, "snapshot.history.max.size.invalid"); //$NON-NLS-1$
 
         SWTHelper.createSpacer(composite, 2);
 
         spacingComposite = SWTHelper.createGroupComposite(composite, 2, Messages.getString("reschedule.group")); //$NON-NLS-1$
         rescheduleDelay = createIntegerFieldEditor(spacingComposite, PluginConstants.KEY_RESCHEDULE_DELAY,
-                PluginConstants.LABEL_RESCHEDULE_DELAY);
+                PluginConstants.LABEL_RESCHEDULE_DELAY, 5000, "reschedule.delay.invalid"); //$NON-NLS-1$
+        quietPeriod = createIntegerFieldEditor(spacingComposite, PluginConstants.KEY_QUIET_PERIOD,
+                PluginConstants.LABEL_QUIET_PERIOD, 100, "reschedule.quiet.period.invalid"); //$NON-NLS-1$
 
         applyDialogFont(composite);
 
@@ -66,9 +98,18 @@ public class PluginPreferencePage extends PreferencePage implements IWorkbenchPr
      */
     @Override
     protected void performDefaults() {
+        snapshotInWorkspace.loadDefault();
         snapshotNamePrefix.loadDefault();
         snapshotNameSuffix.loadDefault();
+        snapshotNameFilters.loadDefault();
+        journalEnabled.loadDefault();
+        fsyncInterval.loadDefault();
+        compressionEnabled.loadDefault();
+        historySize.loadDefault();
+        historyMaxAge.loadDefault();
+        historyMaxSize.loadDefault();
         rescheduleDelay.loadDefault();
+        quietPeriod.loadDefault();
         super.performDefaults();
     }
 
@@ -79,9 +120,18 @@ public class PluginPreferencePage extends PreferencePage implements IWorkbenchPr
      */
     @Override
     public boolean performOk() {
+        snapshotInWorkspace.store();
         snapshotNamePrefix.store();
         snapshotNameSuffix.store();
+        snapshotNameFilters.store();
+        journalEnabled.store();
+        fsyncInterval.store();
+        compressionEnabled.store();
+        historySize.store();
+        historyMaxAge.store();
+        historyMaxSize.store();
         rescheduleDelay.store();
+        quietPeriod.store();
         updateApplyButton();
         return super.performOk();
     }
@@ -95,13 +145,21 @@ public class PluginPreferencePage extends PreferencePage implements IWorkbenchPr
         return editor;
     }
 
-    private FieldEditor createIntegerFieldEditor(final Composite spacingComposite, final String preferenceKey,
+    private FieldEditor createBooleanFieldEditor(final Composite spacingComposite, final String preferenceKey,
             final String labelText) {
+        final FieldEditor editor = new BooleanFieldEditor(preferenceKey, labelText, spacingComposite);
+        editor.setPreferenceStore(PluginActivator.getDefault().getPreferenceStore());
+        editor.setPage(this);
+        editor.load();
+        return editor;
+    }
+
+    private FieldEditor createIntegerFieldEditor(final Composite spacingComposite, final String preferenceKey,
+            final String labelText, final int minValue, final String invalidKey) {
         final IntegerFieldEditor editor = new IntegerFieldEditor(preferenceKey, labelText, spacingComposite);
         editor.setPreferenceStore(PluginActivator.getDefault().getPreferenceStore());
-        editor.setValidRange(5000, Integer.MAX_VALUE);
-        editor.setErrorMessage(editor.getErrorMessage()
-                + Messages.getString("reschedule.delay.invalid") + Integer.MAX_VALUE); //$NON-NLS-1$
+        editor.setValidRange(minValue, Integer.MAX_VALUE);
+        editor.setErrorMessage(editor.getErrorMessage() + Messages.getString(invalidKey) + Integer.MAX_VALUE);
         editor.setPage(this);
         editor.load();
         return editor;
@@ -136,6 +194,10 @@ public class PluginPreferencePage extends PreferencePage implements IWorkbenchPr
      */
     @Override
     public void dispose() {
+        if (snapshotInWorkspace != null) {
+            snapshotInWorkspace.dispose();
+            snapshotInWorkspace = null;
+        }
         if (snapshotNamePrefix != null) {
             snapshotNamePrefix.dispose();
             snapshotNamePrefix = null;
@@ -144,10 +206,42 @@ public class PluginPreferencePage extends PreferencePage implements IWorkbenchPr
             snapshotNameSuffix.dispose();
             snapshotNameSuffix = null;
         }
+        if (snapshotNameFilters != null) {
+            snapshotNameFilters.dispose();
+            snapshotNameFilters = null;
+        }
+        if (journalEnabled != null) {
+            journalEnabled.dispose();
+            journalEnabled = null;
+        }
+        if (fsyncInterval != null) {
+            fsyncInterval.dispose();
+            fsyncInterval = null;
+        }
+        if (compressionEnabled != null) {
+            compressionEnabled.dispose();
+            compressionEnabled = null;
+        }
+        if (historySize != null) {
+            historySize.dispose();
+            historySize = null;
+        }
+        if (historyMaxAge != null) {
+            historyMaxAge.dispose();
+            historyMaxAge = null;
+        }
+        if (historyMaxSize != null) {
+            historyMaxSize.dispose();
+            historyMaxSize = null;
+        }
         if (rescheduleDelay != null) {
             rescheduleDelay.dispose();
             rescheduleDelay = null;
         }
+        if (quietPeriod != null) {
+            quietPeriod.dispose();
+            quietPeriod = null;
+        }
 
         super.dispose();
     }
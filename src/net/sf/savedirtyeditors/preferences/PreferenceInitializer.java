@@ -29,9 +29,28 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer {
 
         // auto-snapshot default
         node.putLong(PluginConstants.KEY_RESCHEDULE_DELAY, PluginConstants.DEFAULT_RESCHEDULE_DELAY);
+        node.putLong(PluginConstants.KEY_QUIET_PERIOD, PluginConstants.DEFAULT_QUIET_PERIOD);
 
         // snapshot file name
         node.put(PluginConstants.KEY_SNAPSHOT_NAME_PREFIX, PluginConstants.DEFAULT_SNAPSHOT_NAME_PREFIX);
         node.put(PluginConstants.KEY_SNAPSHOT_NAME_SUFFIX, PluginConstants.DEFAULT_SNAPSHOT_NAME_SUFFIX);
+        node.put(PluginConstants.KEY_SNAPSHOT_NAME_FILTERS, PluginConstants.DEFAULT_SNAPSHOT_NAME_FILTERS);
+
+        // snapshot store
+        node.putBoolean(PluginConstants.KEY_SNAPSHOT_IN_WORKSPACE, PluginConstants.DEFAULT_SNAPSHOT_IN_WORKSPACE);
+
+        // durability of the snapshot writes
+        node.putLong(PluginConstants.KEY_FSYNC_INTERVAL, PluginConstants.DEFAULT_FSYNC_INTERVAL);
+
+        // snapshot format
+        node.putBoolean(PluginConstants.KEY_COMPRESSION_ENABLED, PluginConstants.DEFAULT_COMPRESSION_ENABLED);
+
+        // snapshot history
+        node.putLong(PluginConstants.KEY_HISTORY_SIZE, PluginConstants.DEFAULT_HISTORY_SIZE);
+        node.putLong(PluginConstants.KEY_HISTORY_MAX_AGE, PluginConstants.DEFAULT_HISTORY_MAX_AGE);
+        node.putLong(PluginConstants.KEY_HISTORY_MAX_SIZE, PluginConstants.DEFAULT_HISTORY_MAX_SIZE);
+
+        // edit journal
+        node.putBoolean(PluginConstants.KEY_JOURNAL_ENABLED, PluginConstants.DEFAULT_JOURNAL_ENABLED);
     }
 }
\ No newline at end of file
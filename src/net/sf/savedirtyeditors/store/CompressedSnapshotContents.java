@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.store;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Compresses the {@link ISnapshotContents} it wraps on the fly. The compressed snapshot starts with a small header,
+ * followed by the deflated contents:
+ * <ul>
+ * <li>the {@link #MAGIC} bytes</li>
+ * <li>the format version (1 byte)</li>
+ * <li>the codec (1 byte - {@link #CODEC_DEFLATE})</li>
+ * <li>the charset the contents were encoded with (as written by {@link DataOutputStream#writeUTF(String)})</li>
+ * <li>the length of the original contents in characters (8 bytes)</li>
+ * </ul>
+ * An uncompressed snapshot has no header at all, so {@link SnapshotInputStream} can read both.
+ */
+public final class CompressedSnapshotContents implements ISnapshotContents {
+    /**
+     * The bytes that a compressed snapshot starts with - "SDE" followed by a control character that is unlikely to
+     * start a text file.
+     */
+    static final byte[] MAGIC = new byte[] { 'S', 'D', 'E', 0x1A };
+
+    /**
+     * The version of the header.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The codec for contents compressed by a {@link Deflater}.
+     */
+    static final int CODEC_DEFLATE = 1;
+
+    /**
+     * The size of the buffer used by the {@link DeflaterOutputStream}.
+     */
+    private static final int BUFFER_SIZE = 16384;
+
+    private final ISnapshotContents contents;
+    private final String charset;
+    private final long length;
+
+    /**
+     * Constructor for CompressedSnapshotContents.
+     * 
+     * @param contents
+     *            The contents to be compressed
+     * @param charset
+     *            The name of the charset the contents are encoded with
+     * @param length
+     *            The length of the contents in characters
+     */
+    public CompressedSnapshotContents(final ISnapshotContents contents, final String charset, final long length) {
+        super();
+        this.contents = contents;
+        this.charset = charset;
+        this.length = length;
+    }
+
+    /**
+     * @see ISnapshotContents#writeTo(WritableByteChannel)
+     */
+    public boolean writeTo(final WritableByteChannel channel) throws IOException {
+        // NOTE: the streams are not closed, since that would close the channel as well - which belongs to the caller
+        final OutputStream outputStream = Channels.newOutputStream(channel);
+        final DataOutputStream header = new DataOutputStream(outputStream);
+        header.write(MAGIC);
+        header.writeByte(VERSION);
+        header.writeByte(CODEC_DEFLATE);
+        header.writeUTF(charset);
+        header.writeLong(length);
+        header.flush();
+
+        // speed matters more than size here, since this runs every few seconds
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            final DeflaterOutputStream deflaterStream = new DeflaterOutputStream(outputStream, deflater, BUFFER_SIZE);
+            if (!contents.writeTo(Channels.newChannel(deflaterStream))) {
+                return false;
+            }
+            deflaterStream.finish();
+            deflaterStream.flush();
+            return true;
+        } finally {
+            // the native memory held by the deflater is not freed until it is finalized otherwise
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.store;
+
+import net.sf.savedirtyeditors.utils.SnapshotMetrics;
+
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.jface.text.ISynchronizable;
+
+/**
+ * Takes a consistent copy of the contents of a single {@link IDocument} from outside the UI thread (where the document
+ * is changed) in a short critical section - so that all the expensive work (encoding, compressing and writing) is done
+ * on the copy afterwards, without a torn read or holding up the user. If the document has a lock object (see
+ * {@link ISynchronizable}), the copy is made holding it, just like every change to the document. Otherwise the copy is
+ * made holding the lock of this listener, which every change goes through before it is applied - and no copy is made
+ * while a change is being applied. Either way the UI thread waits for one copy at the most, so only documents up to
+ * {@link #MAX_LENGTH} characters are copied, and the time spent copying is recorded as
+ * {@link SnapshotMetrics#COPY}.
+ */
+public final class DocumentCapture implements IDocumentListener {
+    /**
+     * The length (in characters) of the largest document copied - copying more could hold up typing noticeably. This
+     * also bounds the snapshots buffered by the {@link SnapshotWriteQueue}, since only the copies are buffered.
+     */
+    private static final int MAX_LENGTH = 1024 * 1024;
+
+    private final IDocument document;
+    private boolean changing = false;
+
+    /**
+     * Constructor for DocumentCapture.
+     * 
+     * @param document
+     *            The non-null {@link IDocument} to be copied
+     */
+    public DocumentCapture(final IDocument document) {
+        super();
+        this.document = document;
+    }
+
+    /**
+     * Starts keeping track of the changes being applied to the document.
+     */
+    public void connect() {
+        document.addDocumentListener(this);
+    }
+
+    /**
+     * Stops keeping track of the changes being applied to the document.
+     */
+    public void disconnect() {
+        document.removeDocumentListener(this);
+    }
+
+    /**
+     * @param length
+     *            The length of the document (in characters)
+     * @return True if the document is small enough to be copied by {@link #capture()}
+     */
+    public boolean accepts(final int length) {
+        return length <= MAX_LENGTH;
+    }
+
+    /**
+     * Takes a copy of the contents of the document.
+     * 
+     * @return The contents of the document; or <code>null</code> if a change is being applied right now, in which case
+     *         the caller should try again later
+     */
+    public String capture() {
+        final Object lock = getLockObject(document);
+        final long start = System.nanoTime();
+        final String contents;
+        if (lock != null) {
+            synchronized (lock) {
+                contents = document.get();
+            }
+        } else {
+            contents = captureUnlocked();
+        }
+        SnapshotMetrics.record(SnapshotMetrics.COPY, start);
+        return contents;
+    }
+
+    private synchronized String captureUnlocked() {
+        return changing ? null : document.get();
+    }
+
+    /**
+     * Marks the start of a change - which has to wait for a copy being made right now.
+     * 
+     * @see IDocumentListener#documentAboutToBeChanged(DocumentEvent)
+     */
+    public synchronized void documentAboutToBeChanged(final DocumentEvent event) {
+        changing = true;
+    }
+
+    /**
+     * @see IDocumentListener#documentChanged(DocumentEvent)
+     */
+    public synchronized void documentChanged(final DocumentEvent event) {
+        changing = false;
+    }
+
+    /**
+     * Returns the object that every change to the document is made holding - which has to be taken <b>before</b> the
+     * lock of any listener of the document, in the same order as the UI thread does, or the two can deadlock.
+     * 
+     * @param document
+     *            The document
+     * @return The lock object of the document; or <code>null</code> if it does not have one
+     */
+    static Object getLockObject(final IDocument document) {
+        return document instanceof ISynchronizable ? ((ISynchronizable) document).getLockObject() : null;
+    }
+}
@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.store;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The contents of a snapshot, written straight into the file of the snapshot by the {@link ISnapshotStore} - so that
+ * the (possibly huge) encoded contents never have to be held in memory as a whole.
+ */
+public interface ISnapshotContents {
+    /**
+     * Writes the encoded contents of the snapshot.
+     * 
+     * @param channel
+     *            The channel to write the contents to
+     * @return True if the contents were written; false if they turned out to be inconsistent (for eg, the document
+     *         was changed while being written) - in which case the store discards them
+     * @exception IOException
+     *                If the channel could not be written to
+     */
+    boolean writeTo(WritableByteChannel channel) throws IOException;
+}
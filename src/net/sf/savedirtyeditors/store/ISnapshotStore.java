@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.store;
+
+import java.io.InputStream;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+
+/**
+ * The place where the snapshot (and the edit journal, see {@link SnapshotJournal}) of an original {@link IFile} is
+ * kept. All the snapshot actions work against this interface, so that the snapshots can either be kept next to the
+ * original files ({@link WorkspaceSnapshotStore}) or outside of the workspace ({@link StateLocationSnapshotStore}).
+ */
+public interface ISnapshotStore {
+    /**
+     * Returns the rule that needs to be held while modifying the snapshot of the specified file.
+     * 
+     * @param original
+     *            The original file
+     * @return The scheduling rule to be held; or <code>null</code> if none is needed
+     */
+    ISchedulingRule getSchedulingRule(IFile original);
+
+    /**
+     * Runs a batch of snapshot operations while holding the specified rule - so that the store can group the changes
+     * together (for eg, into a single resource change notification).
+     * 
+     * @param runnable
+     *            The operations to be run
+     * @param rule
+     *            The rule to be held (as combined from {@link #getSchedulingRule(IFile)}); or <code>null</code>
+     * @param monitor
+     *            The progress monitor to use; or <code>null</code>
+     * @exception CoreException
+     *                If the operations could not be run
+     */
+    void run(IWorkspaceRunnable runnable, ISchedulingRule rule, IProgressMonitor monitor) throws CoreException;
+
+    /**
+     * Makes sure that snapshots created outside of this session (for eg, before Eclipse crashed) are visible to
+     * {@link #exists(IFile)} and {@link #journalExists(IFile)}.
+     * 
+     * @param original
+     *            The original file
+     * @exception CoreException
+     *                If the snapshot could not be refreshed
+     */
+    void refresh(IFile original) throws CoreException;
+
+    /**
+     * @param original
+     *            The original file
+     * @return True if there is a snapshot for the specified file
+     */
+    boolean exists(IFile original);
+
+    /**
+     * @param original
+     *            The original file
+     * @return True if there is an edit journal for the specified file
+     */
+    boolean journalExists(IFile original);
+
+    /**
+     * Opens the contents of the snapshot of the specified file - the caller is responsible for closing the stream.
+     * 
+     * @param original
+     *            The original file
+     * @return The contents of the snapshot
+     * @exception CoreException
+     *                If the snapshot does not exist or could not be read
+     */
+    InputStream getContents(IFile original) throws CoreException;
+
+    /**
+     * Opens the contents of the edit journal of the specified file - the caller is responsible for closing the stream.
+     * 
+     * @param original
+     *            The original file
+     * @return The contents of the edit journal
+     * @exception CoreException
+     *                If the journal does not exist or could not be read
+     */
+    InputStream getJournalContents(IFile original) throws CoreException;
+
+    /**
+     * Returns the versions of the snapshot of the specified file that are retained - the current snapshot (the one
+     * returned by {@link #getContents(IFile)}) followed by the older ones it replaced, newest first. A store that does
+     * not keep a history returns only the current snapshot.
+     * 
+     * @param original
+     *            The original file
+     * @return The retained versions, newest first; an empty array if there are none
+     */
+    ISnapshotVersion[] getVersions(IFile original);
+
+    /**
+     * Creates or overwrites the snapshot of the specified file.
+     * 
+     * @param original
+     *            The original file
+     * @param contents
+     *            The contents of the snapshot
+     * @return True if the snapshot was written; false if the contents turned out to be inconsistent (see
+     *         {@link ISnapshotContents#writeTo(java.nio.channels.WritableByteChannel)}) - in which case the old
+     *         snapshot is left as it was
+     * @exception CoreException
+     *                If the snapshot could not be written
+     */
+    boolean setContents(IFile original, ISnapshotContents contents) throws CoreException;
+
+    /**
+     * Appends records to the edit journal of the specified file, creating it if needed.
+     * 
+     * @param original
+     *            The original file
+     * @param records
+     *            The records to be appended
+     * @exception CoreException
+     *                If the journal could not be written
+     */
+    void appendJournal(IFile original, byte[] records) throws CoreException;
+
+    /**
+     * Deletes the edit journal of the specified file, if there is one.
+     * 
+     * @param original
+     *            The original file
+     * @exception CoreException
+     *                If the journal could not be deleted
+     */
+    void deleteJournal(IFile original) throws CoreException;
+
+    /**
+     * @return The {@link SnapshotManifest} of the snapshots in this store
+     */
+    SnapshotManifest getManifest();
+
+    /**
+     * Deletes the snapshot and the edit journal of the specified file, if there are any.
+     * 
+     * @param original
+     *            The original file
+     * @exception CoreException
+     *                If the snapshot could not be deleted
+     */
+    void delete(IFile original) throws CoreException;
+
+    /**
+     * Lets go of whatever the store listens to or caches - called when the plugin is stopped.
+     */
+    void dispose();
+}
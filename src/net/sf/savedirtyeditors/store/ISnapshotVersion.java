@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.store;
+
+import java.io.InputStream;
+
+import org.eclipse.core.runtime.CoreException;
+
+/**
+ * One of the versions of a snapshot retained by an {@link ISnapshotStore} (see
+ * {@link ISnapshotStore#getVersions(org.eclipse.core.resources.IFile)}).
+ */
+public interface ISnapshotVersion {
+    /**
+     * @return The time (in millis) when this version was written
+     */
+    long getTimeStamp();
+
+    /**
+     * @return The size of this version in bytes (as stored - ie, possibly compressed); or -1 if it is not known
+     */
+    long getSize();
+
+    /**
+     * Opens the contents of this version - the caller is responsible for closing the stream.
+     * 
+     * @return The contents of this version
+     * @exception CoreException
+     *                If this version does not exist anymore or could not be read
+     */
+    InputStream getContents() throws CoreException;
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The encoded contents of a snapshot held in memory - written into by the snapshot action (as a channel), and then
+ * written out by the {@link SnapshotWriteQueue} (as {@link ISnapshotContents}) without being copied again.
+ */
+public final class SnapshotBuffer implements ISnapshotContents, WritableByteChannel {
+    private byte[] bytes;
+    private int size = 0;
+
+    /**
+     * Constructor for SnapshotBuffer.
+     * 
+     * @param capacity
+     *            The number of bytes that the contents are expected to take - the buffer grows as needed anyway
+     */
+    public SnapshotBuffer(final int capacity) {
+        super();
+        this.bytes = new byte[Math.max(capacity, 1)];
+    }
+
+    /**
+     * @return The number of bytes written into the buffer
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @see WritableByteChannel#write(ByteBuffer)
+     */
+    public int write(final ByteBuffer src) {
+        final int count = src.remaining();
+        if (size + count > bytes.length) {
+            final byte[] grown = new byte[Math.max(size + count, bytes.length * 2)];
+            System.arraycopy(bytes, 0, grown, 0, size);
+            bytes = grown;
+        }
+        src.get(bytes, size, count);
+        size += count;
+        return count;
+    }
+
+    /**
+     * The buffer is always open - it can be written into until it is handed over to the queue.
+     * 
+     * @see WritableByteChannel#isOpen()
+     */
+    public boolean isOpen() {
+        return true;
+    }
+
+    /**
+     * @see WritableByteChannel#close()
+     */
+    public void close() {
+        // nothing to release
+    }
+
+    /**
+     * @see ISnapshotContents#writeTo(WritableByteChannel)
+     */
+    public boolean writeTo(final WritableByteChannel channel) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, size);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.store;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+
+/**
+ * Keeps track of the state of a single {@link IDocument} as of the last snapshot that was written for it, so that a
+ * snapshot can be skipped when nothing has changed since. The modification stamp ({@link IDocumentExtension4}) is used
+ * when the document provides one, and a hash of the contents (computed in chunks, without copying the whole document)
+ * otherwise.
+ */
+public final class SnapshotChangeTracker {
+    /**
+     * The number of characters hashed at a time when the document does not provide a modification stamp.
+     */
+    private static final int HASH_CHUNK_SIZE = 4096;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final IDocument document;
+    private boolean written = false;
+    private long lastFingerprint;
+    private long currentFingerprint;
+    private int skipped = 0;
+
+    /**
+     * Constructor for SnapshotChangeTracker.
+     * 
+     * @param document
+     *            The non-null {@link IDocument} whose changes have to be tracked
+     */
+    public SnapshotChangeTracker(final IDocument document) {
+        super();
+        this.document = document;
+    }
+
+    /**
+     * Returns true if the document is the same as it was when {@link #written()} was last called. If the document
+     * changed, the current state is remembered so that a following call to {@link #written()} can record it.
+     * 
+     * @return True if the last snapshot is still up-to-date, and false if a new snapshot has to be written
+     */
+    public synchronized boolean isUnchanged() {
+        currentFingerprint = fingerprint();
+        if (written && (currentFingerprint == lastFingerprint)) {
+            skipped++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the document might have changed since {@link #written()} was last called. Unlike
+     * {@link #isUnchanged()}, the contents are never hashed and nothing is remembered - so this is cheap enough to be
+     * asked of every open editor.
+     * 
+     * @return False only if the document provides a modification stamp, and it is the same as for the last snapshot
+     */
+    public synchronized boolean mayHaveChanged() {
+        if (!written || !(document instanceof IDocumentExtension4)) {
+            return true;
+        }
+        final long stamp = ((IDocumentExtension4) document).getModificationStamp();
+        return (stamp == IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP) || (stamp != lastFingerprint);
+    }
+
+    /**
+     * Records that a snapshot was written for the state of the document as of the last call to {@link #isUnchanged()}.
+     */
+    public synchronized void written() {
+        lastFingerprint = currentFingerprint;
+        written = true;
+    }
+
+    /**
+     * Forgets about the last snapshot - this should be called whenever the snapshot is deleted or could not be written.
+     */
+    public synchronized void reset() {
+        written = false;
+    }
+
+    /**
+     * @return The number of times a snapshot was skipped because the document had not changed
+     */
+    public synchronized int getSkippedCount() {
+        return skipped;
+    }
+
+    private long fingerprint() {
+        if (document instanceof IDocumentExtension4) {
+            final long stamp = ((IDocumentExtension4) document).getModificationStamp();
+            if (stamp != IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP) {
+                return stamp;
+            }
+        }
+        return hash();
+    }
+
+    private long hash() {
+        // 64-bit FNV-1a over the characters, mixed with the length
+        long hash = FNV_OFFSET_BASIS ^ document.getLength();
+        try {
+            final int length = document.getLength();
+            for (int offset = 0; offset < length; offset += HASH_CHUNK_SIZE) {
+                final String chunk = document.get(offset, Math.min(HASH_CHUNK_SIZE, length - offset));
+                for (int i = 0; i < chunk.length(); i++) {
+                    hash ^= chunk.charAt(i);
+                    hash *= FNV_PRIME;
+                }
+            }
+        } catch (final BadLocationException exc) {
+            // the document was changed while we were reading it - so it cannot be the same as the last snapshot
+            return hash ^ System.currentTimeMillis();
+        }
+        return hash;
+    }
+}
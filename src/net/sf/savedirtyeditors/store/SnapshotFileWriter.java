@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.store;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.Checksum;
+
+import net.sf.savedirtyeditors.PluginActivator;
+import net.sf.savedirtyeditors.PluginConstants;
+import net.sf.savedirtyeditors.utils.Messages;
+import net.sf.savedirtyeditors.utils.SnapshotMetrics;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+
+/**
+ * Writes snapshot files so that a crash in the middle of a write never leaves a truncated snapshot behind. A snapshot
+ * is written through a {@link FileChannel} into a temporary file next to it, which is then renamed over the old
+ * snapshot. Whether the data is forced to the disk before the rename is decided by the user preference for
+ * {@link PluginConstants#KEY_FSYNC_INTERVAL}. The time spent encoding and writing snapshots is recorded in the
+ * {@link SnapshotMetrics}. This class should not be visible outside this package.
+ */
+final class SnapshotFileWriter {
+    /**
+     * The extension appended to the name of the snapshot to name the temporary file it is written to.
+     */
+    private static final String TEMP_EXTENSION = ".tmp"; //$NON-NLS-1$
+
+    /**
+     * The extension appended to the name of the file to name the file it is moved aside to, on the platforms that do
+     * not rename over an existing file.
+     */
+    private static final String OLD_EXTENSION = ".old"; //$NON-NLS-1$
+
+    private int writes = 0;
+
+    /**
+     * Creates or atomically replaces the specified file with the contents.
+     * 
+     * @param file
+     *            The file to be written
+     * @param contents
+     *            The contents of the file
+     * @return True if the file was written; false if the contents were inconsistent - in which case the old file is
+     *         left as it was
+     * @exception IOException
+     *                If the file could not be written - in which case the old file is left as it was
+     */
+    boolean write(final File file, final ISnapshotContents contents) throws IOException {
+        // not a snapshot (for eg, the manifest) - so it is left out of the metrics
+        return write(file, contents, null, null, false);
+    }
+
+    /**
+     * Creates or atomically replaces the specified file with the contents - moving the old file (if there is one) to
+     * the backup file first, once the new contents are safely in the temporary file.
+     * 
+     * @param file
+     *            The file to be written
+     * @param contents
+     *            The contents of the file
+     * @param backupFile
+     *            The file that the old file is moved to; or <code>null</code> if the old file is not to be kept
+     * @param checksum
+     *            The checksum that is updated with the bytes written; or <code>null</code>
+     * @return True if the file was written; false if the contents were inconsistent - in which case the old file is
+     *         left as it was
+     * @exception IOException
+     *                If the file could not be written - in which case the old file is left as it was (or has been
+     *                moved to the backup file)
+     */
+    boolean write(final File file, final ISnapshotContents contents, final File backupFile, final Checksum checksum)
+            throws IOException {
+        return write(file, contents, backupFile, checksum, true);
+    }
+
+    private boolean write(final File file, final ISnapshotContents contents, final File backupFile,
+            final Checksum checksum, final boolean measured) throws IOException {
+        final long start = System.nanoTime();
+        mkdirs(file.getParentFile());
+        final File tempFile = new File(file.getParentFile(), file.getName() + TEMP_EXTENSION);
+        boolean written = false;
+        long encodeTime = 0;
+        long size = 0;
+        try {
+            final FileOutputStream outputStream = new FileOutputStream(tempFile);
+            try {
+                final FileChannel channel = outputStream.getChannel();
+                final MeteredChannel meteredChannel = new MeteredChannel(channel, checksum);
+                final long encodeStart = System.nanoTime();
+                if (!contents.writeTo(meteredChannel)) {
+                    return false;
+                }
+                // whatever time was not spent in the channel went into encoding the contents
+                encodeTime = System.nanoTime() - encodeStart - meteredChannel.getWriteTime();
+                size = meteredChannel.getSize();
+                force(channel);
+            } finally {
+                outputStream.close();
+            }
+            if ((backupFile != null) && file.exists()) {
+                backup(file, backupFile);
+            }
+            rename(tempFile, file);
+            written = true;
+            if (measured) {
+                if (!(contents instanceof SnapshotBuffer)) {
+                    // a buffered snapshot was encoded (and recorded) before it was queued
+                    SnapshotMetrics.recordTime(SnapshotMetrics.ENCODE, encodeTime, 0);
+                }
+                SnapshotMetrics.recordTime(SnapshotMetrics.WRITE, System.nanoTime() - start - encodeTime, size);
+            }
+            return true;
+        } finally {
+            if (!written) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Appends the contents to the specified file, creating it if needed. This is not atomic - a crash can leave only a
+     * part of the contents appended.
+     * 
+     * @param file
+     *            The file to be appended to
+     * @param contents
+     *            The contents to be appended
+     * @exception IOException
+     *                If the file could not be written
+     */
+    void append(final File file, final byte[] contents) throws IOException {
+        final long start = System.nanoTime();
+        mkdirs(file.getParentFile());
+        final FileOutputStream outputStream = new FileOutputStream(file, true);
+        try {
+            final FileChannel channel = outputStream.getChannel();
+            final ByteBuffer buffer = ByteBuffer.wrap(contents);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            force(channel);
+        } finally {
+            outputStream.close();
+        }
+        SnapshotMetrics.record(SnapshotMetrics.WRITE, start, contents.length);
+    }
+
+    private void force(final FileChannel channel) throws IOException {
+        if (shouldSync()) {
+            // only the contents matter - not the metadata (like the modification time)
+            channel.force(false);
+        }
+    }
+
+    private void mkdirs(final File folder) throws IOException {
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException(Messages.getString("SnapshotFileWriter.error") + folder.getPath()); //$NON-NLS-1$
+        }
+    }
+
+    private void backup(final File file, final File backupFile) throws IOException {
+        mkdirs(backupFile.getParentFile());
+        if (!file.renameTo(backupFile)) {
+            // the history is not worth failing the write for
+            if (PluginActivator.isTracing(PluginConstants.TRACE_STORE)) {
+                PluginActivator.trace(PluginConstants.TRACE_STORE, Messages.getString("SnapshotFileWriter.error") //$NON-NLS-1$
+                        + backupFile.getPath());
+            }
+        }
+    }
+
+    private void rename(final File tempFile, final File file) throws IOException {
+        if (tempFile.renameTo(file)) {
+            return;
+        }
+        // some platforms (for eg, Windows) dont rename over an existing file - so the old file is moved aside, and
+        // only deleted once the new one is in place (or moved back if it could not be). This is not atomic: a crash
+        // right in between leaves neither of them under the name of the file, and nothing reads the other names.
+        final File oldFile = new File(file.getParentFile(), file.getName() + OLD_EXTENSION);
+        oldFile.delete();
+        if (!file.renameTo(oldFile)) {
+            throw new IOException(Messages.getString("SnapshotFileWriter.error") + file.getPath()); //$NON-NLS-1$
+        }
+        if (!tempFile.renameTo(file)) {
+            oldFile.renameTo(file);
+            throw new IOException(Messages.getString("SnapshotFileWriter.error") + file.getPath()); //$NON-NLS-1$
+        }
+        oldFile.delete();
+    }
+
+    private synchronized boolean shouldSync() {
+        final long interval = PluginActivator.getLongPreference(PluginConstants.KEY_FSYNC_INTERVAL);
+        if (interval <= 0) {
+            return false;
+        }
+        writes++;
+        if (writes >= interval) {
+            writes = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * A channel that counts the bytes written to the underlying channel and the time spent writing them - and updates
+     * a checksum with them, if there is one.
+     */
+    private static final class MeteredChannel implements WritableByteChannel {
+        private final WritableByteChannel channel;
+        private final Checksum checksum;
+        private long size = 0;
+        private long writeTime = 0;
+
+        MeteredChannel(final WritableByteChannel channel, final Checksum checksum) {
+            super();
+            this.channel = channel;
+            this.checksum = checksum;
+        }
+
+        /**
+         * @return The number of bytes written so far
+         */
+        long getSize() {
+            return size;
+        }
+
+        /**
+         * @return The time (in nanos) spent in the underlying channel so far
+         */
+        long getWriteTime() {
+            return writeTime;
+        }
+
+        /**
+         * @see WritableByteChannel#write(ByteBuffer)
+         */
+        public int write(final ByteBuffer src) throws IOException {
+            final int position = src.position();
+            final long start = System.nanoTime();
+            final int written = channel.write(src);
+            writeTime += System.nanoTime() - start;
+            size += written;
+            if (checksum == null) {
+                return written;
+            }
+            if (src.hasArray()) {
+                checksum.update(src.array(), src.arrayOffset() + position, written);
+            } else {
+                final ByteBuffer bytes = src.duplicate();
+                bytes.position(position);
+                for (int i = 0; i < written; i++) {
+                    checksum.update(bytes.get());
+                }
+            }
+            return written;
+        }
+
+        /**
+         * @see WritableByteChannel#isOpen()
+         */
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        /**
+         * @see WritableByteChannel#close()
+         */
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Wraps an exception while accessing the specified snapshot file in a {@link CoreException}.
+     * 
+     * @param file
+     *            The snapshot file that could not be accessed
+     * @param exc
+     *            The exception that occurred; or <code>null</code>
+     * @return The CoreException to be thrown
+     */
+    static CoreException newCoreException(final File file, final IOException exc) {
+        final String message = Messages.getString("SnapshotFileWriter.error") + file.getPath(); //$NON-NLS-1$
+        PluginActivator.trace(PluginConstants.TRACE_STORE, message);
+        return new CoreException(new Status(IStatus.ERROR, PluginConstants.PLUGIN_ID, IStatus.ERROR, message, exc));
+    }
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.store;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.InflaterInputStream;
+
+import net.sf.savedirtyeditors.utils.Messages;
+
+/**
+ * Reads the contents of a snapshot - decompressing it if it was written by {@link CompressedSnapshotContents}, and as
+ * is otherwise.
+ */
+public final class SnapshotInputStream extends FilterInputStream {
+    private String charset;
+    private long length = -1;
+
+    /**
+     * Constructor for SnapshotInputStream. Reads the header of the snapshot (if there is one) right away.
+     * 
+     * @param inputStream
+     *            The raw contents of the snapshot - which is closed when this stream is closed
+     * @exception IOException
+     *                If the header could not be read
+     */
+    public SnapshotInputStream(final InputStream inputStream) throws IOException {
+        super(new BufferedInputStream(inputStream));
+        in.mark(CompressedSnapshotContents.MAGIC.length);
+        if (!readMagic()) {
+            in.reset();
+            return;
+        }
+        final DataInputStream header = new DataInputStream(in);
+        final int version = header.readUnsignedByte();
+        final int codec = header.readUnsignedByte();
+        if ((version != CompressedSnapshotContents.VERSION) || (codec != CompressedSnapshotContents.CODEC_DEFLATE)) {
+            throw new IOException(Messages.getString("SnapshotInputStream.unsupported") + version + '/' + codec); //$NON-NLS-1$
+        }
+        charset = header.readUTF();
+        length = header.readLong();
+        in = new InflaterInputStream(in);
+    }
+
+    private boolean readMagic() throws IOException {
+        final byte[] magic = CompressedSnapshotContents.MAGIC;
+        for (int i = 0; i < magic.length; i++) {
+            if (in.read() != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return True if the snapshot was compressed
+     */
+    public boolean isCompressed() {
+        return charset != null;
+    }
+
+    /**
+     * @return The name of the charset the snapshot was encoded with, as recorded in its header; or <code>null</code>
+     *         if the snapshot was not compressed (in which case it is in the charset of the original file)
+     */
+    public String getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return The length of the snapshot in characters, as recorded in its header; or -1 if the snapshot was not
+     *         compressed
+     */
+    public long getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
+
+/**
+ * An append-only edit journal for a single {@link IDocument}. Each {@link DocumentEvent} is recorded (offset, replaced
+ * length and replacement text) in memory, and is drained by the snapshot action into a journal file that sits next to
+ * the base snapshot. Replaying the journal on top of the base snapshot rebuilds the dirty contents of the document.
+ * <p>
+ * The journal is only meaningful relative to a base snapshot - so nothing is recorded until a base has been captured
+ * using {@link #captureBase()}, and the journal falls back to requesting a new base (see {@link #shouldRebase()})
+ * whenever it has grown too large or a write failed.
+ * </p>
+ */
+public final class SnapshotJournal implements IDocumentListener {
+    /**
+     * The encoding used for the replacement text of each journal record - independent of the charset of the file.
+     */
+    private static final String RECORD_ENCODING = "UTF-8"; //$NON-NLS-1$
+
+    /**
+     * The maximum number of records held in memory between two drains - after this a new base is requested instead.
+     */
+    private static final int MAX_PENDING_RECORDS = 10000;
+
+    /**
+     * The minimum number of journal bytes written before we compare against the size of the document to compact.
+     */
+    private static final long MIN_COMPACT_BYTES = 64 * 1024;
+
+    private final IDocument document;
+    private final List<Record> pending = new ArrayList<Record>();
+    private boolean changing = false;
+    private boolean needsBase = true;
+    private long journalBytes = 0;
+
+    /**
+     * Constructor for SnapshotJournal.
+     * 
+     * @param document
+     *            The non-null {@link IDocument} whose changes have to be recorded
+     */
+    public SnapshotJournal(final IDocument document) {
+        super();
+        this.document = document;
+    }
+
+    /**
+     * Starts recording changes to the document.
+     */
+    public void connect() {
+        document.addDocumentListener(this);
+    }
+
+    /**
+     * Stops recording changes to the document and discards anything that was not yet drained.
+     */
+    public void disconnect() {
+        document.removeDocumentListener(this);
+        invalidate();
+    }
+
+    /**
+     * Marks the start of a change so that {@link #captureBase()} does not read a half-applied change.
+     * 
+     * @see IDocumentListener#documentAboutToBeChanged(DocumentEvent)
+     */
+    public synchronized void documentAboutToBeChanged(final DocumentEvent event) {
+        changing = true;
+    }
+
+    /**
+     * Records the change in memory - this is called on the UI thread, so it should never do any I/O.
+     * 
+     * @see IDocumentListener#documentChanged(DocumentEvent)
+     */
+    public synchronized void documentChanged(final DocumentEvent event) {
+        changing = false;
+        // until there is a base snapshot, there is nothing to replay the change against
+        if (needsBase) {
+            return;
+        }
+        final String text = event.getText();
+        pending.add(new Record(event.getOffset(), event.getLength(), text == null ? "" : text)); //$NON-NLS-1$
+        if (pending.size() > MAX_PENDING_RECORDS) {
+            // its cheaper to write a new base than to keep a huge number of records around
+            invalidate();
+        }
+    }
+
+    /**
+     * Returns true if the next snapshot should write a full base instead of appending to the journal - either because
+     * there is no base yet, a previous write failed, or the journal has outgrown the document itself.
+     * 
+     * @return True if a full base snapshot needs to be written
+     */
+    public synchronized boolean shouldRebase() {
+        return needsBase || ((journalBytes > MIN_COMPACT_BYTES) && (journalBytes > document.getLength()));
+    }
+
+    /**
+     * Takes a copy of the current contents of the document to be written as the new base snapshot, and starts a new
+     * (empty) journal relative to it.
+     * 
+     * @return The contents of the document; or <code>null</code> if a change is being applied right now, in which case
+     *         the caller should try again later
+     */
+    public String captureBase() {
+        // the UI thread holds the lock object of the document while it notifies this journal - so take it first
+        final Object lock = DocumentCapture.getLockObject(document);
+        if (lock == null) {
+            return captureBaseLocked();
+        }
+        synchronized (lock) {
+            return captureBaseLocked();
+        }
+    }
+
+    private synchronized String captureBaseLocked() {
+        if (changing) {
+            return null;
+        }
+        final String contents = document.get();
+        pending.clear();
+        journalBytes = 0;
+        needsBase = false;
+        return contents;
+    }
+
+    /**
+     * Serializes and removes all the records that were recorded since the last drain.
+     * 
+     * @return The serialized records to be appended to the journal file (possibly empty); or <code>null</code> if
+     *         there is no valid base to append to
+     * @exception IOException
+     *                If the records could not be serialized
+     */
+    public synchronized byte[] drain() throws IOException {
+        if (needsBase) {
+            return null;
+        }
+        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        final DataOutputStream outputStream = new DataOutputStream(byteStream);
+        for (int i = 0; i < pending.size(); i++) {
+            final Record record = pending.get(i);
+            final byte[] text = record.text.getBytes(RECORD_ENCODING);
+            outputStream.writeInt(record.offset);
+            outputStream.writeInt(record.length);
+            outputStream.writeInt(text.length);
+            outputStream.write(text);
+        }
+        outputStream.flush();
+        pending.clear();
+        final byte[] records = byteStream.toByteArray();
+        journalBytes += records.length;
+        return records;
+    }
+
+    /**
+     * Discards all recorded changes and requests a new base snapshot. This should be called whenever the snapshot
+     * files were deleted or could not be written.
+     */
+    public synchronized void invalidate() {
+        pending.clear();
+        journalBytes = 0;
+        needsBase = true;
+    }
+
+    /**
+     * Rebuilds the dirty contents by replaying the records read from <code>journal</code> on top of <code>base</code>.
+     * A truncated record at the end of the journal (for eg, if Eclipse was killed while appending) is ignored.
+     * 
+     * @param base
+     *            The contents of the base snapshot
+     * @param journal
+     *            The stream of records as written by {@link #drain()}. This method does not close the stream.
+     * @return The contents of the base snapshot with all the complete records applied
+     * @exception IOException
+     *                If the journal could not be read
+     */
+    public static String replay(final String base, final InputStream journal) throws IOException {
+        final StringBuffer contents = new StringBuffer(base);
+        final DataInputStream inputStream = new DataInputStream(journal);
+        try {
+            while (true) {
+                final int offset = inputStream.readInt();
+                final int length = inputStream.readInt();
+                final int textLength = inputStream.readInt();
+                if ((offset < 0) || (length < 0) || (textLength < 0) || ((offset + length) > contents.length())) {
+                    // the journal does not belong to this base - stop rather than corrupt the contents
+                    break;
+                }
+                final byte[] text = new byte[textLength];
+                inputStream.readFully(text);
+                contents.replace(offset, offset + length, new String(text, RECORD_ENCODING));
+            }
+        } catch (final EOFException exc) {
+            // end of the journal (or a partially written last record)
+        }
+        return contents.toString();
+    }
+
+    /**
+     * A single recorded change to the document.
+     */
+    private static final class Record {
+        final int offset;
+        final int length;
+        final String text;
+
+        Record(final int offset, final int length, final String text) {
+            this.offset = offset;
+            this.length = length;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.store;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.sf.savedirtyeditors.PluginActivator;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+
+/**
+ * Caches where a store keeps the snapshot (and the journal, etc) of each original file - so that these are not worked
+ * out from the preferences and the path of the original file over and over again, for every snapshot. The entry of a
+ * file is dropped as soon as it is moved, renamed or deleted (as seen by a resource change listener); and all of them
+ * are dropped by {@link #clear()}, for eg when a preference that the locations depend on changes. This class should not
+ * be visible outside this package.
+ * 
+ * @param <T>
+ *            The locations of the snapshot files of one original file
+ */
+abstract class SnapshotLocationCache<T> implements IResourceChangeListener {
+    private final ConcurrentMap<IFile, T> locations = new ConcurrentHashMap<IFile, T>();
+
+    /**
+     * Constructor for SnapshotLocationCache. The cache listens to the workspace until it is disposed.
+     */
+    SnapshotLocationCache() {
+        super();
+        ResourcesPlugin.getWorkspace().addResourceChangeListener(this, IResourceChangeEvent.POST_CHANGE);
+    }
+
+    /**
+     * @param original
+     *            The original file
+     * @return The locations of the snapshot files of the original file - worked out only if they are not cached
+     */
+    final T get(final IFile original) {
+        T location = locations.get(original);
+        if (location == null) {
+            // two threads might both work it out - which is harmless, since they come up with the same
+            location = resolve(original);
+            locations.put(original, location);
+        }
+        return location;
+    }
+
+    /**
+     * @param original
+     *            The original file
+     * @return The locations of the snapshot files of the original file
+     */
+    protected abstract T resolve(IFile original);
+
+    /**
+     * Drops all the cached locations.
+     */
+    final void clear() {
+        locations.clear();
+    }
+
+    /**
+     * Stops listening to the workspace, and drops all the cached locations.
+     */
+    final void dispose() {
+        ResourcesPlugin.getWorkspace().removeResourceChangeListener(this);
+        clear();
+    }
+
+    /**
+     * Drops the entries of the files that were moved, renamed or deleted - their new handles get entries of their own.
+     * 
+     * @see IResourceChangeListener#resourceChanged(IResourceChangeEvent)
+     */
+    public void resourceChanged(final IResourceChangeEvent event) {
+        final IResourceDelta delta = event.getDelta();
+        if ((delta == null) || locations.isEmpty()) {
+            return;
+        }
+        try {
+            delta.accept(new IResourceDeltaVisitor() {
+                public boolean visit(final IResourceDelta child) {
+                    final IResource resource = child.getResource();
+                    if ((child.getKind() == IResourceDelta.REMOVED) && (resource.getType() == IResource.FILE)) {
+                        locations.remove(resource);
+                    }
+                    return true;
+                }
+            });
+        } catch (final CoreException exc) {
+            PluginActivator.logError(exc);
+        }
+    }
+}
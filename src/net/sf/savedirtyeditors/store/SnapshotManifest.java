@@ -0,0 +1,318 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.store;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.savedirtyeditors.PluginActivator;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * Keeps track of the files that an {@link ISnapshotStore} holds snapshots for - along with the time stamp, size and
+ * checksum of each snapshot as it was last written - in a small file in the state location of the plugin. With it, the
+ * store can tell that a file has no snapshot (which is the case for almost every editor opened at startup) without
+ * refreshing or even looking at the disk.
+ * <p>
+ * The manifest may list more snapshots than actually exist, but never less: a file is added (and the manifest saved)
+ * before its first snapshot is written, while everything else is only saved along with the next batch (see
+ * {@link #save()}). If the manifest could not be loaded, it is not <i>complete</i> - and then every file may have a
+ * snapshot, until the store has rebuilt it (see {@link #setComplete()}).
+ */
+public final class SnapshotManifest {
+    /**
+     * The first line of the manifest file - including the version of its format.
+     */
+    private static final String HEADER = "#SaveDirtyEditors snapshot manifest 1"; //$NON-NLS-1$
+
+    /**
+     * The separator between the fields of an entry.
+     */
+    private static final char SEPARATOR = '\t';
+
+    private static final String ENCODING = "UTF-8"; //$NON-NLS-1$
+
+    private final File file;
+    private final SnapshotFileWriter writer = new SnapshotFileWriter();
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private boolean loaded = false;
+    private boolean complete = false;
+    private boolean dirty = false;
+
+    /**
+     * Constructor for SnapshotManifest. Nothing is read until the manifest is first used.
+     * 
+     * @param file
+     *            The file that the manifest is kept in
+     */
+    SnapshotManifest(final File file) {
+        super();
+        this.file = file;
+    }
+
+    /**
+     * Returns false only if the specified file definitely has no snapshot (or journal) in the store.
+     * 
+     * @param original
+     *            The original file
+     * @return True if the manifest lists the file, or the manifest is not complete
+     */
+    public synchronized boolean mayExist(final IFile original) {
+        load();
+        return !complete || entries.containsKey(getKey(original));
+    }
+
+    /**
+     * @param original
+     *            The original file
+     * @return The entry for the specified file; or <code>null</code> if it is not listed
+     */
+    public synchronized Entry getEntry(final IFile original) {
+        load();
+        return entries.get(getKey(original));
+    }
+
+    /**
+     * @return The full paths of all the files listed in the manifest
+     */
+    public synchronized IPath[] getPaths() {
+        load();
+        final List<IPath> paths = new ArrayList<IPath>(entries.size());
+        for (final Iterator<Entry> iter = entries.values().iterator(); iter.hasNext();) {
+            paths.add(iter.next().getPath());
+        }
+        return paths.toArray(new IPath[paths.size()]);
+    }
+
+    /**
+     * @return True if the manifest was loaded or rebuilt - ie, it lists every snapshot in the store
+     */
+    public synchronized boolean isComplete() {
+        load();
+        return complete;
+    }
+
+    /**
+     * Marks the manifest as listing every snapshot in the store - after the store has added the snapshots it found on
+     * its own, since the manifest could not be loaded.
+     * 
+     * @exception CoreException
+     *                If the manifest could not be saved
+     */
+    public synchronized void setComplete() throws CoreException {
+        load();
+        complete = true;
+        dirty = true;
+        save();
+    }
+
+    /**
+     * Lists the specified file - saving the manifest right away if it was not listed, since this has to hit the disk
+     * before its snapshot does.
+     * 
+     * @param original
+     *            The original file
+     * @exception CoreException
+     *                If the manifest could not be saved
+     */
+    synchronized void add(final IFile original) throws CoreException {
+        add(original.getFullPath());
+    }
+
+    /**
+     * @see #add(IFile)
+     */
+    synchronized void add(final IPath path) throws CoreException {
+        load();
+        final String key = path.toPortableString();
+        if (!entries.containsKey(key)) {
+            entries.put(key, new Entry(path, 0, -1, 0));
+            dirty = true;
+            save();
+        }
+    }
+
+    /**
+     * Records the time stamp, size and checksum of the snapshot of the specified file that was just written. This is
+     * only saved along with the next batch.
+     * 
+     * @param original
+     *            The original file
+     * @param timeStamp
+     *            The time (in millis) when the snapshot was written
+     * @param size
+     *            The size of the snapshot in bytes (as stored)
+     * @param checksum
+     *            The CRC-32 of the snapshot (as stored)
+     */
+    synchronized void update(final IFile original, final long timeStamp, final long size, final long checksum) {
+        load();
+        entries.put(getKey(original), new Entry(original.getFullPath(), timeStamp, size, checksum));
+        dirty = true;
+    }
+
+    /**
+     * Stops listing the specified file. This is not written until {@link #save()} is called - until then the manifest
+     * on the disk lists a snapshot that does not exist anymore, which is harmless.
+     * 
+     * @param original
+     *            The original file
+     */
+    synchronized void remove(final IFile original) {
+        load();
+        if (entries.remove(getKey(original)) != null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes the manifest to the disk, if it changed since it was last written.
+     * 
+     * @exception CoreException
+     *                If the manifest could not be written
+     */
+    public synchronized void save() throws CoreException {
+        if (!dirty || !complete) {
+            // an incomplete manifest is of no use at the next startup - so dont bother writing it
+            return;
+        }
+        final StringBuffer text = new StringBuffer(HEADER).append('\n');
+        for (final Iterator<Entry> iter = entries.values().iterator(); iter.hasNext();) {
+            final Entry entry = iter.next();
+            text.append(entry.getTimeStamp()).append(SEPARATOR).append(entry.getSize()).append(SEPARATOR);
+            text.append(entry.getChecksum()).append(SEPARATOR).append(entry.getPath().toPortableString());
+            text.append('\n');
+        }
+        try {
+            final byte[] bytes = text.toString().getBytes(ENCODING);
+            writer.write(file, new ISnapshotContents() {
+                public boolean writeTo(final WritableByteChannel channel) throws IOException {
+                    final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    return true;
+                }
+            });
+        } catch (final IOException exc) {
+            throw SnapshotFileWriter.newCoreException(file, exc);
+        }
+        dirty = false;
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.isFile()) {
+            return;
+        }
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                    ENCODING));
+            try {
+                if (!HEADER.equals(reader.readLine())) {
+                    return;
+                }
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final Entry entry = parse(line);
+                    entries.put(entry.getPath().toPortableString(), entry);
+                }
+            } finally {
+                reader.close();
+            }
+            complete = true;
+        } catch (final IOException exc) {
+            PluginActivator.logError(exc);
+        } catch (final RuntimeException exc) {
+            // a garbled line - the store has to rebuild the manifest
+            PluginActivator.logError(exc);
+        }
+        if (!complete) {
+            entries.clear();
+        }
+    }
+
+    private Entry parse(final String line) {
+        final int first = line.indexOf(SEPARATOR);
+        final int second = line.indexOf(SEPARATOR, first + 1);
+        final int third = line.indexOf(SEPARATOR, second + 1);
+        return new Entry(Path.fromPortableString(line.substring(third + 1)),
+                Long.parseLong(line.substring(0, first)), Long.parseLong(line.substring(first + 1, second)),
+                Long.parseLong(line.substring(second + 1, third)));
+    }
+
+    private String getKey(final IFile original) {
+        return original.getFullPath().toPortableString();
+    }
+
+    /**
+     * What the manifest knows about the snapshot of one file.
+     */
+    public static final class Entry {
+        private final IPath path;
+        private final long timeStamp;
+        private final long size;
+        private final long checksum;
+
+        Entry(final IPath path, final long timeStamp, final long size, final long checksum) {
+            super();
+            this.path = path;
+            this.timeStamp = timeStamp;
+            this.size = size;
+            this.checksum = checksum;
+        }
+
+        /**
+         * @return The full path of the original file
+         */
+        public IPath getPath() {
+            return path;
+        }
+
+        /**
+         * @return The time (in millis) when the snapshot was last written; 0 if it is not known
+         */
+        public long getTimeStamp() {
+            return timeStamp;
+        }
+
+        /**
+         * @return The size of the snapshot in bytes (as stored); -1 if it is not known
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return The CRC-32 of the snapshot (as stored); only meaningful if the size is known
+         */
+        public long getChecksum() {
+            return checksum;
+        }
+    }
+}
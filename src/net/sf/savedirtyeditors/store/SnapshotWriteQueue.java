@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.store;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.savedirtyeditors.PluginActivator;
+import net.sf.savedirtyeditors.PluginConstants;
+import net.sf.savedirtyeditors.utils.Messages;
+import net.sf.savedirtyeditors.utils.SnapshotMetrics;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.MultiRule;
+
+/**
+ * Writes snapshots behind the back of the snapshot actions - which only encode the contents into a
+ * {@link SnapshotBuffer} and {@link #add(ISnapshotStore, IFile, SnapshotBuffer, SnapshotChangeTracker)} it here, so
+ * that a slow disk does not hold up the batch (or the rules it holds). A single {@link Job} writes everything that is
+ * queued, one batch per store, holding only the rules for the snapshots in it. A snapshot queued while an older one of
+ * the same file is still waiting replaces it, so that only the latest is written. No more than {@link #BYTE_BUDGET}
+ * bytes are ever queued (or being written) - a snapshot that does not fit is refused, and has to be written right away
+ * by the caller, which holds up the batch until the writer catches up.
+ */
+public final class SnapshotWriteQueue {
+    /**
+     * The number of bytes that may be queued (or being written) at the most.
+     */
+    private static final long BYTE_BUDGET = 8 * 1024 * 1024;
+
+    private static final Entry[] NONE = new Entry[0];
+
+    private final Map<IFile, Entry> pending = new LinkedHashMap<IFile, Entry>();
+    private final Job writerJob;
+    private Entry[] writing = NONE;
+    private long queuedBytes = 0;
+    private boolean disposed = false;
+
+    /**
+     * Constructor for SnapshotWriteQueue.
+     */
+    public SnapshotWriteQueue() {
+        super();
+        this.writerJob = new Job(Messages.getString("SnapshotWriteQueue.name")) { //$NON-NLS-1$
+            @Override
+            protected IStatus run(final IProgressMonitor monitor) {
+                writeAll(monitor);
+                return Status.OK_STATUS;
+            }
+
+            @Override
+            public boolean belongsTo(final Object family) {
+                return PluginConstants.JOB_FAMILY_NAME.equals(family);
+            }
+        };
+        writerJob.setSystem(true);
+        writerJob.setPriority(Job.SHORT);
+    }
+
+    /**
+     * Queues the snapshot of the specified file - replacing the one that is still waiting to be written, if any. It is
+     * not written until {@link #drain()} is called. The snapshot is refused if it does not fit in the byte budget
+     * (along with everything else that is queued or being written), or the queue was disposed.
+     * 
+     * @param store
+     *            The store that the snapshot is written into
+     * @param original
+     *            The original file
+     * @param contents
+     *            The encoded contents of the snapshot
+     * @param tracker
+     *            The tracker that is reset if the snapshot could not be written; or <code>null</code>
+     * @return True if the snapshot was queued; false if the caller has to write it
+     */
+    public synchronized boolean add(final ISnapshotStore store, final IFile original, final SnapshotBuffer contents,
+            final SnapshotChangeTracker tracker) {
+        if (disposed) {
+            return false;
+        }
+        Entry previous = pending.get(original);
+        final long replacedBytes = (previous != null) ? previous.contents.size() : 0;
+        if (queuedBytes - replacedBytes + contents.size() > BYTE_BUDGET) {
+            if (PluginActivator.isTracing(PluginConstants.TRACE_STORE)) {
+                final String message = Messages.getString("SnapshotWriteQueue.full"); //$NON-NLS-1$
+                PluginActivator.trace(PluginConstants.TRACE_STORE, message + original.getFullPath().toPortableString());
+            }
+            return false;
+        }
+        previous = pending.remove(original);
+        if (previous != null) {
+            queuedBytes -= previous.contents.size();
+            if (PluginActivator.isTracing(PluginConstants.TRACE_STORE)) {
+                PluginActivator.trace(PluginConstants.TRACE_STORE, Messages.getString("SnapshotWriteQueue.merged") //$NON-NLS-1$
+                        + original.getFullPath().toPortableString());
+            }
+        }
+        pending.put(original, new Entry(store, original, contents, tracker));
+        queuedBytes += contents.size();
+        return true;
+    }
+
+    /**
+     * Drops the queued snapshot of the specified file - because it was superseded by a snapshot written directly, or
+     * the snapshot is being deleted. If it is being written right now, it is deleted again by the writer afterwards.
+     * 
+     * @param original
+     *            The original file
+     */
+    public synchronized void cancel(final IFile original) {
+        final Entry entry = pending.remove(original);
+        if (entry != null) {
+            queuedBytes -= entry.contents.size();
+        }
+        for (int i = 0; i < writing.length; i++) {
+            if (writing[i].original.equals(original)) {
+                writing[i].cancelled = true;
+            }
+        }
+    }
+
+    /**
+     * Starts writing the queued snapshots in the background - called once a batch has released its rules, since the
+     * writer needs them.
+     */
+    public void drain() {
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+        }
+        writerJob.schedule();
+    }
+
+    /**
+     * Drops whatever is still queued, and stops the writer.
+     */
+    public void dispose() {
+        synchronized (this) {
+            disposed = true;
+            pending.clear();
+            queuedBytes = 0;
+        }
+        writerJob.cancel();
+    }
+
+    private void writeAll(final IProgressMonitor monitor) {
+        while (true) {
+            final Entry[] batch;
+            synchronized (this) {
+                if (disposed || pending.isEmpty()) {
+                    return;
+                }
+                batch = pending.values().toArray(new Entry[pending.size()]);
+                pending.clear();
+                writing = batch;
+            }
+            try {
+                write(batch, monitor);
+            } finally {
+                synchronized (this) {
+                    for (int i = 0; i < batch.length; i++) {
+                        queuedBytes -= batch[i].contents.size();
+                    }
+                    writing = NONE;
+                }
+            }
+        }
+    }
+
+    private void write(final Entry[] batch, final IProgressMonitor monitor) {
+        // the user might have changed the store in between two batches of the scheduler
+        final Map<ISnapshotStore, List<Entry>> byStore = new LinkedHashMap<ISnapshotStore, List<Entry>>();
+        for (int i = 0; i < batch.length; i++) {
+            List<Entry> entries = byStore.get(batch[i].store);
+            if (entries == null) {
+                entries = new ArrayList<Entry>();
+                byStore.put(batch[i].store, entries);
+            }
+            entries.add(batch[i]);
+        }
+        for (final Iterator<Map.Entry<ISnapshotStore, List<Entry>>> iter = byStore.entrySet().iterator(); iter
+                .hasNext();) {
+            final Map.Entry<ISnapshotStore, List<Entry>> mapEntry = iter.next();
+            final ISnapshotStore store = mapEntry.getKey();
+            final List<Entry> entries = mapEntry.getValue();
+            ISchedulingRule rule = null;
+            for (final Iterator<Entry> entryIter = entries.iterator(); entryIter.hasNext();) {
+                rule = MultiRule.combine(rule, store.getSchedulingRule(entryIter.next().original));
+            }
+            try {
+                final long start = System.nanoTime();
+                store.run(new IWorkspaceRunnable() {
+                    public void run(final IProgressMonitor progressMonitor) {
+                        SnapshotMetrics.record(SnapshotMetrics.RULE_WAIT, start);
+                        for (final Iterator<Entry> entryIter = entries.iterator(); entryIter.hasNext();) {
+                            write(entryIter.next());
+                        }
+                    }
+                }, rule, monitor);
+            } catch (final CoreException exc) {
+                PluginActivator.logError(exc);
+            }
+        }
+    }
+
+    private void write(final Entry entry) {
+        if (isCancelled(entry)) {
+            return;
+        }
+        try {
+            if (!entry.store.setContents(entry.original, entry.contents)) {
+                entry.failed();
+                return;
+            }
+            if (isCancelled(entry)) {
+                // the snapshot was deleted while we were writing it - so it has to go again
+                entry.store.delete(entry.original);
+            }
+        } catch (final CoreException exc) {
+            entry.failed();
+            PluginActivator.logError(exc);
+        }
+    }
+
+    private synchronized boolean isCancelled(final Entry entry) {
+        return entry.cancelled;
+    }
+
+    /**
+     * A snapshot waiting to be written.
+     */
+    private static final class Entry {
+        private final ISnapshotStore store;
+        private final IFile original;
+        private final SnapshotBuffer contents;
+        private final SnapshotChangeTracker tracker;
+        private boolean cancelled = false;
+
+        Entry(final ISnapshotStore store, final IFile original, final SnapshotBuffer contents,
+                final SnapshotChangeTracker tracker) {
+            super();
+            this.store = store;
+            this.original = original;
+            this.contents = contents;
+            this.tracker = tracker;
+        }
+
+        /**
+         * Makes sure that the next run of the scheduler writes the snapshot again, since it is not up-to-date.
+         */
+        void failed() {
+            if (tracker != null) {
+                tracker.reset();
+            }
+        }
+    }
+}
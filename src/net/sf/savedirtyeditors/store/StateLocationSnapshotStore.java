@@ -0,0 +1,504 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.store;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import net.sf.savedirtyeditors.PluginActivator;
+import net.sf.savedirtyeditors.PluginConstants;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Plugin;
+import org.eclipse.core.runtime.jobs.IJobManager;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.MultiRule;
+
+/**
+ * An {@link ISnapshotStore} that keeps the snapshots in the metadata area of the workspace (see
+ * {@link Plugin#getStateLocation()}), using the full path of the original file as the relative path of the snapshot.
+ * The snapshots are plain {@link File}s written through a {@link FileChannel} (see {@link SnapshotFileWriter}), so they
+ * never show up in the workspace and writing them does not trigger any resource change notification (builds, team
+ * decorators, indexers etc).
+ * <p>
+ * Every time a snapshot is overwritten, the old one is moved into a history folder next to it (named after the time it
+ * was written, so that listing the versions does not need to open any of them). The older versions are then evicted as
+ * per the user preferences for {@link PluginConstants#KEY_HISTORY_SIZE}, {@link PluginConstants#KEY_HISTORY_MAX_AGE}
+ * and {@link PluginConstants#KEY_HISTORY_MAX_SIZE}.
+ * <p>
+ * The files that have snapshots are listed in a {@link SnapshotManifest} next to the snapshots folder - so that the
+ * disk is only looked at for those. If the manifest is missing, it is rebuilt from the snapshots folder.
+ */
+public final class StateLocationSnapshotStore implements ISnapshotStore {
+    /**
+     * The name of the folder in the state location under which the snapshots are stored.
+     */
+    public static final String SNAPSHOTS_FOLDER = "snapshots"; //$NON-NLS-1$
+
+    /**
+     * The name of the file in the state location that the {@link SnapshotManifest} is kept in.
+     */
+    public static final String MANIFEST_FILE = "snapshots.manifest"; //$NON-NLS-1$
+
+    /**
+     * The extension appended to the name of the original file to name the snapshot.
+     */
+    private static final String SNAPSHOT_EXTENSION = ".snapshot"; //$NON-NLS-1$
+
+    /**
+     * The extension appended to the name of the snapshot to name the folder holding its older versions.
+     */
+    private static final String HISTORY_EXTENSION = ".history"; //$NON-NLS-1$
+
+    private final File root;
+    private final SnapshotFileWriter writer = new SnapshotFileWriter();
+    private final SnapshotManifest manifest;
+    private final SnapshotLocationCache<Locations> locations = new SnapshotLocationCache<Locations>() {
+        @Override
+        protected Locations resolve(final IFile original) {
+            return new Locations(original);
+        }
+    };
+    private boolean manifestChecked = false;
+    private long lastHistoryStamp = 0;
+
+    /**
+     * Constructor for StateLocationSnapshotStore.
+     * 
+     * @param stateLocation
+     *            The state location of the plugin - under which the snapshots are stored
+     */
+    public StateLocationSnapshotStore(final IPath stateLocation) {
+        super();
+        this.root = stateLocation.append(SNAPSHOTS_FOLDER).toFile();
+        this.manifest = new SnapshotManifest(stateLocation.append(MANIFEST_FILE).toFile());
+    }
+
+    /**
+     * Since the snapshots are not part of the workspace, the only thing that needs to be prevented is two jobs writing
+     * to the same snapshot at the same time.
+     * 
+     * @see ISnapshotStore#getSchedulingRule(IFile)
+     */
+    public ISchedulingRule getSchedulingRule(final IFile original) {
+        return locations.get(original).rule;
+    }
+
+    /**
+     * Only the rule is held - the workspace itself is not locked, since none of its resources are changed.
+     * 
+     * @see ISnapshotStore#run(IWorkspaceRunnable, ISchedulingRule, IProgressMonitor)
+     */
+    public void run(final IWorkspaceRunnable runnable, final ISchedulingRule rule, final IProgressMonitor monitor)
+            throws CoreException {
+        final IJobManager jobManager = Job.getJobManager();
+        try {
+            jobManager.beginRule(rule, monitor);
+            runnable.run(monitor);
+        } finally {
+            jobManager.endRule(rule);
+        }
+        // whatever changed in the manifest during the batch is written out once
+        getManifest().save();
+    }
+
+    /**
+     * Nothing to do, since the files are checked directly on the disk.
+     * 
+     * @see ISnapshotStore#refresh(IFile)
+     */
+    public void refresh(final IFile original) {
+        // do nothing
+    }
+
+    /**
+     * @see ISnapshotStore#exists(IFile)
+     */
+    public boolean exists(final IFile original) {
+        return getManifest().mayExist(original) && getSnapshotFile(original).isFile();
+    }
+
+    /**
+     * @see ISnapshotStore#journalExists(IFile)
+     */
+    public boolean journalExists(final IFile original) {
+        return getManifest().mayExist(original) && getJournalFile(original).isFile();
+    }
+
+    /**
+     * @see ISnapshotStore#getContents(IFile)
+     */
+    public InputStream getContents(final IFile original) throws CoreException {
+        return open(getSnapshotFile(original));
+    }
+
+    /**
+     * @see ISnapshotStore#getJournalContents(IFile)
+     */
+    public InputStream getJournalContents(final IFile original) throws CoreException {
+        return open(getJournalFile(original));
+    }
+
+    /**
+     * @see ISnapshotStore#getVersions(IFile)
+     */
+    public ISnapshotVersion[] getVersions(final IFile original) {
+        if (!getManifest().mayExist(original)) {
+            return new ISnapshotVersion[0];
+        }
+        final List<ISnapshotVersion> versions = new ArrayList<ISnapshotVersion>();
+        final File file = getSnapshotFile(original);
+        if (file.isFile()) {
+            versions.add(new FileVersion(file, file.lastModified()));
+        }
+        final FileVersion[] history = getHistory(original);
+        for (int i = 0; i < history.length; i++) {
+            versions.add(history[i]);
+        }
+        return versions.toArray(new ISnapshotVersion[versions.size()]);
+    }
+
+    /**
+     * The snapshot being replaced is moved into the history, and then the history is trimmed.
+     * 
+     * @see ISnapshotStore#setContents(IFile, ISnapshotContents)
+     */
+    public boolean setContents(final IFile original, final ISnapshotContents contents) throws CoreException {
+        final File file = getSnapshotFile(original);
+        File backupFile = null;
+        if (PluginActivator.getLongPreference(PluginConstants.KEY_HISTORY_SIZE) > 0) {
+            backupFile = newHistoryFile(original, file);
+        }
+        getManifest().add(original);
+        final CRC32 checksum = new CRC32();
+        try {
+            if (!writer.write(file, contents, backupFile, checksum)) {
+                return false;
+            }
+        } catch (final IOException exc) {
+            throw SnapshotFileWriter.newCoreException(file, exc);
+        }
+        getManifest().update(original, file.lastModified(), file.length(), checksum.getValue());
+        evict(original);
+        return true;
+    }
+
+    /**
+     * @see ISnapshotStore#appendJournal(IFile, byte[])
+     */
+    public void appendJournal(final IFile original, final byte[] records) throws CoreException {
+        final File file = getJournalFile(original);
+        getManifest().add(original);
+        try {
+            writer.append(file, records);
+        } catch (final IOException exc) {
+            throw SnapshotFileWriter.newCoreException(file, exc);
+        }
+    }
+
+    /**
+     * @see ISnapshotStore#deleteJournal(IFile)
+     */
+    public void deleteJournal(final IFile original) throws CoreException {
+        delete(getJournalFile(original));
+    }
+
+    /**
+     * @see ISnapshotStore#delete(IFile)
+     */
+    public void delete(final IFile original) throws CoreException {
+        // the journal is useless without its base snapshot - so remove it first
+        delete(getJournalFile(original));
+        delete(getSnapshotFile(original));
+        final FileVersion[] history = getHistory(original);
+        for (int i = 0; i < history.length; i++) {
+            delete(history[i].file);
+        }
+        getHistoryFolder(original).delete();
+        pruneFolders(getSnapshotFile(original).getParentFile());
+        getManifest().remove(original);
+        getManifest().save();
+    }
+
+    /**
+     * If the manifest could not be loaded (for eg, the first time around), it is rebuilt from the snapshots folder.
+     * 
+     * @see ISnapshotStore#getManifest()
+     */
+    public SnapshotManifest getManifest() {
+        synchronized (manifest) {
+            if (!manifestChecked) {
+                manifestChecked = true;
+                if (!manifest.isComplete()) {
+                    rebuildManifest();
+                }
+            }
+        }
+        return manifest;
+    }
+
+    private void rebuildManifest() {
+        try {
+            addToManifest(root, Path.ROOT);
+            manifest.setComplete();
+        } catch (final CoreException exc) {
+            // the manifest stays incomplete - so the disk is looked at for every file
+            PluginActivator.logError(exc);
+        }
+    }
+
+    private void addToManifest(final File folder, final IPath folderPath) throws CoreException {
+        final File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        final String journalExtension = PluginConstants.JOURNAL_NAME_INFIX + SNAPSHOT_EXTENSION;
+        final String historyExtension = SNAPSHOT_EXTENSION + HISTORY_EXTENSION;
+        for (int i = 0; i < files.length; i++) {
+            final String name = files[i].getName();
+            if (files[i].isDirectory() && name.endsWith(historyExtension)) {
+                addToManifest(folderPath, name, historyExtension);
+            } else if (files[i].isDirectory()) {
+                addToManifest(files[i], folderPath.append(name));
+            } else if (name.endsWith(journalExtension)) {
+                addToManifest(folderPath, name, journalExtension);
+            } else if (name.endsWith(SNAPSHOT_EXTENSION)) {
+                addToManifest(folderPath, name, SNAPSHOT_EXTENSION);
+            }
+        }
+    }
+
+    private void addToManifest(final IPath folderPath, final String name, final String extension)
+            throws CoreException {
+        manifest.add(folderPath.append(name.substring(0, name.length() - extension.length())));
+    }
+
+    /**
+     * @param original
+     *            The original file
+     * @return The location of the snapshot for the specified file
+     */
+    public File getSnapshotFile(final IFile original) {
+        return locations.get(original).snapshotFile;
+    }
+
+    /**
+     * @param original
+     *            The original file
+     * @return The location of the edit journal for the specified file
+     */
+    public File getJournalFile(final IFile original) {
+        return locations.get(original).journalFile;
+    }
+
+    private File getHistoryFolder(final IFile original) {
+        return locations.get(original).historyFolder;
+    }
+
+    /**
+     * Names the older version that the snapshot is about to become - after the time it was written, which is made
+     * unique (and later than all the names handed out before), since the times of two snapshots written in quick
+     * succession can be the same, and a missing snapshot does not have one.
+     */
+    private synchronized File newHistoryFile(final IFile original, final File file) {
+        final File historyFolder = getHistoryFolder(original);
+        long stamp = file.lastModified();
+        if (stamp <= 0) {
+            stamp = System.currentTimeMillis();
+        }
+        stamp = Math.max(stamp, lastHistoryStamp + 1);
+        File historyFile = new File(historyFolder, stamp + SNAPSHOT_EXTENSION);
+        while (historyFile.exists()) {
+            stamp++;
+            historyFile = new File(historyFolder, stamp + SNAPSHOT_EXTENSION);
+        }
+        lastHistoryStamp = stamp;
+        return historyFile;
+    }
+
+    /**
+     * @return The older versions of the snapshot of the specified file, newest first
+     */
+    private FileVersion[] getHistory(final IFile original) {
+        final File[] files = getHistoryFolder(original).listFiles();
+        if (files == null) {
+            return new FileVersion[0];
+        }
+        final List<FileVersion> versions = new ArrayList<FileVersion>(files.length);
+        for (int i = 0; i < files.length; i++) {
+            final String name = files[i].getName();
+            if (name.endsWith(SNAPSHOT_EXTENSION)) {
+                try {
+                    final String timeStamp = name.substring(0, name.length() - SNAPSHOT_EXTENSION.length());
+                    versions.add(new FileVersion(files[i], Long.parseLong(timeStamp)));
+                } catch (final NumberFormatException exc) {
+                    // not one of ours - leave it alone
+                }
+            }
+        }
+        Collections.sort(versions);
+        return versions.toArray(new FileVersion[versions.size()]);
+    }
+
+    private void evict(final IFile original) {
+        final long maxCount = PluginActivator.getLongPreference(PluginConstants.KEY_HISTORY_SIZE);
+        final long maxAge = PluginActivator.getLongPreference(PluginConstants.KEY_HISTORY_MAX_AGE) * 60 * 1000;
+        final long maxSize = PluginActivator.getLongPreference(PluginConstants.KEY_HISTORY_MAX_SIZE) * 1024;
+        final long oldestTimeStamp = System.currentTimeMillis() - maxAge;
+        final FileVersion[] history = getHistory(original);
+        if (history.length == 0) {
+            return;
+        }
+        // the current snapshot counts against the budget, but is never evicted
+        long size = getSnapshotFile(original).length();
+        for (int i = 0; i < history.length; i++) {
+            size += history[i].getSize();
+            if ((i >= maxCount) || (history[i].getTimeStamp() < oldestTimeStamp) || (size > maxSize)) {
+                history[i].file.delete();
+            }
+        }
+        // File.delete() fails on a non-empty folder
+        getHistoryFolder(original).delete();
+    }
+
+    /**
+     * @see ISnapshotStore#dispose()
+     */
+    public void dispose() {
+        locations.dispose();
+    }
+
+    private static InputStream open(final File file) throws CoreException {
+        try {
+            return new FileInputStream(file);
+        } catch (final IOException exc) {
+            throw SnapshotFileWriter.newCoreException(file, exc);
+        }
+    }
+
+    private void delete(final File file) throws CoreException {
+        if (file.exists() && !file.delete()) {
+            throw SnapshotFileWriter.newCoreException(file, null);
+        }
+    }
+
+    private void pruneFolders(final File folder) {
+        // remove the folders that were only created to hold the snapshots - File.delete() fails on a non-empty folder
+        File current = folder;
+        while ((current != null) && !current.equals(root) && current.delete()) {
+            current = current.getParentFile();
+        }
+    }
+
+    /**
+     * A version of a snapshot - either the current one or one from the history. Sorts newest first.
+     */
+    private static final class FileVersion implements ISnapshotVersion, Comparable<FileVersion> {
+        private final File file;
+        private final long timeStamp;
+
+        FileVersion(final File file, final long timeStamp) {
+            super();
+            this.file = file;
+            this.timeStamp = timeStamp;
+        }
+
+        /**
+         * @see ISnapshotVersion#getTimeStamp()
+         */
+        public long getTimeStamp() {
+            return timeStamp;
+        }
+
+        /**
+         * @see ISnapshotVersion#getSize()
+         */
+        public long getSize() {
+            return file.length();
+        }
+
+        /**
+         * @see ISnapshotVersion#getContents()
+         */
+        public InputStream getContents() throws CoreException {
+            return open(file);
+        }
+
+        /**
+         * @see Comparable#compareTo(Object)
+         */
+        public int compareTo(final FileVersion other) {
+            if (timeStamp == other.timeStamp) {
+                return 0;
+            }
+            return timeStamp > other.timeStamp ? -1 : 1;
+        }
+    }
+
+    /**
+     * Where the snapshot files of one original file are - along with the rule for them.
+     */
+    private final class Locations {
+        private final File snapshotFile;
+        private final File journalFile;
+        private final File historyFolder;
+        private final ISchedulingRule rule;
+
+        Locations(final IFile original) {
+            super();
+            final File folder = new File(root, original.getParent().getFullPath().makeRelative().toOSString());
+            final String name = original.getName();
+            this.snapshotFile = new File(folder, name + SNAPSHOT_EXTENSION);
+            this.journalFile = new File(folder, name + PluginConstants.JOURNAL_NAME_INFIX + SNAPSHOT_EXTENSION);
+            this.historyFolder = new File(folder, name + SNAPSHOT_EXTENSION + HISTORY_EXTENSION);
+            this.rule = MultiRule.combine(new FileRule(snapshotFile), new FileRule(journalFile));
+        }
+    }
+
+    /**
+     * A scheduling rule for a single file outside of the workspace - conflicting only with the rule for the same file.
+     */
+    private static final class FileRule implements ISchedulingRule {
+        private final File file;
+
+        FileRule(final File file) {
+            super();
+            this.file = file;
+        }
+
+        /**
+         * @see ISchedulingRule#contains(ISchedulingRule)
+         */
+        public boolean contains(final ISchedulingRule rule) {
+            return isConflicting(rule);
+        }
+
+        /**
+         * @see ISchedulingRule#isConflicting(ISchedulingRule)
+         */
+        public boolean isConflicting(final ISchedulingRule rule) {
+            return (rule instanceof FileRule) && file.equals(((FileRule) rule).file);
+        }
+    }
+}
@@ -0,0 +1,395 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.zip.CRC32;
+
+import net.sf.savedirtyeditors.PluginActivator;
+import net.sf.savedirtyeditors.PluginConstants;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceProxy;
+import org.eclipse.core.resources.IResourceProxyVisitor;
+import org.eclipse.core.resources.IResourceRuleFactory;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.MultiRule;
+import org.eclipse.jface.util.IPropertyChangeListener;
+import org.eclipse.jface.util.PropertyChangeEvent;
+
+/**
+ * An {@link ISnapshotStore} that keeps the snapshot as an {@link IFile} in the same folder as the original file, with
+ * the name surrounded with the user-defined preferences for the snapshot name prefix and suffix. Every write goes
+ * through the workspace, and so is seen by the resource change listeners (builders, team providers, etc). When the
+ * snapshot is on the local file system, it is written by the {@link SnapshotFileWriter} and then refreshed - so that a
+ * crash in the middle of a write does not truncate it.
+ * <p>
+ * The files that have snapshots are listed in a {@link SnapshotManifest} in the state location of the plugin - so that
+ * the snapshots of all the other files need not be refreshed. If the manifest is missing, it is rebuilt from the
+ * resource tree of the workspace.
+ */
+public final class WorkspaceSnapshotStore implements ISnapshotStore {
+    /**
+     * The name of the file in the state location that the {@link SnapshotManifest} is kept in.
+     */
+    public static final String MANIFEST_FILE = "workspace.manifest"; //$NON-NLS-1$
+
+    private final SnapshotFileWriter writer = new SnapshotFileWriter();
+    private final SnapshotManifest manifest;
+    private final SnapshotLocationCache<IFile[]> locations = new SnapshotLocationCache<IFile[]>() {
+        @Override
+        protected IFile[] resolve(final IFile original) {
+            return new IFile[] { getSiblingFile(original, original.getName()),
+                    getSiblingFile(original, original.getName() + PluginConstants.JOURNAL_NAME_INFIX) };
+        }
+    };
+
+    /**
+     * The locations depend on the snapshot name prefix and suffix - so they are worked out again when those change.
+     */
+    private final IPropertyChangeListener preferenceListener = new IPropertyChangeListener() {
+        public void propertyChange(final PropertyChangeEvent event) {
+            if (PluginConstants.KEY_SNAPSHOT_NAME_PREFIX.equals(event.getProperty())
+                    || PluginConstants.KEY_SNAPSHOT_NAME_SUFFIX.equals(event.getProperty())) {
+                locations.clear();
+            }
+        }
+    };
+    private boolean manifestChecked = false;
+
+    /**
+     * Constructor for WorkspaceSnapshotStore.
+     * 
+     * @param stateLocation
+     *            The state location of the plugin - in which the manifest is kept
+     */
+    public WorkspaceSnapshotStore(final IPath stateLocation) {
+        super();
+        this.manifest = new SnapshotManifest(stateLocation.append(MANIFEST_FILE).toFile());
+        PluginActivator.getDefault().getPreferenceStore().addPropertyChangeListener(preferenceListener);
+    }
+
+    /**
+     * @see ISnapshotStore#getSchedulingRule(IFile)
+     */
+    public ISchedulingRule getSchedulingRule(final IFile original) {
+        final IResourceRuleFactory ruleFactory = ResourcesPlugin.getWorkspace().getRuleFactory();
+        ISchedulingRule rule = null;
+        final IFile[] files = locations.get(original);
+        for (int i = 0; i < files.length; i++) {
+            rule = MultiRule.combine(rule, ruleFactory.createRule(files[i]));
+            rule = MultiRule.combine(rule, ruleFactory.modifyRule(files[i]));
+            rule = MultiRule.combine(rule, ruleFactory.deleteRule(files[i]));
+            rule = MultiRule.combine(rule, ruleFactory.refreshRule(files[i]));
+        }
+        return rule;
+    }
+
+    /**
+     * The resource change notifications are deferred until the whole batch is done.
+     * 
+     * @see ISnapshotStore#run(IWorkspaceRunnable, ISchedulingRule, IProgressMonitor)
+     */
+    public void run(final IWorkspaceRunnable runnable, final ISchedulingRule rule, final IProgressMonitor monitor)
+            throws CoreException {
+        ResourcesPlugin.getWorkspace().run(runnable, rule, IWorkspace.AVOID_UPDATE, monitor);
+        // whatever changed in the manifest during the batch is written out once
+        getManifest().save();
+    }
+
+    /**
+     * @see ISnapshotStore#refresh(IFile)
+     */
+    public void refresh(final IFile original) throws CoreException {
+        if (!getManifest().mayExist(original)) {
+            return;
+        }
+        // the snapshot files are not recognized as being already present unless they are refreshed - but there is no
+        // need to refresh the whole folder for that
+        getSnapshotFile(original).refreshLocal(IResource.DEPTH_ZERO, new NullProgressMonitor());
+        getJournalFile(original).refreshLocal(IResource.DEPTH_ZERO, new NullProgressMonitor());
+    }
+
+    /**
+     * @see ISnapshotStore#exists(IFile)
+     */
+    public boolean exists(final IFile original) {
+        return getManifest().mayExist(original) && exists(original, getSnapshotFile(original));
+    }
+
+    /**
+     * @see ISnapshotStore#journalExists(IFile)
+     */
+    public boolean journalExists(final IFile original) {
+        return getManifest().mayExist(original) && exists(original, getJournalFile(original));
+    }
+
+    /**
+     * @see ISnapshotStore#getContents(IFile)
+     */
+    public InputStream getContents(final IFile original) throws CoreException {
+        return getSnapshotFile(original).getContents(true);
+    }
+
+    /**
+     * @see ISnapshotStore#getJournalContents(IFile)
+     */
+    public InputStream getJournalContents(final IFile original) throws CoreException {
+        return getJournalFile(original).getContents(true);
+    }
+
+    /**
+     * No history is kept in the workspace - every older version would show up as a resource of its own.
+     * 
+     * @see ISnapshotStore#getVersions(IFile)
+     */
+    public ISnapshotVersion[] getVersions(final IFile original) {
+        final IFile snapshotFile = getSnapshotFile(original);
+        if (!getManifest().mayExist(original) || !exists(original, snapshotFile)) {
+            return new ISnapshotVersion[0];
+        }
+        return new ISnapshotVersion[] { new ISnapshotVersion() {
+            public long getTimeStamp() {
+                return snapshotFile.getLocalTimeStamp();
+            }
+
+            public long getSize() {
+                final IPath location = snapshotFile.getLocation();
+                return location == null ? -1 : location.toFile().length();
+            }
+
+            public InputStream getContents() throws CoreException {
+                return snapshotFile.getContents(true);
+            }
+        } };
+    }
+
+    /**
+     * @see ISnapshotStore#setContents(IFile, ISnapshotContents)
+     */
+    public boolean setContents(final IFile original, final ISnapshotContents contents) throws CoreException {
+        final IFile snapshotFile = getSnapshotFile(original);
+        final IPath location = snapshotFile.getLocation();
+        getManifest().add(original);
+        final CRC32 checksum = new CRC32();
+        if (location != null) {
+            final File file = location.toFile();
+            try {
+                if (!writer.write(file, contents, null, checksum)) {
+                    return false;
+                }
+            } catch (final IOException exc) {
+                throw SnapshotFileWriter.newCoreException(file, exc);
+            }
+            snapshotFile.refreshLocal(IResource.DEPTH_ZERO, new NullProgressMonitor());
+            getManifest().update(original, file.lastModified(), file.length(), checksum.getValue());
+            return true;
+        }
+
+        // not on the local file system - so the write can only go through the workspace, which needs it all in memory
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            if (!contents.writeTo(Channels.newChannel(outputStream))) {
+                return false;
+            }
+        } catch (final IOException exc) {
+            throw SnapshotFileWriter.newCoreException(snapshotFile.getFullPath().toFile(), exc);
+        }
+        final byte[] bytes = outputStream.toByteArray();
+        checksum.update(bytes, 0, bytes.length);
+        final InputStream inputStream = new ByteArrayInputStream(bytes);
+        try {
+            if (!snapshotFile.exists()) {
+                snapshotFile.create(inputStream, true, new NullProgressMonitor());
+            } else {
+                snapshotFile.setContents(inputStream, true, false, new NullProgressMonitor());
+            }
+        } finally {
+            close(inputStream);
+        }
+        getManifest().update(original, snapshotFile.getLocalTimeStamp(), bytes.length, checksum.getValue());
+        return true;
+    }
+
+    /**
+     * @see ISnapshotStore#appendJournal(IFile, byte[])
+     */
+    public void appendJournal(final IFile original, final byte[] records) throws CoreException {
+        final IFile journalFile = getJournalFile(original);
+        final IPath location = journalFile.getLocation();
+        getManifest().add(original);
+        if (location != null) {
+            final File file = location.toFile();
+            try {
+                writer.append(file, records);
+            } catch (final IOException exc) {
+                throw SnapshotFileWriter.newCoreException(file, exc);
+            }
+            journalFile.refreshLocal(IResource.DEPTH_ZERO, new NullProgressMonitor());
+            return;
+        }
+
+        final InputStream inputStream = new ByteArrayInputStream(records);
+        try {
+            if (!journalFile.exists()) {
+                journalFile.create(inputStream, true, new NullProgressMonitor());
+            } else {
+                journalFile.appendContents(inputStream, true, false, new NullProgressMonitor());
+            }
+        } finally {
+            close(inputStream);
+        }
+    }
+
+    /**
+     * @see ISnapshotStore#deleteJournal(IFile)
+     */
+    public void deleteJournal(final IFile original) throws CoreException {
+        delete(original, getJournalFile(original));
+    }
+
+    /**
+     * @see ISnapshotStore#delete(IFile)
+     */
+    public void delete(final IFile original) throws CoreException {
+        // the journal is useless without its base snapshot - so remove it first
+        delete(original, getJournalFile(original));
+        delete(original, getSnapshotFile(original));
+        getManifest().remove(original);
+        getManifest().save();
+    }
+
+    /**
+     * If the manifest could not be loaded (for eg, the first time around), it is rebuilt from the resource tree.
+     * 
+     * @see ISnapshotStore#getManifest()
+     */
+    public SnapshotManifest getManifest() {
+        synchronized (manifest) {
+            if (!manifestChecked) {
+                manifestChecked = true;
+                if (!manifest.isComplete()) {
+                    rebuildManifest();
+                }
+            }
+        }
+        return manifest;
+    }
+
+    private void rebuildManifest() {
+        final String prefix = PluginActivator.getStringPreference(PluginConstants.KEY_SNAPSHOT_NAME_PREFIX);
+        final String suffix = PluginActivator.getStringPreference(PluginConstants.KEY_SNAPSHOT_NAME_SUFFIX);
+        if ((prefix.length() == 0) && (suffix.length() == 0)) {
+            // every file would look like a snapshot - so the manifest stays incomplete
+            return;
+        }
+        try {
+            // a proxy visit only walks the in-memory resource tree - the disk is not touched
+            ResourcesPlugin.getWorkspace().getRoot().accept(new IResourceProxyVisitor() {
+                public boolean visit(final IResourceProxy proxy) throws CoreException {
+                    final String name = proxy.getName();
+                    if ((proxy.getType() == IResource.FILE) && name.startsWith(prefix) && name.endsWith(suffix)
+                            && (name.length() > prefix.length() + suffix.length())) {
+                        String originalName = name.substring(prefix.length(), name.length() - suffix.length());
+                        if (originalName.endsWith(PluginConstants.JOURNAL_NAME_INFIX)) {
+                            originalName = originalName.substring(0, originalName.length()
+                                    - PluginConstants.JOURNAL_NAME_INFIX.length());
+                        }
+                        manifest.add(proxy.requestFullPath().removeLastSegments(1).append(originalName));
+                    }
+                    return true;
+                }
+            }, IResource.NONE);
+            manifest.setComplete();
+        } catch (final CoreException exc) {
+            // the manifest stays incomplete - so every snapshot is refreshed
+            PluginActivator.logError(exc);
+        }
+    }
+
+    /**
+     * Creates the snapshot {@link IFile} for the specified original file.
+     * 
+     * @param original
+     *            The original file
+     * @return A reference to the IFile (at the same physical folder location as the original file, but with the name
+     *         surrounded with the user-defined preferences for the snapshot name prefix and suffix.
+     */
+    public IFile getSnapshotFile(final IFile original) {
+        return locations.get(original)[0];
+    }
+
+    /**
+     * Creates the edit journal {@link IFile} that goes along with the snapshot {@link IFile} (as returned by
+     * {@link #getSnapshotFile(IFile)}) when the snapshots are being journaled.
+     * 
+     * @param original
+     *            The original file
+     * @return A reference to the IFile (at the same physical folder location as the original file, but with the name
+     *         followed by {@link PluginConstants#JOURNAL_NAME_INFIX} and surrounded with the user-defined preferences
+     *         for the snapshot name prefix and suffix.
+     */
+    public IFile getJournalFile(final IFile original) {
+        return locations.get(original)[1];
+    }
+
+    /**
+     * @see ISnapshotStore#dispose()
+     */
+    public void dispose() {
+        PluginActivator.getDefault().getPreferenceStore().removePropertyChangeListener(preferenceListener);
+        locations.dispose();
+    }
+
+    private IFile getSiblingFile(final IFile original, final String name) {
+        final IPath origFileFolder = original.getParent().getFullPath();
+        final IPath snapshotPath = origFileFolder.addTrailingSeparator().append(
+                PluginActivator.getStringPreference(PluginConstants.KEY_SNAPSHOT_NAME_PREFIX) + name
+                        + PluginActivator.getStringPreference(PluginConstants.KEY_SNAPSHOT_NAME_SUFFIX));
+        return ResourcesPlugin.getWorkspace().getRoot().getFile(snapshotPath);
+    }
+
+    private boolean exists(final IFile original, final IFile snapshotFile) {
+        // if the user cleared both the prefix and the suffix, the "snapshot" is the original file itself
+        return snapshotFile.exists() && !snapshotFile.equals(original);
+    }
+
+    private void delete(final IFile original, final IFile snapshotFile) throws CoreException {
+        // if the snapshotFile does not exist OR it is the same as the original file - dont proceed any further
+        if (!exists(original, snapshotFile)) {
+            return;
+        }
+        // NOTE: dont verify the timestamps - since the snapshot might be newer if the user selected to NOT save the
+        // changes, and just closed the editor
+        snapshotFile.delete(true, new NullProgressMonitor());
+    }
+
+    private void close(final InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (final IOException exc) {
+            PluginActivator.logError(exc);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.sf.savedirtyeditors.PluginActivator;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+
+/**
+ * Caches the charset of each file that is being snapshot - since {@link IFile#getCharset()} goes through the content
+ * type detection and the project and workspace preferences every time. The charset of a file is looked up again after
+ * its contents change (the content type might declare the charset, like in an XML file) or it is removed; and all the
+ * charsets are looked up again once the encoding of any folder, project or the workspace changes.
+ */
+public final class CharsetCache implements IResourceChangeListener {
+    private final ConcurrentMap<IFile, String> charsets = new ConcurrentHashMap<IFile, String>();
+
+    /**
+     * Constructor for CharsetCache. The cache listens to the workspace until it is disposed.
+     */
+    public CharsetCache() {
+        super();
+        ResourcesPlugin.getWorkspace().addResourceChangeListener(this, IResourceChangeEvent.POST_CHANGE);
+    }
+
+    /**
+     * @param file
+     *            The file whose charset has to be found
+     * @return The name of the charset of the file
+     * @exception CoreException
+     *                If the charset could not be determined
+     * @see IFile#getCharset()
+     */
+    public String getCharset(final IFile file) throws CoreException {
+        String charset = charsets.get(file);
+        if (charset == null) {
+            charset = file.getCharset();
+            charsets.put(file, charset);
+        }
+        return charset;
+    }
+
+    /**
+     * Stops listening to the workspace, and drops all the cached charsets.
+     */
+    public void dispose() {
+        ResourcesPlugin.getWorkspace().removeResourceChangeListener(this);
+        charsets.clear();
+    }
+
+    /**
+     * @see IResourceChangeListener#resourceChanged(IResourceChangeEvent)
+     */
+    public void resourceChanged(final IResourceChangeEvent event) {
+        final IResourceDelta delta = event.getDelta();
+        if ((delta == null) || charsets.isEmpty()) {
+            return;
+        }
+        try {
+            delta.accept(new IResourceDeltaVisitor() {
+                public boolean visit(final IResourceDelta child) {
+                    final IResource resource = child.getResource();
+                    if (resource.getType() != IResource.FILE) {
+                        if ((child.getFlags() & IResourceDelta.ENCODING) != 0) {
+                            // the files that inherit the encoding of the container are not told about it
+                            charsets.clear();
+                            return false;
+                        }
+                        return true;
+                    }
+                    if ((child.getKind() == IResourceDelta.REMOVED)
+                            || ((child.getFlags() & (IResourceDelta.ENCODING | IResourceDelta.CONTENT)) != 0)) {
+                        charsets.remove(resource);
+                    }
+                    return false;
+                }
+            });
+        } catch (final CoreException exc) {
+            PluginActivator.logError(exc);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+import org.eclipse.jface.text.ISynchronizable;
+
+/**
+ * Encodes the contents of an {@link IDocument} (or a {@link CharSequence}) straight into a
+ * {@link WritableByteChannel}, a chunk at a time - so that the memory needed does not depend on the size of the
+ * document, unlike <code>document.get().getBytes(charset)</code> which holds two full copies of it. The
+ * {@link CharsetEncoder}s (one per charset) and the byte buffer are reused from one call to the next, so an instance
+ * should only be used by one thread at a time. A document without modification stamps (see
+ * {@link IDocumentExtension4}) is copied in one go instead, since a change in between two chunks would go unnoticed -
+ * and a document whose stamp is not known is not encoded at all, for the same reason.
+ */
+public final class DocumentEncoder {
+    /**
+     * The number of characters read from the document at a time.
+     */
+    private static final int CHUNK_SIZE = 8192;
+
+    /**
+     * The size of the buffer holding the encoded bytes before they are written to the channel.
+     */
+    private static final int BUFFER_SIZE = 16384;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * The encoders created so far - keyed on the charset names they were asked for, so that the charset need not even
+     * be looked up again.
+     */
+    private final Map<String, CharsetEncoder> encoders = new HashMap<String, CharsetEncoder>();
+
+    /**
+     * Encodes the contents of the document. If the document is changed in the meantime (from the UI thread), whatever
+     * was written to the channel is not a consistent copy of the document, and false is returned - as it is if its
+     * modification stamp is not known, or reading it fails half way. If the document has no modification stamps at
+     * all, a single copy of it (made while holding its lock) is encoded instead.
+     * 
+     * @param document
+     *            The document to be encoded
+     * @param charset
+     *            The name of the charset to encode the document with
+     * @param channel
+     *            The channel that the encoded bytes are written to
+     * @return True if the whole document was encoded; false if it changed (or might have changed) while being encoded
+     * @exception IOException
+     *                If the channel could not be written to
+     */
+    public boolean encode(final IDocument document, final String charset, final WritableByteChannel channel)
+            throws IOException {
+        if (!(document instanceof IDocumentExtension4)) {
+            encode(copy(document), charset, channel);
+            return true;
+        }
+        final long stamp = getModificationStamp(document);
+        if (stamp == IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP) {
+            // a change in between two chunks would go unnoticed
+            return false;
+        }
+        final CharsetEncoder charsetEncoder = getEncoder(charset);
+        final int length = document.getLength();
+        int offset = 0;
+        try {
+            while (offset < length) {
+                final String chunk = document.get(offset, Math.min(CHUNK_SIZE, length - offset));
+                offset += encode(charsetEncoder, chunk, 0, chunk.length(), offset + chunk.length() == length,
+                        channel);
+            }
+        } catch (final BadLocationException exc) {
+            // the document got shorter while we were reading it
+            return false;
+        } catch (final RuntimeException exc) {
+            // the text store can fail in other ways (for eg, wrapped BadLocationExceptions or IndexOutOfBounds) while
+            // being changed from the UI thread
+            return false;
+        }
+        flush(charsetEncoder, channel);
+        return stamp == getModificationStamp(document);
+    }
+
+    /**
+     * Encodes the text.
+     * 
+     * @param text
+     *            The text to be encoded
+     * @param charset
+     *            The name of the charset to encode the text with
+     * @param channel
+     *            The channel that the encoded bytes are written to
+     * @exception IOException
+     *                If the channel could not be written to
+     */
+    public void encode(final CharSequence text, final String charset, final WritableByteChannel channel)
+            throws IOException {
+        final CharsetEncoder charsetEncoder = getEncoder(charset);
+        final int length = text.length();
+        int offset = 0;
+        while (offset < length) {
+            // the chunks are wrapped rather than cut out of the text - which would copy them
+            final int end = Math.min(offset + CHUNK_SIZE, length);
+            offset += encode(charsetEncoder, text, offset, end, end == length, channel);
+        }
+        flush(charsetEncoder, channel);
+    }
+
+    /**
+     * Encodes one chunk of the text (from start to end) - except for a trailing high surrogate, which has to be
+     * encoded along with the next chunk.
+     * 
+     * @return The number of characters encoded
+     */
+    private int encode(final CharsetEncoder charsetEncoder, final CharSequence text, final int start, final int end,
+            final boolean last, final WritableByteChannel channel) throws IOException {
+        int count = end - start;
+        if (!last && (count > 1) && Character.isHighSurrogate(text.charAt(end - 1))) {
+            count--;
+        }
+        final CharBuffer chars = CharBuffer.wrap(text, start, start + count);
+        CoderResult result;
+        do {
+            result = charsetEncoder.encode(chars, buffer, false);
+            drain(channel);
+        } while (result.isOverflow());
+        return count;
+    }
+
+    private void flush(final CharsetEncoder charsetEncoder, final WritableByteChannel channel) throws IOException {
+        final CharBuffer empty = CharBuffer.allocate(0);
+        while (charsetEncoder.encode(empty, buffer, true).isOverflow()) {
+            drain(channel);
+        }
+        while (charsetEncoder.flush(buffer).isOverflow()) {
+            drain(channel);
+        }
+        drain(channel);
+    }
+
+    private void drain(final WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private CharsetEncoder getEncoder(final String charset) {
+        CharsetEncoder encoder = encoders.get(charset);
+        if (encoder == null) {
+            // same as String.getBytes(String) - replace whatever cannot be encoded
+            encoder = Charset.forName(charset).newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            encoders.put(charset, encoder);
+        }
+        return encoder.reset();
+    }
+
+    private long getModificationStamp(final IDocument document) {
+        return ((IDocumentExtension4) document).getModificationStamp();
+    }
+
+    /**
+     * @return The contents of the document - copied while holding its lock object, if it has one, just like every
+     *         change to it is made
+     */
+    private String copy(final IDocument document) {
+        if (document instanceof ISynchronizable) {
+            final Object lock = ((ISynchronizable) document).getLockObject();
+            if (lock != null) {
+                synchronized (lock) {
+                    return document.get();
+                }
+            }
+        }
+        return document.get();
+    }
+}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the times (and bytes) of one operation - in buckets that double in size, starting at a microsecond, so that
+ * recording a time is just a couple of atomic increments, without any lock or allocation. The numbers read while
+ * times are being recorded (or while being reset) might not add up exactly, which is good enough for watching trends.
+ */
+public final class LatencyHistogram implements LatencyHistogramMBean {
+    /**
+     * The number of buckets - the last one holds everything above 2^30 micros (about 18 minutes).
+     */
+    private static final int BUCKETS = 32;
+
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * Records one run of the operation.
+     * 
+     * @param nanos
+     *            The time (in nanos) the operation took
+     * @param byteCount
+     *            The number of bytes handled by the operation; 0 if it does not handle any
+     */
+    public void record(final long nanos, final long byteCount) {
+        final long time = Math.max(nanos, 0);
+        // bucket i holds the times from 2^(i-1) up to 2^i micros
+        final int bucket = Math.min(Long.SIZE - Long.numberOfLeadingZeros(time / 1000), BUCKETS - 1);
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        total.addAndGet(time);
+        bytes.addAndGet(byteCount);
+        long current = max.get();
+        while ((time > current) && !max.compareAndSet(current, time)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @see LatencyHistogramMBean#getCount()
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @see LatencyHistogramMBean#getTotalMillis()
+     */
+    public double getTotalMillis() {
+        return total.get() / NANOS_PER_MILLI;
+    }
+
+    /**
+     * @see LatencyHistogramMBean#getMeanMillis()
+     */
+    public double getMeanMillis() {
+        final long n = count.get();
+        return n == 0 ? 0 : total.get() / NANOS_PER_MILLI / n;
+    }
+
+    /**
+     * @see LatencyHistogramMBean#getMaxMillis()
+     */
+    public double getMaxMillis() {
+        return max.get() / NANOS_PER_MILLI;
+    }
+
+    /**
+     * @see LatencyHistogramMBean#getMedianMillis()
+     */
+    public double getMedianMillis() {
+        return getPercentile(0.5);
+    }
+
+    /**
+     * @see LatencyHistogramMBean#get90thPercentileMillis()
+     */
+    public double get90thPercentileMillis() {
+        return getPercentile(0.9);
+    }
+
+    /**
+     * @see LatencyHistogramMBean#get99thPercentileMillis()
+     */
+    public double get99thPercentileMillis() {
+        return getPercentile(0.99);
+    }
+
+    /**
+     * @see LatencyHistogramMBean#getBytes()
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @see LatencyHistogramMBean#reset()
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+        bytes.set(0);
+    }
+
+    /**
+     * @return The upper bound of the bucket holding the specified fraction of the times - but never more than the
+     *         longest time
+     */
+    private double getPercentile(final double fraction) {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += buckets.get(i);
+        }
+        final long rank = (long) Math.ceil(n * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += buckets.get(i);
+            if ((seen > 0) && (seen >= rank)) {
+                return Math.min((1L << i) * 1000 / NANOS_PER_MILLI, getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+}
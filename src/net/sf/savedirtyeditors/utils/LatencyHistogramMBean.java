@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.utils;
+
+/**
+ * The management interface of a {@link LatencyHistogram} - as seen through JMX (for eg, in jconsole). All the times
+ * are in millis; the percentiles are only as precise as the buckets of the histogram, which double in size.
+ */
+public interface LatencyHistogramMBean {
+    /**
+     * @return The number of times the operation was measured
+     */
+    long getCount();
+
+    /**
+     * @return The total time spent in the operation
+     */
+    double getTotalMillis();
+
+    /**
+     * @return The average time of the operation
+     */
+    double getMeanMillis();
+
+    /**
+     * @return The longest time of the operation
+     */
+    double getMaxMillis();
+
+    /**
+     * @return The time that half of the operations took less than
+     */
+    double getMedianMillis();
+
+    /**
+     * @return The time that 90% of the operations took less than
+     */
+    double get90thPercentileMillis();
+
+    /**
+     * @return The time that 99% of the operations took less than
+     */
+    double get99thPercentileMillis();
+
+    /**
+     * @return The total number of bytes handled by the operation; 0 if it does not handle any
+     */
+    long getBytes();
+
+    /**
+     * Starts counting afresh.
+     */
+    void reset();
+}
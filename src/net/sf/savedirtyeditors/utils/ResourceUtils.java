@@ -10,6 +10,15 @@
  *******************************************************************************/
 package net.sf.savedirtyeditors.utils;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.runtime.ISafeRunnable;
 import org.eclipse.core.runtime.SafeRunner;
@@ -24,6 +33,10 @@ import org.eclipse.ui.texteditor.ITextEditor;
  * A utility class with commonly used static methods.
  */
 public final class ResourceUtils {
+    /**
+     * The size of the buffers used while reading files and streams.
+     */
+    private static final int BUFFER_SIZE = 8192;
     /**
      * Not intended for instantiation.
      */
@@ -88,12 +101,121 @@ public final class ResourceUtils {
      *         {@link ITextEditor} instance
      */
     public static final String getDirtyContents(final IEditorPart part) {
+        final IDocument document = getDocument(part);
+        return document == null ? null : document.get();
+    }
+
+    /**
+     * Null-safe convenience method to retrieve the {@link IDocument} being edited in the {@link IEditorPart}.
+     * 
+     * @param part
+     *            The IEditorPart whose document has to be found
+     * @return The document of the editorPart or <code>null</code> if the editorPart is not a {@link ITextEditor}
+     *         instance
+     */
+    public static final IDocument getDocument(final IEditorPart part) {
         if (!(part instanceof ITextEditor)) {
             return null;
         }
         final ITextEditor editor = (ITextEditor) part;
         final IDocumentProvider provider = editor.getDocumentProvider();
-        final IDocument document = provider.getDocument(editor.getEditorInput());
-        return document == null ? null : document.get();
+        return provider == null ? null : provider.getDocument(editor.getEditorInput());
+    }
+
+    /**
+     * Convenience method to read the remaining contents of an {@link InputStream}. The stream is closed afterwards.
+     * 
+     * @param inputStream
+     *            The non-null InputStream to be read
+     * @return The bytes read from the stream
+     * @exception IOException
+     *                If the stream could not be read
+     */
+    public static final byte[] read(final InputStream inputStream) throws IOException {
+        try {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, count);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Convenience method to compute the CRC-32 of a file, reading it through a {@link FileChannel} a buffer at a time.
+     * 
+     * @param file
+     *            The non-null File to be read
+     * @return The CRC-32 of the contents of the file
+     * @exception IOException
+     *                If the file could not be read
+     */
+    public static final long checksum(final File file) throws IOException {
+        final FileInputStream inputStream = new FileInputStream(file);
+        try {
+            final FileChannel channel = inputStream.getChannel();
+            final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            final CRC32 checksum = new CRC32();
+            while (channel.read(buffer) != -1) {
+                checksum.update(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            return checksum.getValue();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Convenience method to compare the remaining contents of two {@link InputStream}s, a buffer at a time - so that
+     * neither is ever held in memory as a whole, and the comparison stops at the first difference. Both streams are
+     * closed afterwards.
+     * 
+     * @param first
+     *            The non-null InputStream to be compared
+     * @param second
+     *            The non-null InputStream to be compared with
+     * @return True if both streams have the same contents
+     * @exception IOException
+     *                If either stream could not be read
+     */
+    public static final boolean contentEquals(final InputStream first, final InputStream second) throws IOException {
+        try {
+            final byte[] firstBuffer = new byte[BUFFER_SIZE];
+            final byte[] secondBuffer = new byte[BUFFER_SIZE];
+            while (true) {
+                final int count = readFully(first, firstBuffer);
+                if (count != readFully(second, secondBuffer)) {
+                    return false;
+                }
+                for (int i = 0; i < count; i++) {
+                    if (firstBuffer[i] != secondBuffer[i]) {
+                        return false;
+                    }
+                }
+                if (count < BUFFER_SIZE) {
+                    return true;
+                }
+            }
+        } finally {
+            try {
+                first.close();
+            } finally {
+                second.close();
+            }
+        }
+    }
+
+    private static int readFully(final InputStream inputStream, final byte[] buffer) throws IOException {
+        int total = 0;
+        int count;
+        while ((total < buffer.length) && ((count = inputStream.read(buffer, total, buffer.length - total)) != -1)) {
+            total += count;
+        }
+        return total;
     }
 }
\ No newline at end of file
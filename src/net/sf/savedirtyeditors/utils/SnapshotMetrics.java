@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.sf.savedirtyeditors.PluginActivator;
+import net.sf.savedirtyeditors.PluginConstants;
+
+/**
+ * The {@link LatencyHistogram}s of the operations that make up taking (and cleaning up) a snapshot - which are always
+ * recorded, since that only costs a couple of atomic increments, and can be watched through JMX once
+ * {@link #register()}ed (under the domain {@link PluginConstants#PLUGIN_ID}, one MBean per operation). The times are
+ * not kept per editor, only per operation - the trace options tell which editor took long.
+ */
+public final class SnapshotMetrics {
+    /**
+     * The whole run of a save action that wrote something - from checking the editor to the snapshot being queued (or,
+     * along with its journal, on the disk).
+     */
+    public static final String CAPTURE = "capture"; //$NON-NLS-1$
+
+    /**
+     * Copying the contents of a document in the critical section of a capture - the longest that the UI thread can be
+     * held up by it.
+     */
+    public static final String COPY = "copy"; //$NON-NLS-1$
+
+    /**
+     * Encoding the contents of a snapshot - not counting the time the encoded bytes spent being written.
+     */
+    public static final String ENCODE = "encode"; //$NON-NLS-1$
+
+    /**
+     * Writing a snapshot (or appending to its journal) - including the fsync and the rename, along with the number of
+     * bytes written.
+     */
+    public static final String WRITE = "write"; //$NON-NLS-1$
+
+    /**
+     * Deleting the snapshots of a file from all the stores.
+     */
+    public static final String DELETE = "delete"; //$NON-NLS-1$
+
+    /**
+     * Getting a snapshot ready to be reconciled - replaying its journal and comparing it with the original file.
+     */
+    public static final String RECONCILE = "reconcile"; //$NON-NLS-1$
+
+    /**
+     * Waiting for the scheduling rule of a snapshot (or a batch of them) to be acquired.
+     */
+    public static final String RULE_WAIT = "ruleWait"; //$NON-NLS-1$
+
+    /**
+     * Running on the UI thread (in <code>asyncExec</code>) - except for the dialogs, which wait for the user.
+     */
+    public static final String UI_THREAD = "uiThread"; //$NON-NLS-1$
+
+    private static final Map<String, LatencyHistogram> histograms;
+
+    static {
+        final String[] names = { CAPTURE, COPY, ENCODE, WRITE, DELETE, RECONCILE, RULE_WAIT, UI_THREAD };
+        final Map<String, LatencyHistogram> map = new LinkedHashMap<String, LatencyHistogram>();
+        for (int i = 0; i < names.length; i++) {
+            map.put(names[i], new LatencyHistogram());
+        }
+        histograms = Collections.unmodifiableMap(map);
+    }
+
+    private SnapshotMetrics() {
+        // no instances
+    }
+
+    /**
+     * Records one run of an operation that does not handle any bytes.
+     * 
+     * @param operation
+     *            One of the operation constants in this class
+     * @param start
+     *            The value of {@link System#nanoTime()} when the operation started
+     */
+    public static void record(final String operation, final long start) {
+        record(operation, start, 0);
+    }
+
+    /**
+     * Records one run of an operation - up to now.
+     * 
+     * @param operation
+     *            One of the operation constants in this class
+     * @param start
+     *            The value of {@link System#nanoTime()} when the operation started
+     * @param bytes
+     *            The number of bytes handled by the operation
+     */
+    public static void record(final String operation, final long start, final long bytes) {
+        recordTime(operation, System.nanoTime() - start, bytes);
+    }
+
+    /**
+     * Records one run of an operation - whose time was added up from several parts.
+     * 
+     * @param operation
+     *            One of the operation constants in this class
+     * @param nanos
+     *            The time (in nanos) the operation took
+     * @param bytes
+     *            The number of bytes handled by the operation
+     */
+    public static void recordTime(final String operation, final long nanos, final long bytes) {
+        histograms.get(operation).record(nanos, bytes);
+    }
+
+    /**
+     * @param operation
+     *            One of the operation constants in this class
+     * @return The histogram of the operation - for the harnesses that run outside the workbench, and cannot use JMX
+     */
+    public static LatencyHistogram getHistogram(final String operation) {
+        return histograms.get(operation);
+    }
+
+    /**
+     * Registers the histograms with the platform MBean server. A failure is only logged - the metrics are not worth
+     * failing the plugin for.
+     */
+    public static void register() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (final Iterator<Map.Entry<String, LatencyHistogram>> iter = histograms.entrySet().iterator(); iter
+                .hasNext();) {
+            final Map.Entry<String, LatencyHistogram> entry = iter.next();
+            try {
+                final ObjectName name = getObjectName(entry.getKey());
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(entry.getValue(), name);
+                }
+            } catch (final JMException exc) {
+                PluginActivator.logError(exc);
+            }
+        }
+    }
+
+    /**
+     * Unregisters the histograms from the platform MBean server.
+     */
+    public static void unregister() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (final Iterator<String> iter = histograms.keySet().iterator(); iter.hasNext();) {
+            try {
+                final ObjectName name = getObjectName(iter.next());
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            } catch (final JMException exc) {
+                PluginActivator.logError(exc);
+            }
+        }
+    }
+
+    private static ObjectName getObjectName(final String operation) throws JMException {
+        return new ObjectName(PluginConstants.PLUGIN_ID + ":type=Snapshot,name=" + operation); //$NON-NLS-1$
+    }
+}
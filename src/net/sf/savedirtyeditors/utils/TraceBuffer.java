@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright (c) 2006 Vijay Aravamudhan
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Vijay Aravamudhan - initial API and implementation
+ *******************************************************************************/
+package net.sf.savedirtyeditors.utils;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import net.sf.savedirtyeditors.PluginConstants;
+
+import org.eclipse.core.runtime.ILog;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.MultiStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Holds the trace events in memory - in a ring buffer of a fixed size, overwriting the oldest events if it fills up -
+ * until a background {@link Job} writes them to the Eclipse log, all at once. So tracing only costs the thread that
+ * traces (for eg, the UI thread switching editors) a short synchronized block, and not a write to the log file.
+ */
+public final class TraceBuffer {
+    /**
+     * The time (in millis) that the events are held for, so that the burst they came in is written as one.
+     */
+    private static final long DRAIN_DELAY = 1000;
+
+    private final ILog log;
+    private final long[] times;
+    private final String[] events;
+    private final Job drainJob;
+    private int first = 0;
+    private int count = 0;
+    private int dropped = 0;
+
+    /**
+     * Constructor for TraceBuffer.
+     * 
+     * @param log
+     *            The log that the events are written to
+     * @param capacity
+     *            The number of events that can be held before the oldest ones are dropped
+     */
+    public TraceBuffer(final ILog log, final int capacity) {
+        super();
+        this.log = log;
+        this.times = new long[capacity];
+        this.events = new String[capacity];
+        this.drainJob = new Job(Messages.getString("TraceBuffer.name")) { //$NON-NLS-1$
+            @Override
+            protected IStatus run(final IProgressMonitor monitor) {
+                drain();
+                return Status.OK_STATUS;
+            }
+        };
+        drainJob.setSystem(true);
+        drainJob.setPriority(Job.DECORATE);
+    }
+
+    /**
+     * Adds an event - which is written to the log a little later.
+     * 
+     * @param event
+     *            The text of the event
+     */
+    public void add(final String event) {
+        final long now = System.currentTimeMillis();
+        final boolean wasEmpty;
+        synchronized (this) {
+            wasEmpty = count == 0;
+            final int index;
+            if (count == events.length) {
+                index = first;
+                first = (first + 1) % events.length;
+                dropped++;
+            } else {
+                index = (first + count) % events.length;
+                count++;
+            }
+            times[index] = now;
+            events[index] = event;
+        }
+        if (wasEmpty) {
+            drainJob.schedule(DRAIN_DELAY);
+        }
+    }
+
+    /**
+     * Writes whatever is left in the buffer to the log - called when the plugin is stopped.
+     */
+    public void dispose() {
+        drainJob.cancel();
+        drain();
+    }
+
+    private void drain() {
+        final long[] drainedTimes;
+        final String[] drainedEvents;
+        final int drainedDropped;
+        // only copy the events while holding the lock - the threads that trace should not wait for the formatting
+        synchronized (this) {
+            if ((count == 0) && (dropped == 0)) {
+                return;
+            }
+            drainedTimes = new long[count];
+            drainedEvents = new String[count];
+            for (int i = 0; i < count; i++) {
+                final int index = (first + i) % events.length;
+                drainedTimes[i] = times[index];
+                drainedEvents[i] = events[index];
+                events[index] = null;
+            }
+            drainedDropped = dropped;
+            first = 0;
+            count = 0;
+            dropped = 0;
+        }
+        final DateFormat format = new SimpleDateFormat("HH:mm:ss.SSS "); //$NON-NLS-1$
+        final MultiStatus status = new MultiStatus(PluginConstants.PLUGIN_ID, IStatus.WARNING, Messages
+                .getString("TraceBuffer.title"), null); //$NON-NLS-1$
+        if (drainedDropped > 0) {
+            status.add(newStatus(Messages.getString("TraceBuffer.dropped") + drainedDropped)); //$NON-NLS-1$
+        }
+        for (int i = 0; i < drainedEvents.length; i++) {
+            status.add(newStatus(format.format(new Date(drainedTimes[i])) + drainedEvents[i]));
+        }
+        log.log(status);
+    }
+
+    private static IStatus newStatus(final String message) {
+        return new Status(IStatus.WARNING, PluginConstants.PLUGIN_ID, IStatus.WARNING, message, null);
+    }
+}